@@ -0,0 +1,68 @@
+package com.rnim.rn.audio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * The Base64 work `recordingDidFinished` does for `IncludeBase64`: the whole file as one
+ * line-wrapped string, or `recordingDataChunk` events of unwrapped chunks with a CRC32 of the file.
+ */
+@State(Scope.Thread)
+public class Base64FinishBenchmark {
+
+  @Param({"65536", "1048576"})
+  public int size;
+
+  private File file;
+  private Base64StreamEncoder chunkEncoder;
+  private final CRC32 checksum = new CRC32();
+
+  @Setup
+  public void setUp() throws IOException {
+    byte[] data = new byte[size];
+    new Random(42).nextBytes(data);
+
+    file = File.createTempFile("benchmark", ".wav");
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      output.write(data);
+    } finally {
+      output.close();
+    }
+
+    chunkEncoder = new Base64StreamEncoder(1024 * 1024, false);
+  }
+
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public String encodeToString() throws IOException {
+    return new Base64StreamEncoder(Base64StreamEncoder.DEFAULT_CHUNK_SIZE, true).encodeToString(file);
+  }
+
+  @Benchmark
+  public long encodeChunks(final Blackhole blackhole) throws IOException {
+    checksum.reset();
+    long size = chunkEncoder.encode(file, new Base64StreamEncoder.Sink() {
+      @Override
+      public void write(byte[] encoded, int length) {
+        blackhole.consume(encoded);
+      }
+    }, checksum);
+    return size + checksum.getValue();
+  }
+}
@@ -0,0 +1,128 @@
+package com.rnim.rn.audio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * The per-buffer work on the PCM engine's writer thread, for one 20 ms buffer: metering, the
+ * waveform pyramid and every DSP stage on its own and as a chain.
+ */
+@State(Scope.Thread)
+public class PcmProcessingBenchmark {
+
+  private static final Clock CLOCK = new Clock() {
+    @Override
+    public long nanoTime() {
+      return System.nanoTime();
+    }
+  };
+
+  @Param({"16000", "48000"})
+  public int sampleRate;
+
+  @Param({"1", "2"})
+  public int channels;
+
+  private short[] input;
+  private short[] samples;
+  private LevelMeter levelMeter;
+  private WaveformPeaks waveform;
+  private DspChain gain;
+  private DspChain highPass;
+  private DspChain noiseGate;
+  private DspChain agc;
+  private DspChain chain;
+
+  @Setup
+  public void setUp() {
+    input = new short[sampleRate / 50 * channels];
+    samples = new short[input.length];
+
+    Random random = new Random(42);
+    for (int i = 0; i < input.length; i++) {
+      input[i] = (short) (6000 * Math.sin(2 * Math.PI * 440 * (i / channels) / sampleRate) + random.nextGaussian() * 300);
+    }
+
+    levelMeter = new LevelMeter();
+    gain = stage(new DspChain.FixedGain(6));
+    highPass = stage(new DspChain.HighPassFilter(sampleRate, channels, 80));
+    noiseGate = stage(new DspChain.Gate(sampleRate, channels, -50, 150, 100));
+    agc = stage(new DspChain.AutomaticGain(sampleRate, channels, -20, 18));
+    chain = new DspChain(Arrays.<DspChain.Stage>asList(
+        new DspChain.HighPassFilter(sampleRate, channels, 80),
+        new DspChain.Gate(sampleRate, channels, -50, 150, 100),
+        new DspChain.AutomaticGain(sampleRate, channels, -20, 18)), CLOCK);
+  }
+
+  /**
+   * The waveform keeps every bucket of the recording, so it starts over for every iteration.
+   */
+  @Setup(Level.Iteration)
+  public void resetWaveform() {
+    waveform = new WaveformPeaks(sampleRate, channels);
+  }
+
+  private static DspChain stage(DspChain.Stage stage) {
+    return new DspChain(Collections.singletonList(stage), CLOCK);
+  }
+
+  private short[] next() {
+    System.arraycopy(input, 0, samples, 0, input.length);
+    return samples;
+  }
+
+  @Benchmark
+  public short[] copyOnly() {
+    return next();
+  }
+
+  @Benchmark
+  public LevelMeter levelMeter() {
+    levelMeter.process(next(), samples.length);
+    return levelMeter;
+  }
+
+  @Benchmark
+  public WaveformPeaks waveform() {
+    waveform.process(next(), samples.length);
+    return waveform;
+  }
+
+  @Benchmark
+  public short[] gain() {
+    gain.process(next(), samples.length);
+    return samples;
+  }
+
+  @Benchmark
+  public short[] highPass() {
+    highPass.process(next(), samples.length);
+    return samples;
+  }
+
+  @Benchmark
+  public short[] noiseGate() {
+    noiseGate.process(next(), samples.length);
+    return samples;
+  }
+
+  @Benchmark
+  public short[] agc() {
+    agc.process(next(), samples.length);
+    return samples;
+  }
+
+  @Benchmark
+  public short[] chain() {
+    chain.process(next(), samples.length);
+    return samples;
+  }
+}
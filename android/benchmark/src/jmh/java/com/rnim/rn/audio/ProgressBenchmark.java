@@ -0,0 +1,61 @@
+package com.rnim.rn.audio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * What every progress tick does: reading the recording time, turning a level into dB and
+ * recording the tick's metrics.
+ */
+@State(Scope.Thread)
+public class ProgressBenchmark {
+
+  private final StopWatch stopWatch = new StopWatch(new Clock() {
+    @Override
+    public long nanoTime() {
+      return System.nanoTime();
+    }
+  });
+  private final LevelMeter levelMeter = new LevelMeter();
+  private final LevelMeter.Reading reading = new LevelMeter.Reading();
+  private final RecorderMetrics metrics = new RecorderMetrics();
+  private final short[] samples = new short[320];
+  private int amplitude = 0;
+
+  @Setup
+  public void setUp() {
+    stopWatch.start();
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = (short) (8000 * Math.sin(2 * Math.PI * i / 32));
+    }
+  }
+
+  @Benchmark
+  public double stopWatchRead() {
+    return stopWatch.getTimeSeconds();
+  }
+
+  @Benchmark
+  public double toDb() {
+    amplitude = (amplitude + 127) & 0x7FFF;
+    return LevelMeter.toDb(amplitude);
+  }
+
+  @Benchmark
+  public RecorderMetrics recordMetrics() {
+    amplitude = (amplitude + 127) & 0x7FFF;
+    metrics.progressJitter.record(amplitude * 1000L);
+    metrics.writeThroughput.record(amplitude * 4L);
+    metrics.bytesWritten.addAndGet(amplitude);
+    return metrics;
+  }
+
+  @Benchmark
+  public double levelMeterRead() {
+    levelMeter.process(samples, samples.length);
+    levelMeter.read(reading);
+    return reading.rmsDb;
+  }
+}
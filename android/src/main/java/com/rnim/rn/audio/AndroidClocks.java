@@ -0,0 +1,37 @@
+package com.rnim.rn.audio;
+
+import android.os.Build;
+import android.os.Debug;
+import android.os.SystemClock;
+
+/**
+ * The {@link Clock}s used on a device.
+ */
+class AndroidClocks {
+
+  /**
+   * Monotonic time including deep sleep, so that it doesn't jump when the wall clock is changed.
+   */
+  static final Clock ELAPSED_REALTIME = new Clock() {
+    @Override
+    public long nanoTime() {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+        return SystemClock.elapsedRealtimeNanos();
+      }
+      return SystemClock.elapsedRealtime() * 1000000L;
+    }
+  };
+
+  /**
+   * CPU time of the calling thread.
+   */
+  static final Clock THREAD_CPU_TIME = new Clock() {
+    @Override
+    public long nanoTime() {
+      return Debug.threadCpuTimeNanos();
+    }
+  };
+
+  private AndroidClocks() {
+  }
+}
@@ -0,0 +1,142 @@
+package com.rnim.rn.audio;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioDeviceCallback;
+import android.media.AudioDeviceInfo;
+import android.media.AudioFocusRequest;
+import android.media.AudioManager;
+import android.os.Build;
+import android.os.Handler;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Watches for what takes the microphone away from a recording and what gives it back: audio
+ * focus, which phone calls and voice assistants take for as long as they run, and input devices
+ * like a Bluetooth or wired headset coming and going. Callbacks arrive on the thread of the
+ * handler.
+ *
+ * Focus is requested as transient and may-duck, so that other apps lower their volume instead of
+ * stopping while recording. Only a transient loss interrupts: a permanent loss means another app
+ * started playing for good, which doesn't take the microphone, and focus wouldn't come back.
+ */
+class AudioInterruptionMonitor {
+
+  interface Listener {
+    void onInterruptionBegan(String reason);
+
+    void onInterruptionEnded(String reason);
+
+    void onInputDevicesChanged();
+  }
+
+  static final String FocusLoss = "focus_loss";
+  static final String RouteChange = "route_change";
+  static final String RecorderError = "error";
+
+  private final AudioManager audioManager;
+  private final Handler handler;
+  private final Listener listener;
+
+  private final Set<Integer> inputDevices = new HashSet<>();
+  private AudioFocusRequest focusRequest;
+  private AudioDeviceCallback deviceCallback;
+  private boolean focusLost = false;
+
+  private final AudioManager.OnAudioFocusChangeListener focusListener = new AudioManager.OnAudioFocusChangeListener() {
+    @Override
+    public void onAudioFocusChange(int focusChange) {
+      switch (focusChange) {
+        case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+          if (!focusLost) {
+            focusLost = true;
+            listener.onInterruptionBegan(FocusLoss);
+          }
+          break;
+        case AudioManager.AUDIOFOCUS_GAIN:
+          if (focusLost) {
+            focusLost = false;
+            listener.onInterruptionEnded(FocusLoss);
+          }
+          break;
+        default:
+          break;
+      }
+    }
+  };
+
+  AudioInterruptionMonitor(Context context, Handler handler, Listener listener) {
+    this.audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+    this.handler = handler;
+    this.listener = listener;
+  }
+
+  void start() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      focusRequest = new AudioFocusRequest.Builder(AudioManager.AUDIOFOCUS_GAIN_TRANSIENT_MAY_DUCK)
+          .setAudioAttributes(new AudioAttributes.Builder()
+              .setUsage(AudioAttributes.USAGE_MEDIA)
+              .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+              .build())
+          .setOnAudioFocusChangeListener(focusListener, handler)
+          .setWillPauseWhenDucked(false)
+          .build();
+      audioManager.requestAudioFocus(focusRequest);
+    } else {
+      audioManager.requestAudioFocus(focusListener, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT_MAY_DUCK);
+    }
+
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+      // The callback is first called with every device there already is, which isn't a change
+      for (AudioDeviceInfo device : audioManager.getDevices(AudioManager.GET_DEVICES_INPUTS)) {
+        inputDevices.add(device.getId());
+      }
+
+      deviceCallback = new AudioDeviceCallback() {
+        @Override
+        public void onAudioDevicesAdded(AudioDeviceInfo[] devices) {
+          boolean changed = false;
+          for (AudioDeviceInfo device : devices) {
+            changed |= device.isSource() && inputDevices.add(device.getId());
+          }
+          if (changed) {
+            listener.onInputDevicesChanged();
+          }
+        }
+
+        @Override
+        public void onAudioDevicesRemoved(AudioDeviceInfo[] devices) {
+          boolean changed = false;
+          for (AudioDeviceInfo device : devices) {
+            changed |= device.isSource() && inputDevices.remove(device.getId());
+          }
+          if (changed) {
+            listener.onInputDevicesChanged();
+          }
+        }
+      };
+      audioManager.registerAudioDeviceCallback(deviceCallback, handler);
+    }
+  }
+
+  /**
+   * Gives audio focus back and stops listening.
+   */
+  void stop() {
+    if (focusRequest != null) {
+      audioManager.abandonAudioFocusRequest(focusRequest);
+      focusRequest = null;
+    } else {
+      audioManager.abandonAudioFocus(focusListener);
+    }
+
+    if (deviceCallback != null) {
+      audioManager.unregisterAudioDeviceCallback(deviceCallback);
+      deviceCallback = null;
+    }
+    inputDevices.clear();
+    focusLost = false;
+  }
+}
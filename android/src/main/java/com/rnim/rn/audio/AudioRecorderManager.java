@@ -7,26 +7,44 @@ import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 
 import android.app.Activity;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.media.MediaRecorder;
 
 import androidx.annotation.NonNull;
@@ -34,18 +52,23 @@ import androidx.annotation.Nullable;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import android.util.Base64;
 import android.util.Log;
 
-import java.io.FileInputStream;
-
-class AudioRecorderManager extends ReactContextBaseJavaModule implements MediaRecorder.OnErrorListener, MediaRecorder.OnInfoListener {
+class AudioRecorderManager extends ReactContextBaseJavaModule implements RecorderModule, MediaRecorder.OnErrorListener, MediaRecorder.OnInfoListener, PcmRecorder.Listener, AudioInterruptionMonitor.Listener, LifecycleEventListener {
 
   private static final String TAG = "ReactNativeAudio";
 
   private static final String AudioRecorderEventProgress = "recordingProgress";
   private static final String AudioRecorderEventFinished = "recordingFinished";
   private static final String AudioRecorderEventError = "recordingError";
+  private static final String AudioRecorderEventDataChunk = "recordingDataChunk";
+  private static final String AudioRecorderEventData = "recordingData";
+  private static final String AudioRecorderEventSpeechStart = "speechStart";
+  private static final String AudioRecorderEventSpeechEnd = "speechEnd";
+  private static final String AudioRecorderEventSegmentFinished = "segmentFinished";
+  private static final String AudioRecorderEventStarted = "recordingStarted";
+  private static final String AudioRecorderEventInterrupted = "recordingInterrupted";
+  private static final String AudioRecorderEventResumed = "recordingResumed";
 
   private static final String DocumentDirectoryPath = "DocumentDirectoryPath";
   private static final String PicturesDirectoryPath = "PicturesDirectoryPath";
@@ -55,18 +78,21 @@ class AudioRecorderManager extends ReactContextBaseJavaModule implements MediaRe
   private static final String MusicDirectoryPath = "MusicDirectoryPath";
   private static final String DownloadsDirectoryPath = "DownloadsDirectoryPath";
 
-  private static final String InvalidStateError = "INVALID_STATE";
-  private static final String AlreadyRecordingError = "ALREADY_RECORDING_ERROR";
-  private static final String FailedToConfigureRecorderError = "FAILED_TO_CONFIGURE_MEDIA_RECORDER";
-  private static final String FailedToPrepareRecorderError = "FAILED_TO_PREPARE_RECORDER";
-  private static final String RecorderNotPreparedError = "RECORDER_NOT_PREPARED";
-  private static final String NoRecordDataFoundError = "NO_RECORD_DATA_FOUND";
-  private static final String MethodNotAvailableError = "METHOD_NOT_AVAILABLE_ERROR";
-  private static final String ReactContextNotInitializedError = "REACT_CONTEXT_NOT_INITIALIZED";
-  private static final String NoAccessToWriteToDirectoryError = "NO_ACCESS_TO_WRITE_TO_DIRECTORY";
-  private static final String RecorderServerDiedError = "RECORDER_SERVER_DIED";
-  private static final String RecorderUnknownError = "RECORDER_UNKNOWN_ERROR";
-  private static final String CleanUpError = "CLEAN_UP_ERROR";
+  static final String InvalidStateError = "INVALID_STATE";
+  static final String AlreadyRecordingError = "ALREADY_RECORDING_ERROR";
+  static final String FailedToConfigureRecorderError = "FAILED_TO_CONFIGURE_MEDIA_RECORDER";
+  static final String FailedToPrepareRecorderError = "FAILED_TO_PREPARE_RECORDER";
+  static final String RecorderNotPreparedError = "RECORDER_NOT_PREPARED";
+  static final String NoRecordDataFoundError = "NO_RECORD_DATA_FOUND";
+  static final String MethodNotAvailableError = "METHOD_NOT_AVAILABLE_ERROR";
+  static final String ReactContextNotInitializedError = "REACT_CONTEXT_NOT_INITIALIZED";
+  static final String NoAccessToWriteToDirectoryError = "NO_ACCESS_TO_WRITE_TO_DIRECTORY";
+  static final String RecorderServerDiedError = "RECORDER_SERVER_DIED";
+  static final String RecorderUnknownError = "RECORDER_UNKNOWN_ERROR";
+  static final String CleanUpError = "CLEAN_UP_ERROR";
+  static final String TranscodeFailedError = "TRANSCODE_FAILED";
+  static final String UploadFailedError = "UPLOAD_FAILED";
+  static final String RecordingIndexError = "RECORDING_INDEX_FAILED";
 
   private static final String AacAudioEncoding = "aac";
   private static final String AacEldAudioEncoding = "aac_eld";
@@ -75,32 +101,117 @@ class AudioRecorderManager extends ReactContextBaseJavaModule implements MediaRe
   private static final String HeAacAudioEncoding = "he_aac";
   private static final String VorbisAudioEncoding = "vorbis";
 
-  private static final String Mpeg4AudioOutputFormat = "mpeg_4";
-  private static final String AacAdtsAudioOutputFormat = "aac_adts";
-  private static final String AmrNbAudioOutputFormat = "amr_nb";
-  private static final String AmrWbAudioOutputFormat = "amr_wb";
-  private static final String ThreeGppAudioOutputFormat = "three_gpp";
-  private static final String WebmAudioOutputFormat = "webm";
-  private static final String Mpeg2TsAudioOutputFormat = "mpeg_2_ts";
+  static final String Mpeg4AudioOutputFormat = "mpeg_4";
+  static final String AacAdtsAudioOutputFormat = "aac_adts";
+  static final String AmrNbAudioOutputFormat = "amr_nb";
+  static final String AmrWbAudioOutputFormat = "amr_wb";
+  static final String ThreeGppAudioOutputFormat = "three_gpp";
+  static final String WebmAudioOutputFormat = "webm";
+  static final String Mpeg2TsAudioOutputFormat = "mpeg_2_ts";
+  static final String WavAudioOutputFormat = "wav";
+  static final String RawPcmAudioOutputFormat = "raw_pcm";
+
+  private static final String MediaRecorderEngine = "media_recorder";
+  private static final String PcmEngine = "pcm";
+
+  private static final int MaxBase64ChunkSize = 1024 * 1024;
+  private static final int MaxPendingFinishTasks = 8;
+  private static final double MeteringChangeThreshold = 0.5;  // dB
+  private static final int MaxWarmRecorders = 2;
+  private static final int DefaultWarmUpTimeout = 30000;  // MilliSeconds
+  private static final int FirstRecoveryDelay = 100;  // MilliSeconds
+  private static final int MaxRecoveryDelay = 2000;  // MilliSeconds
+  private static final String DefaultForegroundServiceTitle = "Recording";
 
   private static final String PERMISSIONS_GRANTED = "granted";
   private static final String PERMISSIONS_DENIED = "denied";
   private static final String PERMISSIONS_NEVER_ASK_AGAIN = "never_ask_again";
 
-  private MediaRecorder recorder = null;
-  private String currentOutputFilePath = null;
-  private int currentMaxDuration = 0;
-  private boolean isRecording = false;
-  private boolean isPaused = false;
-  private boolean includeBase64 = false;
-  private Timer timer;
-  private StopWatch stopWatch;
-  private boolean meteringEnabled = false;
-  private int progressUpdateInterval = 1000;	// 1 second
+  // Every prepared or running recording, by session id. React methods that get no session id
+  // act on the most recently prepared session.
+  private final ConcurrentHashMap<String, RecordingSession> sessions = new ConcurrentHashMap<>();
+  private final AtomicInteger nextSessionId = new AtomicInteger();
+  private volatile String lastSessionId = null;
+
+  // Drives progress events. Shared by every session of this module instead of spawning a
+  // Timer thread per recording; fixed-delay scheduling drops ticks missed during a stall.
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  // Post-recording work (file size, base64 encoding) runs here so it never blocks the
+  // native modules thread or the MediaRecorder callback looper. Tasks are kept with the id of
+  // their session, so that destroying one session only cancels its own work.
+  private final ThreadPoolExecutor finishExecutor;
+  private final Map<Future<?>, String> finishTasks = new HashMap<>();
+
+  // Files that background work still reads or writes, kept from eviction
+  private final PinnedPaths pinnedPaths = new PinnedPaths();
+
+  // Latency, throughput and error numbers of every session, read by `getMetrics` and sent as
+  // `recorderMetrics` events every `setMetricsInterval` milliseconds
+  private final RecorderMetrics metrics = new RecorderMetrics();
+
+  // The subsystems with React methods of their own, which the ones here delegate to
+  private final TranscodeController transcodes;
+  private final UploadController uploads;
+  private final RecordingIndexController recordings;
+  private final DeleteController deletes;
+  private final MetricsController metricsReporter;
+
+  // Listens for audio focus and input device changes while a session with
+  // `HandleInterruptions` is recording
+  private AudioInterruptionMonitor interruptionMonitor;
+
+  // Recorders prepared by `warmUp`, taken by `prepareRecordingAtPath` when the settings match
+  private final RecorderPool recorderPool;
+
+  // Progress events are suspended while the app is in the background, and RecordingService
+  // keeps the process alive while a session with `ForegroundService` is recording
+  private volatile boolean hostInBackground = false;
+  private boolean foregroundServiceRunning = false;
 
   public AudioRecorderManager(ReactApplicationContext reactContext) {
     super(reactContext);
-    stopWatch = new StopWatch();
+
+    finishExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(MaxPendingFinishTasks), createBackgroundThreadFactory(TAG + "-finish"));
+    finishExecutor.allowCoreThreadTimeOut(true);
+
+    scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(@NonNull Runnable runnable) {
+        Thread thread = new Thread(runnable, TAG + "-progress");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+      scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    recorderPool = new RecorderPool(MaxWarmRecorders, scheduler);
+
+    transcodes = new TranscodeController(this, metrics);
+    uploads = new UploadController(this, pinnedPaths, new File(reactContext.getFilesDir(), "RNAudioUploads"));
+    recordings = new RecordingIndexController(this, reactContext);
+    deletes = new DeleteController(this, recordings);
+    metricsReporter = new MetricsController(this, metrics, scheduler);
+
+    reactContext.addLifecycleEventListener(this);
+  }
+
+  static ThreadFactory createBackgroundThreadFactory(final String name) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(@NonNull final Runnable runnable) {
+        return new Thread(new Runnable() {
+          @Override
+          public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+          }
+        }, name);
+      }
+    };
   }
 
   @Override
@@ -125,6 +236,9 @@ class AudioRecorderManager extends ReactContextBaseJavaModule implements MediaRe
     constants.put("RecorderServerDied", RecorderServerDiedError);
     constants.put("UnknownError", RecorderUnknownError);
     constants.put("AlreadyRecording", AlreadyRecordingError);
+    constants.put("TranscodeFailed", TranscodeFailedError);
+    constants.put("UploadFailed", UploadFailedError);
+    constants.put("RecordingIndexFailed", RecordingIndexError);
     
     constants.put("AacAudioEncoding", AacAudioEncoding);
     constants.put("AacEldAudioEncoding", AacEldAudioEncoding);
@@ -140,6 +254,25 @@ class AudioRecorderManager extends ReactContextBaseJavaModule implements MediaRe
     constants.put("ThreeGppAudioOutputFormat", ThreeGppAudioOutputFormat);
     constants.put("WebmAudioOutputFormat", WebmAudioOutputFormat);
     constants.put("Mpeg2TsAudioOutputFormat", Mpeg2TsAudioOutputFormat);
+    constants.put("WavAudioOutputFormat", WavAudioOutputFormat);
+    constants.put("RawPcmAudioOutputFormat", RawPcmAudioOutputFormat);
+
+    constants.put("MediaRecorderEngine", MediaRecorderEngine);
+    constants.put("PcmEngine", PcmEngine);
+
+    constants.put("StreamDropOldest", PcmStreamer.DropOldest);
+    constants.put("StreamDropNewest", PcmStreamer.DropNewest);
+
+    constants.put("VadSkipSilence", VoiceActivityDetector.SkipSilence);
+    constants.put("VadIndexSilence", VoiceActivityDetector.IndexSilence);
+
+    constants.put("DspGain", DspChain.Gain);
+    constants.put("DspHighPass", DspChain.HighPass);
+    constants.put("DspNoiseGate", DspChain.NoiseGate);
+    constants.put("DspAgc", DspChain.Agc);
+
+    constants.put("AacTranscodeEncoding", Transcoder.Aac);
+    constants.put("OpusTranscodeEncoding", Transcoder.Opus);
 
     return constants;
   }
@@ -169,9 +302,16 @@ class AudioRecorderManager extends ReactContextBaseJavaModule implements MediaRe
     }
   }
 
+  /**
+   * Prepares a recording and resolves with its session id. Passing the id of a session that is
+   * prepared but not recording replaces that session's recorder; passing null starts a new
+   * session, which may record at the same time as the others.
+   */
   @ReactMethod
-  public void prepareRecordingAtPath(String recordingPath, ReadableMap recordingSettings, Promise promise) {
-    if (isRecording){
+  public void prepareRecordingAtPath(@Nullable String sessionId, String recordingPath, ReadableMap recordingSettings, Promise promise) {
+    RecordingSession previous = sessionId != null ? sessions.get(sessionId) : null;
+
+    if (previous != null && previous.isRecording) {
       logAndRejectPromise(promise, InvalidStateError, "Call stopRecording before starting new recording");
       return;
     }
@@ -189,385 +329,2488 @@ class AudioRecorderManager extends ReactContextBaseJavaModule implements MediaRe
 
     // Release old recorder in case if `prepare` function called multiple times in sequence
     // without recording
-    if (recorder != null) {
-      reset();
+    if (previous != null) {
+      reset(previous);
+    }
+
+    RecordingSession session = new RecordingSession(previous != null ? previous.id : String.valueOf(nextSessionId.incrementAndGet()));
+    long prepareStart = System.nanoTime();
+
+    if (isPcmEngine(recordingSettings)) {
+      preparePcmRecording(session, destFile, recordingSettings, prepareStart, promise);
+      return;
     }
 
-    recorder = new MediaRecorder();
+    RecorderPool.Entry warm = canUseWarmRecorder(recordingSettings) ? recorderPool.take(getWarmUpKey(recordingSettings)) : null;
+    if (warm != null) {
+      prepareWarmRecording(session, warm, destFile, recordingSettings, prepareStart, promise);
+      return;
+    }
+
+    MediaRecorder recorder = new MediaRecorder();
+    session.recorder = recorder;
     recorder.setOnErrorListener(this);
     recorder.setOnInfoListener(this);
 
     try {
-      recorder.setAudioSource(recordingSettings.getInt("AudioSource"));
-      int outputFormat = getOutputFormatFromString(recordingSettings.getString("OutputFormat"));
-      recorder.setOutputFormat(outputFormat);
-
-      currentMaxDuration = recordingSettings.getInt("MaxDuration");
-      recorder.setMaxDuration(currentMaxDuration);
-
-      int audioEncoder = getAudioEncoderFromString(recordingSettings.getString("AudioEncoding"));
-      recorder.setAudioEncoder(audioEncoder);
-      recorder.setAudioSamplingRate(recordingSettings.getInt("SampleRate"));
-      recorder.setAudioChannels(recordingSettings.getInt("Channels"));
-      recorder.setAudioEncodingBitRate(recordingSettings.getInt("AudioEncodingBitRate"));
-      recorder.setOutputFile(destFile.getPath());
-      includeBase64 = recordingSettings.getBoolean("IncludeBase64");
-      meteringEnabled = recordingSettings.getBoolean(("MeteringEnabled"));
-      progressUpdateInterval = recordingSettings.getInt("ProgressUpdateInterval");
+      configureMediaRecorder(recorder, recordingSettings, destFile.getPath());
+      session.maxDuration = recordingSettings.getInt("MaxDuration");
+      readCommonSettings(session, recordingSettings);
+
+      if (session.isSegmenting()) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+          reset(session);
+          logAndRejectPromise(promise, MethodNotAvailableError, "Segmented recording with MediaRecorder requires Android 8.0 or newer, use the pcm engine instead");
+          return;
+        }
+
+        recorder.setMaxFileSize(getMediaRecorderSegmentSize(session, recordingSettings.getInt("AudioEncodingBitRate")));
+      }
+
+      // MediaRecorder owns its file descriptor, so the journal only tells recovery what to repair
+      if (session.crashSafe) {
+        session.journal = RecordingJournal.create(destFile, recordingSettings.getString("OutputFormat"),
+            recordingSettings.getInt("SampleRate"), recordingSettings.getInt("Channels"));
+      }
     } catch(final Exception e) {
-      reset();
+      reset(session);
       logAndRejectPromise(promise, FailedToConfigureRecorderError, "Make sure you've added RECORD_AUDIO permission to your AndroidManifest.xml file " + e.getMessage());
       return;
     }
 
     try {
       recorder.prepare();
-      currentOutputFilePath = recordingPath;
-      promise.resolve(currentOutputFilePath);
+      session.outputFilePath = recordingPath;
+      session.prepareDuration = System.nanoTime() - prepareStart;
+      addSession(session);
+      promise.resolve(session.id);
     } catch (final Exception e) {
-      reset();
+      reset(session);
       logAndRejectPromise(promise, FailedToPrepareRecorderError, "Preparing recorder at path (" + recordingPath + ") failed with error: " + e.getMessage());
     }
   }
 
-  @ReactMethod
-  public void destroy(Promise promise) {
-    reset();
-    promise.resolve(null);
+  private void configureMediaRecorder(MediaRecorder recorder, ReadableMap recordingSettings, String path) {
+    recorder.setAudioSource(recordingSettings.getInt("AudioSource"));
+    recorder.setOutputFormat(getOutputFormatFromString(recordingSettings.getString("OutputFormat")));
+    recorder.setMaxDuration(recordingSettings.getInt("MaxDuration"));
+    recorder.setAudioEncoder(getAudioEncoderFromString(recordingSettings.getString("AudioEncoding")));
+    recorder.setAudioSamplingRate(recordingSettings.getInt("SampleRate"));
+    recorder.setAudioChannels(recordingSettings.getInt("Channels"));
+    recorder.setAudioEncodingBitRate(recordingSettings.getInt("AudioEncodingBitRate"));
+    recorder.setOutputFile(path);
   }
 
-  @ReactMethod
-  public void startRecording(Promise promise){
-    if (recorder == null){
-      logAndRejectPromise(promise, RecorderNotPreparedError, "Call prepareRecordingAtPath before starting recording");
-      return;
-    }
-    if (isRecording){
-      logAndRejectPromise(promise, InvalidStateError, "Call stopRecording before starting new recording");
-      return;
-    }
-    
+  /**
+   * Sets a session up with a MediaRecorder that `warmUp` already prepared for these settings.
+   */
+  private void prepareWarmRecording(RecordingSession session, RecorderPool.Entry warm, File destFile, ReadableMap recordingSettings, long prepareStart, Promise promise) {
+    session.recorder = warm.recorder;
+    session.warmFile = warm.file;
+    session.warm = true;
+    warm.recorder.setOnErrorListener(this);
+    warm.recorder.setOnInfoListener(this);
+
     try {
-      recorder.start();
-    } catch (IllegalStateException e) {
-      logAndRejectPromise(promise, AlreadyRecordingError, "Recorder is already running");
+      session.maxDuration = recordingSettings.getInt("MaxDuration");
+      readCommonSettings(session, recordingSettings);
+    } catch (final Exception e) {
+      reset(session);
+      logAndRejectPromise(promise, FailedToConfigureRecorderError, "Invalid recording settings: " + e.getMessage());
       return;
     }
 
-    stopWatch.reset();
-    stopWatch.start();
-    isRecording = true;
-    isPaused = false;
+    session.outputFilePath = destFile.getPath();
+    session.prepareDuration = System.nanoTime() - prepareStart;
+    addSession(session);
+    promise.resolve(session.id);
+  }
+
+  private void preparePcmRecording(RecordingSession session, File destFile, ReadableMap recordingSettings, long prepareStart, Promise promise) {
+    try {
+      String outputFormat = recordingSettings.getString("OutputFormat");
+      session.maxDuration = recordingSettings.getInt("MaxDuration");
+
+      PcmRecorder pcmRecorder = new PcmRecorder(
+          recordingSettings.getInt("AudioSource"),
+          recordingSettings.getInt("SampleRate"),
+          recordingSettings.getInt("Channels"),
+          !RawPcmAudioOutputFormat.equals(outputFormat),
+          session.maxDuration,
+          destFile,
+          this);
+      session.pcmRecorder = pcmRecorder;
+      readCommonSettings(session, recordingSettings);
+      pcmRecorder.setSegmentLimit(session.segmentDuration, session.segmentSize);
+      pcmRecorder.setPreRoll(recordingSettings.hasKey("PreRoll") ? (int) (recordingSettings.getDouble("PreRoll") * 1000) : 0);
+
+      if (recordingSettings.hasKey("Dsp") && !recordingSettings.isNull("Dsp")) {
+        session.dsp = createDspChain(recordingSettings.getArray("Dsp"), session.sampleRate, session.channels);
+        pcmRecorder.setDsp(session.dsp);
+      }
 
-    startTimer();
+      if (session.crashSafe) {
+        session.journal = RecordingJournal.create(destFile,
+            RawPcmAudioOutputFormat.equals(outputFormat) ? RawPcmAudioOutputFormat : WavAudioOutputFormat,
+            recordingSettings.getInt("SampleRate"), recordingSettings.getInt("Channels"));
+        pcmRecorder.setSync(session.syncInterval, session.journal);
+      }
 
-    promise.resolve(currentOutputFilePath);
-  }
+      if (session.meteringEnabled) {
+        session.levelMeter = new LevelMeter();
+        pcmRecorder.addProcessor(session.levelMeter);
+      }
 
-  @ReactMethod
-  public void stopRecording(Promise promise){
-    if (!isRecording){
-      logAndRejectPromise(promise, InvalidStateError, "Prepare and start recording before stopping recording");
-      return;
-    }
+      if (recordingSettings.hasKey("StreamData") && recordingSettings.getBoolean("StreamData")) {
+        session.streamer = createStreamer(session.id, destFile.getPath(), recordingSettings);
+        pcmRecorder.addProcessor(session.streamer);
+      }
 
-    double duration = stopWatch.getTimeSeconds();
+      if (recordingSettings.hasKey("Waveform") && recordingSettings.getBoolean("Waveform")) {
+        session.waveform = new WaveformPeaks(recordingSettings.getInt("SampleRate"), recordingSettings.getInt("Channels"), session.maxDuration);
+        pcmRecorder.addOutputProcessor(session.waveform);
+      }
 
-    try {
-      recorder.stop();
-    } catch(final IllegalStateException e) {
-      reset();
-      logAndRejectPromise(promise, InvalidStateError, "Prepare and start recording before stopping recording");
-      return;
-    } catch (final RuntimeException e) {
-      // https://developer.android.com/reference/android/media/MediaRecorder.html#stop()
-      reset();
-      logAndRejectPromise(promise, NoRecordDataFoundError, "No valid audio data received. You may be using a device that can't record audio.");
+      String vadMode = recordingSettings.hasKey("VadMode") ? recordingSettings.getString("VadMode") : null;
+      if (VoiceActivityDetector.SkipSilence.equals(vadMode) || VoiceActivityDetector.IndexSilence.equals(vadMode)) {
+        session.voiceActivityDetector = createVoiceActivityDetector(session.id, destFile.getPath(), recordingSettings);
+        pcmRecorder.addProcessor(session.voiceActivityDetector);
+        if (VoiceActivityDetector.SkipSilence.equals(vadMode)) {
+          pcmRecorder.setGate(session.voiceActivityDetector);
+        } else {
+          session.vadIndexPath = destFile.getPath() + ".vad.json";
+        }
+      }
+    } catch (final Exception e) {
+      reset(session);
+      logAndRejectPromise(promise, FailedToConfigureRecorderError, "Invalid PCM recording settings: " + e.getMessage());
       return;
     }
 
-    promise.resolve(currentOutputFilePath);
-    recordingDidFinished(duration);
+    try {
+      RecorderPool.Entry warm = recorderPool.take(getWarmUpKey(recordingSettings));
+      session.warm = warm != null;
+      session.pcmRecorder.prepare(warm != null ? warm.audioRecord : null);
+      if (recordingSettings.hasKey("PreRoll") && recordingSettings.getDouble("PreRoll") > 0) {
+        session.pcmRecorder.startStandby();
+      }
+      session.outputFilePath = destFile.getPath();
+      session.prepareDuration = System.nanoTime() - prepareStart;
+      addSession(session);
+      promise.resolve(session.id);
+    } catch (final Exception e) {
+      reset(session);
+      logAndRejectPromise(promise, FailedToPrepareRecorderError, "Preparing PCM recorder at path (" + destFile.getPath() + ") failed with error: " + e.getMessage());
+    }
   }
 
+  /**
+   * Sets up `WarmUpCount` recorders for the given settings ahead of time, so that a later
+   * `prepareRecordingAtPath` with the same settings takes one instead of creating its own.
+   * Resolves with the number of warm recorders for these settings.
+   */
   @ReactMethod
-  public void pauseRecording(Promise promise) {
-    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
-      logAndRejectPromise(promise, MethodNotAvailableError, "Method not available on this version of Android.");
+  public void warmUp(ReadableMap recordingSettings, Promise promise) {
+    String key = getWarmUpKey(recordingSettings);
+    int count = Math.min(recordingSettings.hasKey("WarmUpCount") ? recordingSettings.getInt("WarmUpCount") : 1, recorderPool.getCapacity());
+    int timeout = recordingSettings.hasKey("WarmUpTimeout") ? recordingSettings.getInt("WarmUpTimeout") : DefaultWarmUpTimeout;
+    File directory = recordingSettings.hasKey("WarmUpDirectory")
+        ? new File(recordingSettings.getString("WarmUpDirectory"))
+        : getReactApplicationContext().getCacheDir();
+
+    if (!isPcmEngine(recordingSettings) && !makeDir(directory)) {
+      logAndRejectPromise(promise, NoAccessToWriteToDirectoryError, "Make sure you have access to the warm up directory (" + directory.getPath() + ")");
       return;
     }
 
-    if (recorder == null || !isRecording) {
-      logAndRejectPromise(promise, InvalidStateError, "Prepare or start recorder before pausing");
-      return;
-    }
+    recorderPool.keepWarm(key, timeout);
 
-    if (!isPaused) {
-      try {
-        recorder.pause();
-        stopWatch.stop();
-      } catch (final IllegalStateException e) {
-        e.printStackTrace();
-        logAndRejectPromise(promise, InvalidStateError, "Start recorder before pausing");
-        return;
+    try {
+      while (recorderPool.count(key) < count) {
+        recorderPool.add(createWarmRecorder(key, recordingSettings, directory), timeout);
       }
+    } catch (IOException | RuntimeException e) {
+      logAndRejectPromise(promise, FailedToPrepareRecorderError, "Warming up recorder failed with error: " + e.getMessage());
+      return;
     }
 
-    isPaused = true;
-    promise.resolve(null);
+    promise.resolve(recorderPool.count(key));
   }
 
+  /**
+   * Releases the recorders set up by `warmUp`.
+   */
   @ReactMethod
-  public void resumeRecording(Promise promise) {
-    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
-      logAndRejectPromise(promise, MethodNotAvailableError, "Method not available on this version of Android.");
-      return;
+  public void coolDown(Promise promise) {
+    recorderPool.clear();
+    promise.resolve(null);
+  }
+
+  private RecorderPool.Entry createWarmRecorder(String key, ReadableMap recordingSettings, File directory) throws IOException {
+    if (isPcmEngine(recordingSettings)) {
+      return new RecorderPool.Entry(key, PcmRecorder.createAudioRecord(
+          recordingSettings.getInt("AudioSource"),
+          recordingSettings.getInt("SampleRate"),
+          recordingSettings.getInt("Channels")));
     }
 
-    if (recorder == null || !isRecording) {
-      logAndRejectPromise(promise, InvalidStateError, "Prepare or start recorder before resuming");
-      return;
+    File file = File.createTempFile("warm-", ".rec", directory);
+    MediaRecorder recorder = new MediaRecorder();
+    try {
+      configureMediaRecorder(recorder, recordingSettings, file.getPath());
+      recorder.prepare();
+    } catch (IOException | RuntimeException e) {
+      release(recorder);
+      deletePath(file.getPath());
+      throw e;
     }
 
-    if (isPaused) {
-      try {
-        recorder.resume();
-        stopWatch.start();
-      } catch (IllegalStateException e) {
-        e.printStackTrace();
-        logAndRejectPromise(promise, InvalidStateError, "Start recorder before resuming");
-        return;
-      }
+    return new RecorderPool.Entry(key, recorder, file);
+  }
+
+  /**
+   * Recorders are only interchangeable when everything they were prepared with matches. The PCM
+   * engine configures the rest of a recording after getting its AudioRecord.
+   */
+  private String getWarmUpKey(ReadableMap recordingSettings) {
+    String key = recordingSettings.getInt("AudioSource")
+        + "/" + recordingSettings.getInt("SampleRate")
+        + "/" + recordingSettings.getInt("Channels");
+
+    if (isPcmEngine(recordingSettings)) {
+      return PcmEngine + "/" + key;
     }
 
-    isPaused = false;
-    promise.resolve(null);
+    return MediaRecorderEngine + "/" + key
+        + "/" + recordingSettings.getString("OutputFormat")
+        + "/" + recordingSettings.getString("AudioEncoding")
+        + "/" + recordingSettings.getInt("AudioEncodingBitRate")
+        + "/" + recordingSettings.getInt("MaxDuration");
   }
 
-  @ReactMethod
-  public void cleanPath(String path, Promise promise) {
-    boolean deleted = deletePath(path);
+  /**
+   * A warm MediaRecorder writes to a single temporary file without a journal, which segmented
+   * and crash-safe recordings can't use.
+   */
+  private boolean canUseWarmRecorder(ReadableMap recordingSettings) {
+    return !(recordingSettings.hasKey("CrashSafe") && recordingSettings.getBoolean("CrashSafe"))
+        && !(recordingSettings.hasKey("SegmentDuration") && recordingSettings.getDouble("SegmentDuration") > 0)
+        && !(recordingSettings.hasKey("SegmentSize") && recordingSettings.getDouble("SegmentSize") > 0);
+  }
 
-    if (deleted) {
-      promise.resolve(null);
-    } else {
-      promise.reject(CleanUpError, "Failed to delete path " + path);
-    }
+  private boolean isPcmEngine(ReadableMap recordingSettings) {
+    return recordingSettings.hasKey("Engine") && PcmEngine.equals(recordingSettings.getString("Engine"));
   }
 
-  @Override
-  public void onError(MediaRecorder mediaRecorder, int what, int extra) {
-    if (!mediaRecorder.equals(this.recorder)) {
-      release(mediaRecorder);
-      return;
+  /**
+   * Moves what a warm MediaRecorder recorded to the path the session was prepared with.
+   */
+  private boolean moveWarmRecording(RecordingSession session) {
+    if (session.warmFile == null) {
+      return true;
     }
 
-    WritableMap data = Arguments.createMap();
-    data.putString("code", what == MediaRecorder.MEDIA_ERROR_SERVER_DIED ? RecorderServerDiedError : RecorderUnknownError);
-    data.putString("path", currentOutputFilePath);
-    data.putInt("extra", extra);
+    try {
+      RecorderPool.move(session.warmFile, new File(session.outputFilePath));
+      session.warmFile = null;
+      return true;
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to move recording to path " + session.outputFilePath, e);
+      return false;
+    }
+  }
 
-    reset();
+  private void sendRecordingStarted(RecordingSession session, long latency) {
+    metrics.startLatency.record(latency);
 
-    sendEvent(AudioRecorderEventError, data);
-  }
+    WritableMap body = createEventBody(session.id);
+    body.putString("path", session.outputFilePath);
+    body.putBoolean("warm", session.warm);
+    body.putDouble("prepareDuration", session.prepareDuration / 1e6);
+    body.putDouble("latency", latency / 1e6);
 
-  @Override
-  public void onCatalystInstanceDestroy() {
-    reset();
+    PcmRecorder pcm = session.pcmRecorder;
+    if (pcm != null) {
+      body.putDouble("preRoll", pcm.getPreRollFramesBuffered() / (double) pcm.getSampleRate());
+    }
+
+    sendEvent(AudioRecorderEventStarted, body);
   }
 
-  @Override
-  public void onInfo(MediaRecorder mediaRecorder, int what, int extra) {
-    if (what != MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED) {
-      return;
-    }
+  /**
+   * Reports how long a session prepared with `PreRoll` has been capturing in standby, how much
+   * CPU time that took and how much audio it holds.
+   */
+  @ReactMethod
+  public void getStandbyStats(@Nullable String sessionId, Promise promise) {
+    RecordingSession session = findSession(sessionId);
+    PcmRecorder pcm = session != null ? session.pcmRecorder : null;
 
-    if (!mediaRecorder.equals(this.recorder) || currentMaxDuration == 0) {
-      release(mediaRecorder);
+    if (pcm == null) {
+      logAndRejectPromise(promise, RecorderNotPreparedError, "Call prepareRecordingAtPath with the pcm engine first");
       return;
     }
 
-    recordingDidFinished(currentMaxDuration / 1000d);
+    long duration = pcm.getStandbyDuration();
+    long cpuTime = pcm.getStandbyCpuTime();
+
+    WritableMap stats = Arguments.createMap();
+    stats.putBoolean("standby", pcm.isStandby());
+    stats.putDouble("duration", duration / 1e9);
+    stats.putDouble("cpuTime", cpuTime / 1e6);
+    stats.putDouble("cpuUsage", duration > 0 ? cpuTime / (double) duration : 0);
+    stats.putDouble("preRoll", pcm.getPreRollFramesBuffered() / (double) pcm.getSampleRate());
+    promise.resolve(stats);
   }
 
-  private void recordingDidFinished(double duration) {
-    WritableMap result = Arguments.createMap();
-    result.putString("path", currentOutputFilePath);
-    result.putString("uri", "file://" + currentOutputFilePath);
-    result.putDouble("duration", duration);
-    result.putInt("size", (int) new File(currentOutputFilePath).length());
+  /**
+   * Re-encodes the audio of `inputPath` to `outputPath` in the background, sending
+   * `transcodeProgress` events, and resolves with `{ path, uri, duration, size }`.
+   */
+  @ReactMethod
+  public void transcode(String inputPath, String outputPath, ReadableMap settings, Promise promise) {
+    transcodes.transcode(inputPath, outputPath, settings, promise);
+  }
 
-    String base64 = "";
-    if (includeBase64) {
-      try {
-        InputStream inputStream = new FileInputStream(currentOutputFilePath);
-        byte[] bytes;
-        byte[] buffer = new byte[8192];
-        int bytesRead;
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
+  /**
+   * Sets how many transcoding jobs may run at the same time, 1 by default. Each one holds a
+   * decoder and an encoder, of which devices only have a few.
+   */
+  @ReactMethod
+  public void setTranscodeConcurrency(int concurrency) {
+    transcodes.setConcurrency(concurrency);
+  }
 
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-          output.write(buffer, 0, bytesRead);
-        }
+  /**
+   * Uploads `Path`, or the recording of `SessionId` while it is still being made, to `Url` in
+   * chunks of `ChunkSize` bytes, sending `uploadProgress` events, and resolves with
+   * `{ id, path, size, status, response }` once the server has all of it. An upload that was
+   * cancelled or failed continues where it stopped when it is started again with the same
+   * `UploadId`, which defaults to one made from the path and the URL.
+   */
+  @ReactMethod
+  public void upload(ReadableMap settings, Promise promise) {
+    uploads.upload(settings, promise);
+  }
 
-        bytes = output.toByteArray();
-        base64 = Base64.encodeToString(bytes, Base64.DEFAULT);
-      } catch (final FileNotFoundException e) {
-        base64 = "";
-        Log.e(TAG, "Failed to find file at path " + currentOutputFilePath);
-      } catch (IOException e) {
-        base64 = "";
-        Log.e(TAG, "Failed to parse file at path " + currentOutputFilePath);
-      }
-    }
+  /**
+   * Stops an upload, which rejects its promise. What was sent is remembered, so starting it again
+   * continues from there.
+   */
+  @ReactMethod
+  public void cancelUpload(String id, Promise promise) {
+    uploads.cancel(id, promise);
+  }
 
-    if (!base64.isEmpty()) {
-      result.putString("base64", base64);
-    }
+  private void addSession(RecordingSession session) {
+    metrics.prepareLatency.record(session.prepareDuration);
+    sessions.put(session.id, session);
+    lastSessionId = session.id;
+  }
 
-    reset(false);
+  /**
+   * The session with the given id, or the most recently prepared one when {@code sessionId} is
+   * null.
+   */
+  @Nullable
+  private RecordingSession findSession(@Nullable String sessionId) {
+    String id = sessionId != null ? sessionId : lastSessionId;
+    return id != null ? sessions.get(id) : null;
+  }
 
-    sendEvent(AudioRecorderEventFinished, result);
+  @Nullable
+  @Override
+  public RecordingSession getSession(String sessionId) {
+    return sessions.get(sessionId);
   }
 
-  private int getAudioEncoderFromString(String audioEncoder) {
-    switch (audioEncoder) {
-      case AacAudioEncoding:
-        return MediaRecorder.AudioEncoder.AAC;
-      case AacEldAudioEncoding:
-        return MediaRecorder.AudioEncoder.AAC_ELD;
-      case AmrNbAudioEncoding:
-        return MediaRecorder.AudioEncoder.AMR_NB;
-      case AmrWbAudioEncoding:
-        return MediaRecorder.AudioEncoder.AMR_WB;
-      case HeAacAudioEncoding:
-        return MediaRecorder.AudioEncoder.HE_AAC;
-      case VorbisAudioEncoding:
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-          return MediaRecorder.AudioEncoder.VORBIS;
-        }
-      default:
-        Log.d(TAG, "INVALID_AUDIO_ENCODER: Using MediaRecorder.AudioEncoder.DEFAULT instead of "+audioEncoder+": "+MediaRecorder.AudioEncoder.DEFAULT);
-        return MediaRecorder.AudioEncoder.DEFAULT;
+  @Nullable
+  private RecordingSession findSession(MediaRecorder mediaRecorder) {
+    for (RecordingSession session : sessions.values()) {
+      if (mediaRecorder.equals(session.recorder)) {
+        return session;
+      }
     }
+    return null;
   }
 
-  private int getOutputFormatFromString(String outputFormat) {
-    switch (outputFormat) {
-      case Mpeg4AudioOutputFormat:
-        return MediaRecorder.OutputFormat.MPEG_4;
-      case AacAdtsAudioOutputFormat:
-        return MediaRecorder.OutputFormat.AAC_ADTS;
-      case AmrNbAudioOutputFormat:
-        return MediaRecorder.OutputFormat.AMR_NB;
-      case AmrWbAudioOutputFormat:
-        return MediaRecorder.OutputFormat.AMR_WB;
-      case ThreeGppAudioOutputFormat:
-        return MediaRecorder.OutputFormat.THREE_GPP;
-      case WebmAudioOutputFormat:
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-          return MediaRecorder.OutputFormat.WEBM;
-        }
-      case Mpeg2TsAudioOutputFormat:
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-          return MediaRecorder.OutputFormat.MPEG_2_TS;
-        }
-      default:
-        Log.d(TAG, "INVALID_OUTPUT_FORMAT: Using MediaRecorder.OutputFormat.DEFAULT : " + MediaRecorder.OutputFormat.DEFAULT);
-        return MediaRecorder.OutputFormat.DEFAULT;
+  @Nullable
+  private RecordingSession findSession(PcmRecorder pcm) {
+    for (RecordingSession session : sessions.values()) {
+      if (pcm == session.pcmRecorder) {
+        return session;
+      }
     }
+    return null;
   }
 
-  private void startTimer(){
-    timer = new Timer();
-    timer.scheduleAtFixedRate(new TimerTask() {
-      @Override
-      public void run() {
-        if (!isPaused) {
-          WritableMap body = Arguments.createMap();
+  private PcmStreamer createStreamer(final String sessionId, final String path, ReadableMap recordingSettings) {
+    final int sampleRate = recordingSettings.getInt("SampleRate");
+    final int channels = recordingSettings.getInt("Channels");
+
+    return new PcmStreamer(
+        sampleRate,
+        channels,
+        recordingSettings.hasKey("StreamBatchDuration") ? recordingSettings.getInt("StreamBatchDuration") : 100,
+        recordingSettings.hasKey("StreamQueueCapacity") ? recordingSettings.getInt("StreamQueueCapacity") : 8,
+        recordingSettings.hasKey("StreamDropPolicy") ? recordingSettings.getString("StreamDropPolicy") : PcmStreamer.DropOldest,
+        recordingSettings.hasKey("StreamAcknowledge") && recordingSettings.getBoolean("StreamAcknowledge"),
+        new PcmStreamer.Listener() {
+          @Override
+          public void onBatch(int sequence, long startFrame, int frameCount, String data, int dropped) {
+            WritableMap body = createEventBody(sessionId);
+            body.putString("path", path);
+            body.putInt("sequence", sequence);
+            body.putDouble("timestamp", startFrame / (double) sampleRate);
+            body.putDouble("duration", frameCount / (double) sampleRate);
+            body.putInt("frameCount", frameCount);
+            body.putInt("sampleRate", sampleRate);
+            body.putInt("channels", channels);
+            body.putInt("droppedBatches", dropped);
+            body.putString("data", data);
+
+            sendEvent(AudioRecorderEventData, body);
+          }
+        });
+  }
 
-          if (meteringEnabled) {
-            int maxAmplitude = 0;
-            if (recorder != null) {
-              maxAmplitude = recorder.getMaxAmplitude();
-            }
+  private VoiceActivityDetector createVoiceActivityDetector(final String sessionId, final String path, ReadableMap recordingSettings) {
+    final int sampleRate = recordingSettings.getInt("SampleRate");
+
+    return new VoiceActivityDetector(
+        sampleRate,
+        recordingSettings.getInt("Channels"),
+        recordingSettings.hasKey("VadEnergyThreshold") ? recordingSettings.getDouble("VadEnergyThreshold") : -45,
+        recordingSettings.hasKey("VadZeroCrossingThreshold") ? recordingSettings.getDouble("VadZeroCrossingThreshold") : 0.25,
+        recordingSettings.hasKey("VadHangover") ? recordingSettings.getInt("VadHangover") : 300,
+        new VoiceActivityDetector.Listener() {
+          @Override
+          public void onSpeechStart(long frame) {
+            sendSpeechEvent(AudioRecorderEventSpeechStart, sessionId, path, frame, sampleRate);
+          }
 
-            double dB = -160;
-            double maxAudioSize = 32767d;
+          @Override
+          public void onSpeechEnd(long frame) {
+            sendSpeechEvent(AudioRecorderEventSpeechEnd, sessionId, path, frame, sampleRate);
+          }
+        });
+  }
 
-            if (maxAmplitude > 0) {
-              dB = 20 * Math.log10(maxAmplitude / maxAudioSize);
-            }
+  private void sendSpeechEvent(String eventName, String sessionId, String path, long frame, int sampleRate) {
+    WritableMap body = createEventBody(sessionId);
+    body.putString("path", path);
+    body.putDouble("time", frame / (double) sampleRate);
 
-            body.putInt("currentMetering", (int) dB);
-          }
+    sendEvent(eventName, body);
+  }
 
-          body.putDouble("currentTime", stopWatch.getTimeSeconds());
-          body.putString("path", currentOutputFilePath);
+  private void readCommonSettings(RecordingSession session, ReadableMap recordingSettings) {
+    String outputFormat = recordingSettings.getString("OutputFormat");
+    if (isPcmEngine(recordingSettings)) {
+      outputFormat = RawPcmAudioOutputFormat.equals(outputFormat) ? RawPcmAudioOutputFormat : WavAudioOutputFormat;
+    }
+    session.outputFormat = outputFormat;
+    session.sampleRate = recordingSettings.getInt("SampleRate");
+    session.channels = recordingSettings.getInt("Channels");
+    session.includeBase64 = recordingSettings.getBoolean("IncludeBase64");
+    session.base64ChunkSize = recordingSettings.hasKey("Base64ChunkSize") ? recordingSettings.getInt("Base64ChunkSize") : 0;
+    session.meteringEnabled = recordingSettings.getBoolean(("MeteringEnabled"));
+    session.progressUpdateInterval = recordingSettings.getInt("ProgressUpdateInterval");
+    session.segmentDuration = recordingSettings.hasKey("SegmentDuration") ? (int) (recordingSettings.getDouble("SegmentDuration") * 1000) : 0;
+    session.segmentSize = recordingSettings.hasKey("SegmentSize") ? (long) recordingSettings.getDouble("SegmentSize") : 0;
+    session.crashSafe = recordingSettings.hasKey("CrashSafe") && recordingSettings.getBoolean("CrashSafe");
+    session.syncInterval = recordingSettings.hasKey("SyncInterval") ? recordingSettings.getInt("SyncInterval") : 1000;
+    session.handleInterruptions = recordingSettings.hasKey("HandleInterruptions") && recordingSettings.getBoolean("HandleInterruptions");
+    session.backgroundProgress = recordingSettings.hasKey("BackgroundProgress") && recordingSettings.getBoolean("BackgroundProgress");
+
+    if (recordingSettings.hasKey("ForegroundService") && !recordingSettings.isNull("ForegroundService")) {
+      ReadableMap service = recordingSettings.getMap("ForegroundService");
+      session.foregroundServiceTitle = service.hasKey("Title") ? service.getString("Title") : DefaultForegroundServiceTitle;
+      session.foregroundServiceText = service.hasKey("Text") ? service.getString("Text") : null;
+    }
+    if (session.handleInterruptions && !isPcmEngine(recordingSettings)) {
+      // To set up a MediaRecorder for the file it continues into
+      session.recordingSettings = recordingSettings;
+    }
 
-          sendEvent(AudioRecorderEventProgress, body);
-        }
+    if (recordingSettings.hasKey("Transcode") && !recordingSettings.isNull("Transcode")) {
+      ReadableMap transcode = recordingSettings.getMap("Transcode");
+      session.transcode = TranscodeController.readSettings(transcode);
+      if (!TranscodeController.isAvailable(session.transcode)) {
+        throw new IllegalArgumentException("Transcoding to " + session.transcode.encoding + " is not available on this Android version");
       }
-    }, 0, progressUpdateInterval);
+      session.transcodePath = transcode.hasKey("OutputPath") ? transcode.getString("OutputPath") : null;
+    }
+
+    if (recordingSettings.hasKey("Dsp") && !recordingSettings.isNull("Dsp") && !isPcmEngine(recordingSettings)) {
+      throw new IllegalArgumentException("Dsp needs the pcm engine");
+    }
   }
 
-  private void stopTimer(){
-    if (timer != null) {
-      timer.cancel();
-      timer.purge();
-      timer = null;
+  /**
+   * Builds the processing chain of the `Dsp` setting, an array of stages run in order.
+   */
+  private static DspChain createDspChain(ReadableArray settings, int sampleRate, int channels) {
+    List<DspChain.Stage> stages = new ArrayList<>();
+
+    for (int i = 0; i < settings.size(); i++) {
+      ReadableMap stage = settings.getMap(i);
+      String type = stage.getString("Type");
+
+      switch (type) {
+        case DspChain.Gain:
+          stages.add(new DspChain.FixedGain(stage.hasKey("Gain") ? stage.getDouble("Gain") : 0));
+          break;
+        case DspChain.HighPass:
+          stages.add(new DspChain.HighPassFilter(sampleRate, channels, stage.hasKey("Cutoff") ? stage.getDouble("Cutoff") : 80));
+          break;
+        case DspChain.NoiseGate:
+          stages.add(new DspChain.Gate(sampleRate, channels,
+              stage.hasKey("Threshold") ? stage.getDouble("Threshold") : -50,
+              stage.hasKey("Hold") ? stage.getInt("Hold") : 150,
+              stage.hasKey("Release") ? stage.getInt("Release") : 100));
+          break;
+        case DspChain.Agc:
+          stages.add(new DspChain.AutomaticGain(sampleRate, channels,
+              stage.hasKey("Target") ? stage.getDouble("Target") : -20,
+              stage.hasKey("MaxGain") ? stage.getDouble("MaxGain") : 18));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown Dsp stage " + type);
+      }
     }
+
+    return new DspChain(stages, AndroidClocks.THREAD_CPU_TIME);
   }
 
-  private void sendEvent(String eventName, Object params) {
-    getReactApplicationContext()
-        .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-        .emit(eventName, params);
+  /**
+   * Resolves with the recorder's counters and latency histograms since the module was created or
+   * the metrics were last reset.
+   */
+  @ReactMethod
+  public void getMetrics(Promise promise) {
+    promise.resolve(metricsReporter.createBody());
   }
 
-  private void logAndRejectPromise(Promise promise, String errorCode, String errorMessage) {
-    Log.e(TAG, errorMessage);
-    promise.reject(errorCode, errorMessage);
+  @ReactMethod
+  public void resetMetrics(Promise promise) {
+    metrics.reset();
+    promise.resolve(null);
   }
 
-  private boolean makeDir(@Nullable File dir) {
-    if (dir == null) {
-      return false;
-    }
+  /**
+   * Sends the metrics as a `recorderMetrics` event every `interval` milliseconds, or stops
+   * sending them when it is 0.
+   */
+  @ReactMethod
+  public void setMetricsInterval(int interval) {
+    metricsReporter.setInterval(interval);
+  }
 
-    try {
-      if (dir.exists()) {
-        return true;
+  /**
+   * Resolves with the thread CPU time every stage of the `Dsp` chain has taken so far, as
+   * `[{ type, cpuTime, buffers, averageCpuTime }]` in milliseconds and microseconds per buffer.
+   */
+  @ReactMethod
+  public void getDspStats(@Nullable String sessionId, Promise promise) {
+    RecordingSession session = findSession(sessionId);
+    DspChain dsp = session != null ? session.dsp : null;
+
+    WritableArray stats = Arguments.createArray();
+    if (dsp != null) {
+      for (int i = 0; i < dsp.getStageCount(); i++) {
+        long cpuTime = dsp.getCpuTime(i);
+        long buffers = dsp.getBufferCount(i);
+
+        WritableMap stage = Arguments.createMap();
+        stage.putString("type", dsp.getStageType(i));
+        stage.putDouble("cpuTime", cpuTime / 1e6);
+        stage.putDouble("buffers", buffers);
+        stage.putDouble("averageCpuTime", buffers > 0 ? cpuTime / 1e3 / buffers : 0);
+        stats.pushMap(stage);
       }
-
-      return dir.mkdirs();
-    } catch (SecurityException exception) {
-      Log.e(TAG, exception.getLocalizedMessage());
-      return false;
     }
+    promise.resolve(stats);
   }
 
-  private void reset(boolean clean) {
-    release(recorder);
+  /**
+   * MediaRecorder can only rotate on file size, so a segment duration is turned into the size
+   * the encoder produces at its nominal bit rate. Segments of variable bit rate encodings are
+   * only roughly that long.
+   */
+  private long getMediaRecorderSegmentSize(RecordingSession session, int bitRate) {
+    long size = session.segmentSize > 0 ? session.segmentSize : Long.MAX_VALUE;
 
-    if (clean) {
-      deletePath(currentOutputFilePath);
+    if (session.segmentDuration > 0) {
+      size = Math.min(size, (long) bitRate / 8 * session.segmentDuration / 1000);
     }
 
-    recorder = null;
-    currentOutputFilePath = null;
-    currentMaxDuration = 0;
-    isRecording = false;
-    isPaused = false;
-    stopTimer();
-    stopWatch.reset();
+    return size;
   }
 
-  private void reset() {
-    reset(true);
-  }
+  /**
+   * Reads back about `buckets` min/max pairs, scaled to [-1, 1], from the waveform sidecar of
+   * the recording at `path`, without decoding any audio.
+   */
+  @ReactMethod
+  public void getWaveform(final String path, final int buckets, final Promise promise) {
+    Runnable read = new Runnable() {
+      @Override
+      public void run() {
+        File file = new File(path.endsWith(WaveformPeaks.SIDECAR_EXTENSION) ? path : path + WaveformPeaks.SIDECAR_EXTENSION);
 
+        try {
+          WaveformPeaks.Waveform waveform = WaveformPeaks.read(file, buckets);
+
+          WritableArray min = Arguments.createArray();
+          WritableArray max = Arguments.createArray();
+          for (int i = 0; i < waveform.min.length; i++) {
+            min.pushDouble(waveform.min[i]);
+            max.pushDouble(waveform.max[i]);
+          }
+
+          WritableMap result = Arguments.createMap();
+          result.putArray("min", min);
+          result.putArray("max", max);
+          result.putDouble("duration", waveform.frames / (double) waveform.sampleRate);
+          result.putInt("samplesPerBucket", waveform.bucketSize);
+          promise.resolve(result);
+        } catch (IOException e) {
+          logAndRejectPromise(promise, NoRecordDataFoundError, "Failed to read waveform at path " + file.getPath() + ": " + e.getMessage());
+        }
+      }
+    };
+
+    // Not tracked as finish work: destroy must not cancel it and leave the promise pending
+    try {
+      finishExecutor.execute(read);
+    } catch (RejectedExecutionException e) {
+      logAndRejectPromise(promise, InvalidStateError, "Too much background work in progress, try again later");
+    }
+  }
+
+  /**
+   * The files every session may be writing, including the next segment, and the ones pinned by
+   * background work, as the index stores them.
+   */
+  @Override
+  public Set<String> getPathsInUse() {
+    Set<String> paths = new HashSet<>();
+    pinnedPaths.addTo(paths);
+
+    for (RecordingSession session : sessions.values()) {
+      String outputFilePath = session.outputFilePath;
+      if (outputFilePath == null) {
+        continue;
+      }
+      for (int i = 0; i <= session.getSegmentCount(); i++) {
+        paths.add(RecordingSegments.file(new File(outputFilePath), i).getPath());
+      }
+      if (session.warmFile != null) {
+        paths.add(session.warmFile.getPath());
+      }
+      if (session.transcodePath != null) {
+        paths.add(new File(session.transcodePath).getPath());
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * Resolves with a page of the finished recordings from the index, without touching the files:
+   * `{ recordings, total, offset, nextOffset }`, `nextOffset` being null on the last page. The
+   * query may filter by `Directory` and `Format`, sort by `SortBy` (`created`, `lastUsed`,
+   * `size`, `duration` or `path`) in `Order` (`asc` or `desc`), and page with `Offset` and
+   * `Limit`.
+   */
+  @ReactMethod
+  public void listRecordings(ReadableMap queryMap, Promise promise) {
+    recordings.list(queryMap, promise);
+  }
+
+  /**
+   * Marks a recording as used now, which keeps it from being evicted before the ones used less
+   * recently. Resolves with false when it isn't indexed.
+   */
+  @ReactMethod
+  public void touchRecording(String path, Promise promise) {
+    recordings.touch(path, promise);
+  }
+
+  /**
+   * Sets the limits on the indexed recordings, `MaxSize` in bytes, `MaxCount` and `MaxAge` in
+   * milliseconds since last use, 0 or missing for no limit. Recordings beyond them are deleted,
+   * least recently used first, now and whenever a recording finishes. Resolves with the paths
+   * deleted now.
+   */
+  @ReactMethod
+  public void setStorageQuota(ReadableMap quotaMap, Promise promise) {
+    recordings.setQuota(quotaMap, promise);
+  }
+
+  /**
+   * Repairs the recordings in `directory` that a crash-safe session left unfinished, because the
+   * process died or the recorder failed, and resolves with one entry per recording. Each journal
+   * is removed once its recording has been handled, so a recording is only reported once.
+   */
+  @ReactMethod
+  public void recoverRecordings(final String directory, final Promise promise) {
+    final Set<String> activePaths = new HashSet<>();
+    for (RecordingSession session : sessions.values()) {
+      activePaths.add(session.outputFilePath);
+    }
+
+    Runnable recover = new Runnable() {
+      @Override
+      public void run() {
+        File[] files = new File(directory).listFiles();
+        if (files == null) {
+          logAndRejectPromise(promise, NoAccessToWriteToDirectoryError, "Failed to list directory " + directory);
+          return;
+        }
+
+        WritableArray results = Arguments.createArray();
+
+        for (File file : files) {
+          String name = file.getName();
+          if (!name.endsWith(RecordingJournal.EXTENSION)) {
+            continue;
+          }
+
+          String path = file.getPath().substring(0, file.getPath().length() - RecordingJournal.EXTENSION.length());
+          if (activePaths.contains(path)) {
+            continue;
+          }
+
+          WritableMap item = Arguments.createMap();
+          item.putString("path", path);
+
+          try {
+            RecordingRecovery.Result result = RecordingRecovery.recover(RecordingJournal.read(file));
+
+            WritableArray segments = Arguments.createArray();
+            for (File segment : result.segments) {
+              segments.pushString(segment.getPath());
+            }
+
+            item.putString("uri", "file://" + path);
+            item.putString("format", result.format);
+            item.putBoolean("recovered", result.recovered);
+            item.putDouble("size", result.size);
+            item.putArray("segments", segments);
+            if (result.duration >= 0) {
+              item.putDouble("duration", result.duration);
+            }
+            if (result.error != null) {
+              item.putString("error", result.error);
+            }
+
+            if (!file.delete()) {
+              Log.w(TAG, "Failed to delete journal " + file.getPath());
+            }
+          } catch (IOException e) {
+            Log.e(TAG, "Failed to recover recording at path " + path, e);
+            item.putBoolean("recovered", false);
+            item.putString("error", e.getMessage());
+          }
+
+          results.pushMap(item);
+        }
+
+        promise.resolve(results);
+      }
+    };
+
+    // Not tracked as finish work, for the same reason as getWaveform
+    try {
+      finishExecutor.execute(recover);
+    } catch (RejectedExecutionException e) {
+      logAndRejectPromise(promise, InvalidStateError, "Too much background work in progress, try again later");
+    }
+  }
+
+  /**
+   * Lets the next `recordingData` batch through when `StreamAcknowledge` is on.
+   */
+  @ReactMethod
+  public void acknowledgeRecordingData(@Nullable String sessionId) {
+    RecordingSession session = findSession(sessionId);
+    PcmStreamer current = session != null ? session.streamer : null;
+    if (current != null) {
+      current.acknowledge();
+    }
+  }
+
+  /**
+   * Discards a session, including any work still finishing its last recording. A null
+   * `sessionId` discards every session.
+   */
+  @ReactMethod
+  public void destroy(@Nullable String sessionId, Promise promise) {
+    cancelFinishTasks(sessionId);
+
+    if (sessionId == null) {
+      for (RecordingSession session : sessions.values()) {
+        synchronized (session) {
+          reset(session);
+        }
+      }
+    } else {
+      RecordingSession session = sessions.get(sessionId);
+      if (session != null) {
+        synchronized (session) {
+          reset(session);
+        }
+      }
+    }
+
+    promise.resolve(null);
+  }
+
+  @ReactMethod
+  public void startRecording(@Nullable String sessionId, Promise promise){
+    RecordingSession session = findSession(sessionId);
+
+    if (session == null) {
+      logAndRejectPromise(promise, RecorderNotPreparedError, "Call prepareRecordingAtPath before starting recording");
+      return;
+    }
+
+    synchronized (session) {
+      startRecording(session, promise);
+    }
+  }
+
+  private void startRecording(RecordingSession session, Promise promise) {
+    if (!session.isPrepared()){
+      logAndRejectPromise(promise, RecorderNotPreparedError, "Call prepareRecordingAtPath before starting recording");
+      return;
+    }
+    if (session.isRecording){
+      logAndRejectPromise(promise, InvalidStateError, "Call stopRecording before starting new recording");
+      return;
+    }
+
+    long startTime = 0;
+
+    if (session.pcmRecorder != null) {
+      try {
+        session.pcmRecorder.start();
+      } catch (IllegalStateException e) {
+        logAndRejectPromise(promise, AlreadyRecordingError, e.getMessage());
+        return;
+      }
+
+      if (session.streamer != null) {
+        session.streamer.start();
+      }
+    } else {
+      // MediaRecorder doesn't tell when its first samples arrive, the closest is start() returning
+      startTime = System.nanoTime();
+      try {
+        session.recorder.start();
+      } catch (IllegalStateException e) {
+        logAndRejectPromise(promise, AlreadyRecordingError, "Recorder is already running");
+        return;
+      }
+    }
+
+    session.stopWatch.reset();
+    session.stopWatch.start();
+    session.isRecording = true;
+    session.isPaused = false;
+
+    startTimer(session);
+    if (session.handleInterruptions) {
+      updateInterruptionMonitor();
+    }
+    if (session.foregroundServiceTitle != null) {
+      updateForegroundService();
+    }
+
+    promise.resolve(session.outputFilePath);
+
+    if (session.recorder != null) {
+      sendRecordingStarted(session, System.nanoTime() - startTime);
+    }
+  }
+
+  @ReactMethod
+  public void stopRecording(@Nullable String sessionId, Promise promise){
+    RecordingSession session = findSession(sessionId);
+
+    if (session == null) {
+      logAndRejectPromise(promise, InvalidStateError, "Prepare and start recording before stopping recording");
+      return;
+    }
+
+    synchronized (session) {
+      stopRecording(session, promise);
+    }
+  }
+
+  private void stopRecording(RecordingSession session, Promise promise) {
+    if (!session.isRecording){
+      logAndRejectPromise(promise, InvalidStateError, "Prepare and start recording before stopping recording");
+      return;
+    }
+
+    long stopStart = System.nanoTime();
+    double duration = session.stopWatch.getTimeSeconds();
+    cancelRecovery(session);
+
+    if (session.pcmRecorder != null) {
+      stopPcmRecording(session, promise, stopStart);
+      return;
+    }
+
+    // Null while interrupted between two files, the last of which is already closed
+    boolean closed = session.recorder == null;
+
+    try {
+      if (!closed) {
+        session.recorder.stop();
+      }
+    } catch(final IllegalStateException e) {
+      if (!discardMediaRecorderFile(session)) {
+        reset(session);
+        logAndRejectPromise(promise, InvalidStateError, "Prepare and start recording before stopping recording");
+        return;
+      }
+      closed = true;
+    } catch (final RuntimeException e) {
+      // https://developer.android.com/reference/android/media/MediaRecorder.html#stop()
+      if (!discardMediaRecorderFile(session)) {
+        reset(session);
+        logAndRejectPromise(promise, NoRecordDataFoundError, "No valid audio data received. You may be using a device that can't record audio.");
+        return;
+      }
+      closed = true;
+    }
+
+    if (!moveWarmRecording(session)) {
+      reset(session);
+      logAndRejectPromise(promise, NoRecordDataFoundError, "Failed to move recording to path " + session.outputFilePath);
+      return;
+    }
+
+    if (!closed) {
+      finishMediaRecorderSegment(session, duration);
+    }
+
+    metrics.stopLatency.record(System.nanoTime() - stopStart);
+    promise.resolve(session.outputFilePath);
+    recordingDidFinished(session, duration);
+  }
+
+  /**
+   * Drops the file a MediaRecorder that failed to stop was writing, when the recording has
+   * earlier files to finish with: typically a continuation after an interruption that was stopped
+   * before it got any audio. Returns false when there are none and the recording is lost.
+   */
+  private boolean discardMediaRecorderFile(RecordingSession session) {
+    if (session.segmentIndex == 0) {
+      return false;
+    }
+
+    MediaRecorder recorder = session.recorder;
+    session.recorder = null;
+    try {
+      release(recorder);
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Failed to release MediaRecorder", e);
+    }
+
+    File file = session.getSegmentFile(session.segmentIndex);
+    Log.w(TAG, "Stopped before " + file.getPath() + " had any audio, finishing with the files before it");
+    deletePath(file.getPath());
+    session.segmentIndex--;
+    return true;
+  }
+
+  private void stopPcmRecording(RecordingSession session, Promise promise, long stopStart) {
+    long frames;
+
+    try {
+      frames = session.pcmRecorder.stop();
+    } catch (final IOException e) {
+      reset(session);
+      logAndRejectPromise(promise, NoRecordDataFoundError, "Failed to finalize recording: " + e.getMessage());
+      return;
+    }
+
+    if (session.streamer != null) {
+      session.streamer.finish();
+    }
+
+    // Only nothing captured at all is a device failure, a take that skip_silence kept entirely
+    // out of the file is an empty recording
+    if (session.pcmRecorder.getFramesCaptured() == 0) {
+      reset(session);
+      logAndRejectPromise(promise, NoRecordDataFoundError, "No valid audio data received. You may be using a device that can't record audio.");
+      return;
+    }
+
+    writeVoiceActivityIndex(session);
+
+    metrics.stopLatency.record(System.nanoTime() - stopStart);
+    promise.resolve(session.outputFilePath);
+    recordingDidFinished(session, frames / (double) session.pcmRecorder.getSampleRate());
+  }
+
+  /**
+   * Writes the silent segments found by the voice activity detector next to the recording,
+   * when it ran in index mode.
+   */
+  private void writeVoiceActivityIndex(RecordingSession session) {
+    if (session.voiceActivityDetector == null || session.vadIndexPath == null) {
+      return;
+    }
+
+    try {
+      session.voiceActivityDetector.writeIndex(new File(session.vadIndexPath), session.pcmRecorder.getFramesCaptured());
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to write voice activity index " + session.vadIndexPath, e);
+      session.vadIndexPath = null;
+    }
+  }
+
+  @ReactMethod
+  public void pauseRecording(@Nullable String sessionId, Promise promise) {
+    RecordingSession session = findSession(sessionId);
+
+    if (session == null) {
+      logAndRejectPromise(promise, InvalidStateError, "Prepare or start recorder before pausing");
+      return;
+    }
+
+    synchronized (session) {
+      pauseRecording(session, promise);
+    }
+  }
+
+  private void pauseRecording(RecordingSession session, Promise promise) {
+    if (session.interruption != null) {
+      logAndRejectPromise(promise, InvalidStateError, "Recording is interrupted, it resumes by itself or can be stopped");
+      return;
+    }
+
+    if (session.pcmRecorder != null && session.isRecording) {
+      session.pcmRecorder.pause();
+      session.stopWatch.stop();
+      session.isPaused = true;
+      promise.resolve(null);
+      return;
+    }
+
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+      logAndRejectPromise(promise, MethodNotAvailableError, "Method not available on this version of Android.");
+      return;
+    }
+
+    if (session.recorder == null || !session.isRecording) {
+      logAndRejectPromise(promise, InvalidStateError, "Prepare or start recorder before pausing");
+      return;
+    }
+
+    if (!session.isPaused) {
+      try {
+        session.recorder.pause();
+        session.stopWatch.stop();
+      } catch (final IllegalStateException e) {
+        e.printStackTrace();
+        logAndRejectPromise(promise, InvalidStateError, "Start recorder before pausing");
+        return;
+      }
+    }
+
+    session.isPaused = true;
+    promise.resolve(null);
+  }
+
+  @ReactMethod
+  public void resumeRecording(@Nullable String sessionId, Promise promise) {
+    RecordingSession session = findSession(sessionId);
+
+    if (session == null) {
+      logAndRejectPromise(promise, InvalidStateError, "Prepare or start recorder before resuming");
+      return;
+    }
+
+    synchronized (session) {
+      resumeRecording(session, promise);
+    }
+  }
+
+  private void resumeRecording(RecordingSession session, Promise promise) {
+    if (session.interruption != null) {
+      logAndRejectPromise(promise, InvalidStateError, "Recording is interrupted, it resumes by itself or can be stopped");
+      return;
+    }
+
+    if (session.pcmRecorder != null && session.isRecording) {
+      try {
+        session.pcmRecorder.resume();
+        session.stopWatch.start();
+      } catch (IllegalStateException e) {
+        logAndRejectPromise(promise, InvalidStateError, "Failed to resume recording: " + e.getMessage());
+        return;
+      }
+
+      session.isPaused = false;
+      promise.resolve(null);
+      return;
+    }
+
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+      logAndRejectPromise(promise, MethodNotAvailableError, "Method not available on this version of Android.");
+      return;
+    }
+
+    if (session.recorder == null || !session.isRecording) {
+      logAndRejectPromise(promise, InvalidStateError, "Prepare or start recorder before resuming");
+      return;
+    }
+
+    if (session.isPaused) {
+      try {
+        session.recorder.resume();
+        session.stopWatch.start();
+      } catch (IllegalStateException e) {
+        e.printStackTrace();
+        logAndRejectPromise(promise, InvalidStateError, "Start recorder before resuming");
+        return;
+      }
+    }
+
+    session.isPaused = false;
+    promise.resolve(null);
+  }
+
+  @ReactMethod
+  public void cleanPath(String path, Promise promise) {
+    boolean deleted = deletePath(path);
+    recordings.forget(path);
+
+    if (deleted) {
+      promise.resolve(null);
+    } else {
+      promise.reject(CleanUpError, "Failed to delete path " + path);
+    }
+  }
+
+  /**
+   * Deletes files and directories in the background, a few at a time, sending `deleteProgress`
+   * events with `{ id, totalPaths, finishedPaths, deletedFiles }` as paths finish. The last one
+   * has `done: true` and the results, `{ path, deleted, files, error }` for each path in order.
+   *
+   * Resolves with `{ id, results, deletedFiles }` once everything is deleted, or with
+   * `Trash: true` as soon as every path is renamed out of the way, with `trashed` instead of
+   * `deleted` in the results; deleting the renamed trees is left to the events then. A path that
+   * can't be renamed is deleted where it is.
+   */
+  @ReactMethod
+  public void deletePaths(ReadableArray pathArray, ReadableMap options, Promise promise) {
+    deletes.deletePaths(pathArray, options, promise);
+  }
+
+  @Override
+  public void onError(final MediaRecorder mediaRecorder, int what, int extra) {
+    final RecordingSession session = findSession(mediaRecorder);
+    if (session == null) {
+      release(mediaRecorder);
+      return;
+    }
+
+    // Paused by the user, the recording is left alone to fail as before
+    if (session.handleInterruptions && session.isRecording && (!session.isPaused || session.interruption != null)) {
+      Log.w(TAG, "MediaRecorder failed with error " + what + "/" + extra + ", continuing into a new file");
+      runOnScheduler(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (session) {
+            if (session.recorder != mediaRecorder) {
+              return;
+            }
+            if (session.interruption == null) {
+              interruptRecording(session, AudioInterruptionMonitor.RecorderError);
+            } else {
+              closeMediaRecorderFile(session, false);
+            }
+            scheduleRecovery(session);
+          }
+        }
+      });
+      return;
+    }
+
+    WritableMap data = createEventBody(session.id);
+    data.putString("code", what == MediaRecorder.MEDIA_ERROR_SERVER_DIED ? RecorderServerDiedError : RecorderUnknownError);
+    data.putString("path", session.outputFilePath);
+    data.putInt("extra", extra);
+    metrics.countError(what == MediaRecorder.MEDIA_ERROR_SERVER_DIED ? RecorderServerDiedError : RecorderUnknownError);
+
+    synchronized (session) {
+      abandonRecording(session);
+    }
+
+    sendEvent(AudioRecorderEventError, data);
+  }
+
+  @Override
+  public void onError(final PcmRecorder pcm, final String message) {
+    runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        failPcmRecording(pcm, message);
+      }
+    });
+  }
+
+  @Override
+  public void onCaptureInterrupted(final PcmRecorder pcm, final String message) {
+    runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        RecordingSession session = findSession(pcm);
+        if (session == null || !session.handleInterruptions || !session.isRecording || session.interruption != null) {
+          failPcmRecording(pcm, message);
+          return;
+        }
+
+        Log.w(TAG, message + ", restarting capture");
+        interruptRecording(session, AudioInterruptionMonitor.RecorderError);
+        recoverRecording(session);
+      }
+    });
+  }
+
+  private void failPcmRecording(PcmRecorder pcm, String message) {
+    RecordingSession session = findSession(pcm);
+    if (session == null) {
+      pcm.release();
+      return;
+    }
+
+    Log.e(TAG, message);
+
+    WritableMap data = createEventBody(session.id);
+    data.putString("code", RecorderUnknownError);
+    data.putString("path", session.outputFilePath);
+    data.putString("message", message);
+    metrics.countError(RecorderUnknownError);
+
+    synchronized (session) {
+      abandonRecording(session);
+    }
+
+    sendEvent(AudioRecorderEventError, data);
+  }
+
+  @Override
+  public void onMaxDurationReached(final PcmRecorder pcm) {
+    runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        RecordingSession session = findSession(pcm);
+        if (session == null) {
+          return;
+        }
+
+        synchronized (session) {
+          finishAtMaxDuration(session, pcm);
+        }
+      }
+    });
+  }
+
+  private void finishAtMaxDuration(RecordingSession session, PcmRecorder pcm) {
+    if (!session.isRecording) {
+      return;
+    }
+
+    try {
+      pcm.stop();
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to finalize recording at path " + session.outputFilePath, e);
+    }
+
+    if (session.streamer != null) {
+      session.streamer.finish();
+    }
+
+    writeVoiceActivityIndex(session);
+
+    recordingDidFinished(session, pcm.getFramesWritten() / (double) pcm.getSampleRate());
+  }
+
+  @Override
+  public void onCaptureStarted(final PcmRecorder pcm, final long latency) {
+    runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        RecordingSession session = findSession(pcm);
+        if (session == null) {
+          return;
+        }
+
+        if (session.resumedFrom != null) {
+          sendRecordingResumed(session, latency, null);
+        } else {
+          sendRecordingStarted(session, latency);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void onSegmentFinished(PcmRecorder pcm, File segment, int index, long frames) {
+    RecordingSession session = findSession(pcm);
+    if (session == null) {
+      return;
+    }
+
+    sendSegmentFinished(session, segment, index, frames / (double) pcm.getSampleRate());
+  }
+
+  /**
+   * Reports the segment MediaRecorder is currently writing as finished, when segmenting.
+   */
+  private void finishMediaRecorderSegment(RecordingSession session, double time) {
+    if (!session.isSegmenting()) {
+      return;
+    }
+
+    File segment = session.getSegmentFile(session.segmentIndex);
+    sendSegmentFinished(session, segment, session.segmentIndex, time - session.segmentStartTime);
+  }
+
+  private void sendSegmentFinished(RecordingSession session, File segment, int index, double duration) {
+    WritableMap data = createEventBody(session.id);
+    data.putString("recordingPath", session.outputFilePath);
+    data.putString("path", segment.getPath());
+    data.putString("uri", "file://" + segment.getPath());
+    data.putInt("index", index);
+    data.putDouble("duration", duration);
+    data.putDouble("size", segment.length());
+    sendEvent(AudioRecorderEventSegmentFinished, data);
+  }
+
+  /**
+   * Listens for interruptions while any session that handles them is recording, and stops
+   * listening, which also gives audio focus back, once none is.
+   */
+  private synchronized void updateInterruptionMonitor() {
+    boolean needed = false;
+    for (RecordingSession session : sessions.values()) {
+      if (session.handleInterruptions && session.isRecording) {
+        needed = true;
+        break;
+      }
+    }
+
+    if (needed && interruptionMonitor == null) {
+      interruptionMonitor = new AudioInterruptionMonitor(getReactApplicationContext(), new Handler(Looper.getMainLooper()), this);
+      interruptionMonitor.start();
+    } else if (!needed && interruptionMonitor != null) {
+      interruptionMonitor.stop();
+      interruptionMonitor = null;
+    }
+  }
+
+  /**
+   * Runs RecordingService while any session that asked for it is recording. The notification
+   * shows the settings of the first one.
+   */
+  private synchronized void updateForegroundService() {
+    RecordingSession shown = null;
+    for (RecordingSession session : sessions.values()) {
+      if (session.foregroundServiceTitle != null && session.isRecording) {
+        shown = session;
+        break;
+      }
+    }
+
+    if (shown != null && !foregroundServiceRunning) {
+      try {
+        RecordingService.start(getReactApplicationContext(), shown.foregroundServiceTitle, shown.foregroundServiceText);
+        foregroundServiceRunning = true;
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to start the recording service, recording goes on without it", e);
+      }
+    } else if (shown == null && foregroundServiceRunning) {
+      RecordingService.stop(getReactApplicationContext());
+      foregroundServiceRunning = false;
+    }
+  }
+
+  @Override
+  public void onInterruptionBegan(final String reason) {
+    runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        for (RecordingSession session : sessions.values()) {
+          if (session.handleInterruptions && session.isRecording && !session.isPaused) {
+            interruptRecording(session, reason);
+          }
+        }
+      }
+    });
+  }
+
+  @Override
+  public void onInterruptionEnded(final String reason) {
+    runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        for (RecordingSession session : sessions.values()) {
+          if (reason.equals(session.interruption)) {
+            recoverRecording(session);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * An input device came or went. AudioRecord stays with the device it started on, or fails with
+   * it, so the PCM engine restarts on the current route. MediaRecorder follows the route by
+   * itself. A recording that is waiting for a microphone tries again right away.
+   */
+  @Override
+  public void onInputDevicesChanged() {
+    runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        for (RecordingSession session : sessions.values()) {
+          if (!session.handleInterruptions || !session.isRecording) {
+            continue;
+          }
+
+          if (session.interruption != null) {
+            if (!AudioInterruptionMonitor.FocusLoss.equals(session.interruption)) {
+              recoverRecording(session);
+            }
+          } else if (session.pcmRecorder != null && !session.isPaused) {
+            interruptRecording(session, AudioInterruptionMonitor.RouteChange);
+            recoverRecording(session);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Pauses a recording whose microphone was taken away, keeping everything it recorded so far.
+   * On focus loss the recorder is paused where it can be; a MediaRecorder that failed, or that
+   * can't pause before Android 7.0, is closed and the recording continues into the next file.
+   */
+  private void interruptRecording(RecordingSession session, String reason) {
+    synchronized (session) {
+      interruptLocked(session, reason);
+    }
+  }
+
+  private void interruptLocked(RecordingSession session, String reason) {
+    if (!session.isRecording || session.interruption != null) {
+      return;
+    }
+
+    session.interruption = reason;
+    session.interruptionStart = System.nanoTime();
+    session.resumedFrom = null;
+    session.stopWatch.stop();
+    session.isPaused = true;
+    metrics.interruptions.incrementAndGet();
+
+    boolean focusLoss = AudioInterruptionMonitor.FocusLoss.equals(reason);
+    if (session.pcmRecorder != null) {
+      // Otherwise the PCM engine gets a new AudioRecord right away
+      if (focusLoss) {
+        session.pcmRecorder.pause();
+      }
+    } else if (focusLoss && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+      try {
+        session.recorder.pause();
+      } catch (IllegalStateException e) {
+        closeMediaRecorderFile(session, true);
+      }
+    } else {
+      closeMediaRecorderFile(session, !AudioInterruptionMonitor.RecorderError.equals(reason));
+    }
+
+    WritableMap body = createEventBody(session.id);
+    body.putString("path", session.outputFilePath);
+    body.putString("reason", reason);
+    body.putDouble("currentTime", session.getCurrentTime());
+    sendEvent(AudioRecorderEventInterrupted, body);
+  }
+
+  /**
+   * Continues an interrupted recording, or tries again a little later while the microphone is
+   * still unavailable. The PCM engine reports that it resumed once the first audio arrived, in
+   * {@link #onCaptureStarted}, MediaRecorder once it started.
+   */
+  private void recoverRecording(RecordingSession session) {
+    synchronized (session) {
+      recoverLocked(session);
+    }
+  }
+
+  private void recoverLocked(RecordingSession session) {
+    String reason = session.interruption;
+    if (reason == null || !session.isRecording) {
+      return;
+    }
+
+    long resumeStart = System.nanoTime();
+    String continuationPath = null;
+
+    try {
+      if (session.pcmRecorder != null) {
+        session.pcmRecorder.restart(!AudioInterruptionMonitor.FocusLoss.equals(reason));
+      } else if (session.recorder == null) {
+        continuationPath = startMediaRecorderContinuation(session);
+      } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+        session.recorder.resume();
+      }
+    } catch (IOException | RuntimeException e) {
+      Log.w(TAG, "Recording at path " + session.outputFilePath + " can't be resumed yet: " + e.getMessage());
+      // A paused MediaRecorder that doesn't resume is done, the next attempt starts a new file
+      if (session.recorder != null) {
+        closeMediaRecorderFile(session, true);
+      }
+      scheduleRecovery(session);
+      return;
+    }
+
+    cancelRecovery(session);
+    session.resumedFrom = reason;
+    session.resumeStart = resumeStart;
+    session.stopWatch.start();
+    session.isPaused = false;
+
+    if (session.pcmRecorder == null) {
+      sendRecordingResumed(session, System.nanoTime() - resumeStart, continuationPath);
+    }
+  }
+
+  private void scheduleRecovery(final RecordingSession session) {
+    if (session.recoveryTask != null) {
+      session.recoveryTask.cancel(false);
+    }
+
+    session.recoveryDelay = session.recoveryDelay > 0 ? Math.min(session.recoveryDelay * 2, MaxRecoveryDelay) : FirstRecoveryDelay;
+
+    try {
+      session.recoveryTask = scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          session.recoveryTask = null;
+          recoverRecording(session);
+        }
+      }, session.recoveryDelay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      Log.d(TAG, "Module is being destroyed, not resuming recording");
+    }
+  }
+
+  private void cancelRecovery(RecordingSession session) {
+    if (session.recoveryTask != null) {
+      session.recoveryTask.cancel(false);
+      session.recoveryTask = null;
+    }
+    session.recoveryDelay = 0;
+    session.interruption = null;
+  }
+
+  /**
+   * Closes the file MediaRecorder is writing, stopping it first unless it failed, and keeps it as
+   * a segment of the recording.
+   */
+  private void closeMediaRecorderFile(RecordingSession session, boolean stop) {
+    synchronized (session) {
+      closeLocked(session, stop);
+    }
+  }
+
+  private void closeLocked(RecordingSession session, boolean stop) {
+    MediaRecorder recorder = session.recorder;
+    if (recorder == null) {
+      return;
+    }
+    session.recorder = null;
+
+    if (stop) {
+      try {
+        recorder.stop();
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to finalize " + session.getSegmentFile(session.segmentIndex).getPath(), e);
+      }
+    }
+
+    try {
+      release(recorder);
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Failed to release MediaRecorder", e);
+    }
+
+    moveWarmRecording(session);
+    finishMediaRecorderSegment(session, session.stopWatch.getTimeSeconds());
+  }
+
+  /**
+   * Starts a MediaRecorder with the settings of the session on the file after its last one, for
+   * whatever is left of the maximum duration, and returns the path of that file.
+   */
+  private String startMediaRecorderContinuation(RecordingSession session) throws IOException {
+    ReadableMap settings = session.recordingSettings;
+    File file = session.getSegmentFile(session.segmentIndex + 1);
+    MediaRecorder recorder = new MediaRecorder();
+    recorder.setOnErrorListener(this);
+    recorder.setOnInfoListener(this);
+
+    try {
+      configureMediaRecorder(recorder, settings, file.getPath());
+      if (session.maxDuration > 0) {
+        recorder.setMaxDuration(Math.max(1, session.maxDuration - (int) (session.stopWatch.getTimeNanos() / 1000000)));
+      }
+      if (session.isSegmenting()) {
+        recorder.setMaxFileSize(getMediaRecorderSegmentSize(session, settings.getInt("AudioEncodingBitRate")));
+      }
+      recorder.prepare();
+      recorder.start();
+    } catch (IOException | RuntimeException e) {
+      release(recorder);
+      deletePath(file.getPath());
+      throw e;
+    }
+
+    session.recorder = recorder;
+    session.segmentIndex++;
+    session.segmentStartTime = session.stopWatch.getTimeSeconds();
+    commitJournal(session);
+
+    return file.getPath();
+  }
+
+  private void sendRecordingResumed(RecordingSession session, long latency, @Nullable String continuationPath) {
+    metrics.restartLatency.record(latency);
+
+    WritableMap body = createEventBody(session.id);
+    body.putString("path", session.outputFilePath);
+    body.putString("reason", session.resumedFrom);
+    body.putDouble("latency", latency / 1e6);
+    body.putDouble("interruptedDuration", (session.resumeStart - session.interruptionStart) / 1e9);
+    if (continuationPath != null) {
+      body.putString("continuationPath", continuationPath);
+    }
+    session.resumedFrom = null;
+
+    sendEvent(AudioRecorderEventResumed, body);
+  }
+
+  @Override
+  public void onCatalystInstanceDestroy() {
+    getReactApplicationContext().removeLifecycleEventListener(this);
+    recorderPool.clear();
+    cancelFinishTasks(null);
+    finishExecutor.shutdownNow();
+    transcodes.shutdown();
+    uploads.shutdown();
+    recordings.close();
+    deletes.shutdown();
+    for (RecordingSession session : sessions.values()) {
+      if (session.crashSafe && session.isRecording) {
+        finalizeAbandonedRecording(session);
+      }
+      abandonRecording(session);
+    }
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * Resets after a recording was cut short by an error or by the app going away. A started
+   * crash-safe recording is kept on disk with its journal rather than deleted, so that
+   * `recoverRecordings` can repair and report it.
+   */
+  private void abandonRecording(RecordingSession session) {
+    if (!session.crashSafe || !session.isRecording) {
+      reset(session);
+      return;
+    }
+
+    if (session.streamer != null) {
+      session.streamer.cancel();
+    }
+
+    reset(session, false);
+  }
+
+  /**
+   * Finalizes a crash-safe recording the app is going away from, so that it is playable as it
+   * is. Its journal is kept, so it is still reported by `recoverRecordings`.
+   */
+  private void finalizeAbandonedRecording(RecordingSession session) {
+    try {
+      if (session.pcmRecorder != null) {
+        session.pcmRecorder.stop();
+      } else if (session.recorder != null) {
+        session.recorder.stop();
+      }
+    } catch (IOException | RuntimeException e) {
+      Log.w(TAG, "Failed to finalize recording at path " + session.outputFilePath, e);
+    }
+  }
+
+  private void commitJournal(RecordingSession session) {
+    if (session.journal == null) {
+      return;
+    }
+
+    try {
+      session.journal.commit(session.segmentIndex, 0, 0);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to update journal of " + session.outputFilePath, e);
+    }
+  }
+
+  @Override
+  public void onInfo(MediaRecorder mediaRecorder, int what, int extra) {
+    RecordingSession session = findSession(mediaRecorder);
+
+    if (session == null) {
+      if (what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED) {
+        release(mediaRecorder);
+      }
+      return;
+    }
+
+    synchronized (session) {
+      onInfo(session, mediaRecorder, what);
+    }
+  }
+
+  private void onInfo(RecordingSession session, MediaRecorder mediaRecorder, int what) {
+    switch (what) {
+      case MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED:
+        if (session.maxDuration == 0) {
+          release(mediaRecorder);
+          return;
+        }
+
+        if (!moveWarmRecording(session)) {
+          WritableMap data = createEventBody(session.id);
+          data.putString("code", NoRecordDataFoundError);
+          data.putString("path", session.outputFilePath);
+          data.putString("message", "Failed to move recording to path " + session.outputFilePath);
+          metrics.countError(NoRecordDataFoundError);
+
+          reset(session);
+          sendEvent(AudioRecorderEventError, data);
+          return;
+        }
+
+        finishMediaRecorderSegment(session, session.maxDuration / 1000d);
+        recordingDidFinished(session, session.maxDuration / 1000d);
+        break;
+
+      case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING:
+        if (session.isSegmenting()) {
+          setNextSegmentFile(session);
+        }
+        break;
+
+      case MediaRecorder.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED:
+        if (session.isSegmenting()) {
+          double now = session.stopWatch.getTimeSeconds();
+          finishMediaRecorderSegment(session, now);
+          session.segmentIndex++;
+          session.segmentStartTime = now;
+          commitJournal(session);
+        }
+        break;
+
+      case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED:
+        // The next file wasn't accepted in time and MediaRecorder stopped on its own
+        if (session.isRecording) {
+          double duration = session.stopWatch.getTimeSeconds();
+          finishMediaRecorderSegment(session, duration);
+          recordingDidFinished(session, duration);
+        }
+        break;
+    }
+  }
+
+  private void setNextSegmentFile(RecordingSession session) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+      return;
+    }
+
+    File next = session.getSegmentFile(session.segmentIndex + 1);
+    try {
+      session.recorder.setNextOutputFile(next);
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to set next segment file " + next.getPath(), e);
+    }
+  }
+
+  /**
+   * Snapshot of a stopped recording, taken before its session is reset, for the work that
+   * happens on the background thread.
+   */
+  static class FinishedRecording {
+    String sessionId;
+    String path;
+    String format;
+    int sampleRate;
+    int channels;
+    // Every file of the recording, more than one when it was segmented
+    final List<File> files = new ArrayList<>();
+    double duration;
+    boolean includeBase64;
+    int base64ChunkSize;
+    WaveformPeaks waveform;
+    // Whatever else is already known, merged into the finished event
+    final WritableMap extras = Arguments.createMap();
+  }
+
+  private void recordingDidFinished(RecordingSession session, double duration) {
+    session.finished = true;
+    metrics.recordings.incrementAndGet();
+    // What was written after the last progress tick
+    long written = getBytesWritten(session) - session.lastBytesWritten;
+    if (written > 0) {
+      metrics.bytesWritten.addAndGet(written);
+    }
+
+    final FinishedRecording recording = new FinishedRecording();
+    recording.sessionId = session.id;
+    recording.path = session.outputFilePath;
+    recording.format = session.outputFormat;
+    recording.sampleRate = session.sampleRate;
+    recording.channels = session.channels;
+    recording.duration = duration;
+    recording.includeBase64 = session.includeBase64;
+    recording.base64ChunkSize = session.base64ChunkSize;
+    recording.waveform = session.waveform;
+
+    if (session.vadIndexPath != null) {
+      recording.extras.putString("vadIndexPath", session.vadIndexPath);
+    }
+
+    if (session.journal != null) {
+      session.journal.delete();
+      session.journal = null;
+    }
+
+    if (session.hasSegments()) {
+      WritableArray segments = Arguments.createArray();
+      for (int i = 0; i < session.getSegmentCount(); i++) {
+        File segment = session.getSegmentFile(i);
+        segments.pushString(segment.getPath());
+        recording.files.add(segment);
+      }
+      recording.extras.putArray("segments", segments);
+      // Segments are meant to be picked up one by one, not sent back as one payload
+      recording.includeBase64 = false;
+    } else {
+      recording.files.add(new File(session.outputFilePath));
+    }
+
+    // Segments are transcoded by whoever picks them up
+    Transcoder.Settings transcode = session.hasSegments() ? null : session.transcode;
+    String transcodePath = null;
+    if (transcode != null) {
+      transcodePath = session.transcodePath != null ? session.transcodePath : TranscodeController.getOutputPath(session.outputFilePath, transcode);
+      recording.extras.putString("transcodePath", transcodePath);
+    }
+
+    reset(session, false);
+
+    if (transcode != null) {
+      transcodes.transcodeRecording(session.id, recording.path, transcodePath, transcode);
+    }
+
+    String[] finishing = new String[recording.files.size()];
+    for (int i = 0; i < finishing.length; i++) {
+      finishing[i] = recording.files.get(i).getPath();
+    }
+
+    boolean scheduled = runInBackground(session.id, finishExecutor, finishing, new Runnable() {
+      @Override
+      public void run() {
+        sendRecordingFinished(recording);
+      }
+    });
+
+    if (!scheduled) {
+      // Still let JS know the recording is done, just without the expensive payload
+      recording.includeBase64 = false;
+      recording.waveform = null;
+      sendRecordingFinished(recording);
+    }
+  }
+
+  /**
+   * The duration stored in the recorded files themselves, which unlike the clock is exact. Falls
+   * back to the measured duration for formats that can't be read cheaply (WebM, MPEG-2 TS).
+   */
+  private double readDuration(FinishedRecording recording) {
+    if (recording.format == null) {
+      return recording.duration;
+    }
+
+    double duration = 0;
+    for (File file : recording.files) {
+      double fileDuration = MediaDuration.read(file, recording.format, recording.sampleRate, recording.channels);
+      if (fileDuration < 0) {
+        return recording.duration;
+      }
+      duration += fileDuration;
+    }
+
+    return duration;
+  }
+
+  private void sendRecordingFinished(FinishedRecording recording) {
+    long finishStart = System.nanoTime();
+    String path = recording.path;
+    int chunkSize = recording.base64ChunkSize;
+    boolean withBase64 = recording.includeBase64;
+
+    WritableMap result = createEventBody(recording.sessionId);
+    result.merge(recording.extras);
+    result.putString("path", path);
+    result.putString("uri", "file://" + path);
+    result.putDouble("duration", readDuration(recording));
+    result.putDouble("size", new File(path).length());
+
+    String waveformPath = null;
+    if (recording.waveform != null) {
+      waveformPath = path + WaveformPeaks.SIDECAR_EXTENSION;
+      try {
+        recording.waveform.write(new File(waveformPath));
+        result.putString("waveformPath", waveformPath);
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to write waveform at path " + waveformPath, e);
+        waveformPath = null;
+      }
+    }
+
+    String base64 = "";
+    try {
+      if (withBase64 && chunkSize > 0) {
+        sendBase64Chunks(recording.sessionId, path, Math.min(chunkSize, MaxBase64ChunkSize));
+      } else if (withBase64) {
+        base64 = new Base64StreamEncoder(Base64StreamEncoder.DEFAULT_CHUNK_SIZE, true)
+            .encodeToString(new File(path));
+      }
+    } catch (final InterruptedIOException e) {
+      Log.d(TAG, "Finishing recording at path " + path + " was cancelled");
+      return;
+    } catch (final FileNotFoundException e) {
+      base64 = "";
+      Log.e(TAG, "Failed to find file at path " + path);
+    } catch (IOException e) {
+      base64 = "";
+      Log.e(TAG, "Failed to parse file at path " + path, e);
+    }
+
+    if (!base64.isEmpty()) {
+      result.putString("base64", base64);
+    }
+
+    if (Thread.currentThread().isInterrupted()) {
+      return;
+    }
+
+    metrics.finishTime.record(System.nanoTime() - finishStart);
+    sendEvent(AudioRecorderEventFinished, result);
+    // Only now, since eviction may delete files the finishing work above was reading
+    recordings.indexRecording(recording, waveformPath);
+  }
+
+  /**
+   * Runs post-recording work of a session on {@code executor}, keeping track of it so that it
+   * can be cancelled by {@link #cancelFinishTasks(String)}, and keeps eviction away from
+   * {@code paths} until the work is done or cancelled. Returns false when the work could not be
+   * queued.
+   */
+  @Override
+  public boolean runInBackground(String sessionId, ThreadPoolExecutor executor, final String[] paths, Runnable runnable) {
+    FutureTask<Void> task = new FutureTask<Void>(runnable, null) {
+      @Override
+      protected void done() {
+        synchronized (finishTasks) {
+          finishTasks.remove(this);
+        }
+        pinnedPaths.unpin(paths);
+      }
+    };
+
+    pinnedPaths.pin(paths);
+
+    synchronized (finishTasks) {
+      finishTasks.put(task, sessionId);
+    }
+
+    try {
+      executor.execute(task);
+      return true;
+    } catch (RejectedExecutionException e) {
+      Log.e(TAG, "Failed to schedule background work", e);
+      task.cancel(false);
+      return false;
+    }
+  }
+
+  /**
+   * Cancels the background work of one session, or of all of them when {@code sessionId} is
+   * null.
+   */
+  private void cancelFinishTasks(@Nullable String sessionId) {
+    synchronized (finishTasks) {
+      for (Map.Entry<Future<?>, String> entry : new HashMap<>(finishTasks).entrySet()) {
+        if (sessionId == null || sessionId.equals(entry.getValue())) {
+          entry.getKey().cancel(true);
+          finishTasks.remove(entry.getKey());
+        }
+      }
+    }
+  }
+
+  /**
+   * Emits the recording as a series of `recordingDataChunk` events of at most `chunkSize` raw
+   * bytes each, followed by a final event carrying the total size and a CRC32 of the file (or an
+   * `error` when the file could not be read).
+   * Chunks are encoded without line breaks, so concatenating their `data` gives the Base64 of the
+   * whole file.
+   */
+  private void sendBase64Chunks(final String sessionId, final String path, int chunkSize) throws InterruptedIOException {
+    final CRC32 checksum = new CRC32();
+    final int[] sequence = {0};
+    final long[] offset = {0};
+    final Base64StreamEncoder encoder = new Base64StreamEncoder(chunkSize, false);
+    long size = 0;
+    String error = null;
+
+    try {
+      size = encoder.encode(new File(path), new Base64StreamEncoder.Sink() {
+        @Override
+        public void write(byte[] encoded, int length) throws IOException {
+          WritableMap chunk = createEventBody(sessionId);
+          chunk.putString("path", path);
+          chunk.putInt("sequence", sequence[0]);
+          chunk.putDouble("offset", offset[0]);
+          chunk.putString("data", new String(encoded, 0, length, "US-ASCII"));
+          chunk.putBoolean("final", false);
+          sendEvent(AudioRecorderEventDataChunk, chunk);
+
+          sequence[0]++;
+          offset[0] += encoder.getChunkSize();
+        }
+      }, checksum);
+    } catch (InterruptedIOException e) {
+      throw e;
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to stream file at path " + path, e);
+      error = e.getMessage() != null ? e.getMessage() : "Failed to stream file at path " + path;
+    }
+
+    WritableMap last = createEventBody(sessionId);
+    last.putString("path", path);
+    last.putInt("sequence", sequence[0]);
+    last.putDouble("offset", size);
+    last.putBoolean("final", true);
+
+    if (error == null) {
+      last.putDouble("size", size);
+      last.putString("checksum", Long.toHexString(checksum.getValue()));
+      last.putString("checksumAlgorithm", "crc32");
+    } else {
+      last.putString("error", error);
+    }
+
+    sendEvent(AudioRecorderEventDataChunk, last);
+  }
+
+  private int getAudioEncoderFromString(String audioEncoder) {
+    switch (audioEncoder) {
+      case AacAudioEncoding:
+        return MediaRecorder.AudioEncoder.AAC;
+      case AacEldAudioEncoding:
+        return MediaRecorder.AudioEncoder.AAC_ELD;
+      case AmrNbAudioEncoding:
+        return MediaRecorder.AudioEncoder.AMR_NB;
+      case AmrWbAudioEncoding:
+        return MediaRecorder.AudioEncoder.AMR_WB;
+      case HeAacAudioEncoding:
+        return MediaRecorder.AudioEncoder.HE_AAC;
+      case VorbisAudioEncoding:
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+          return MediaRecorder.AudioEncoder.VORBIS;
+        }
+      default:
+        Log.d(TAG, "INVALID_AUDIO_ENCODER: Using MediaRecorder.AudioEncoder.DEFAULT instead of "+audioEncoder+": "+MediaRecorder.AudioEncoder.DEFAULT);
+        return MediaRecorder.AudioEncoder.DEFAULT;
+    }
+  }
+
+  private int getOutputFormatFromString(String outputFormat) {
+    switch (outputFormat) {
+      case Mpeg4AudioOutputFormat:
+        return MediaRecorder.OutputFormat.MPEG_4;
+      case AacAdtsAudioOutputFormat:
+        return MediaRecorder.OutputFormat.AAC_ADTS;
+      case AmrNbAudioOutputFormat:
+        return MediaRecorder.OutputFormat.AMR_NB;
+      case AmrWbAudioOutputFormat:
+        return MediaRecorder.OutputFormat.AMR_WB;
+      case ThreeGppAudioOutputFormat:
+        return MediaRecorder.OutputFormat.THREE_GPP;
+      case WebmAudioOutputFormat:
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+          return MediaRecorder.OutputFormat.WEBM;
+        }
+      case Mpeg2TsAudioOutputFormat:
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+          return MediaRecorder.OutputFormat.MPEG_2_TS;
+        }
+      default:
+        Log.d(TAG, "INVALID_OUTPUT_FORMAT: Using MediaRecorder.OutputFormat.DEFAULT : " + MediaRecorder.OutputFormat.DEFAULT);
+        return MediaRecorder.OutputFormat.DEFAULT;
+    }
+  }
+
+  private void startTimer(final RecordingSession session){
+    stopTimer(session);
+
+    session.lastProgressTime = -1;
+    session.lastProgressMetering = Double.NaN;
+    session.lastTickTime = 0;
+
+    if (hostInBackground && !session.backgroundProgress) {
+      session.progressSuspendedAt = System.nanoTime();
+      return;
+    }
+
+    session.progressTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        if (session.isPaused) {
+          session.lastTickTime = 0;
+          return;
+        }
+
+        recordTickMetrics(session, System.nanoTime());
+
+        double currentTime = session.getCurrentTime();
+        double metering = readMetering(session);
+
+        if (!hasProgressChanged(session, currentTime, metering)) {
+          return;
+        }
+
+        session.lastProgressTime = currentTime;
+        session.lastProgressMetering = metering;
+
+        sendEvent(AudioRecorderEventProgress, createProgressBody(session, currentTime, metering));
+      }
+    }, 0, session.progressUpdateInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Levels since the previous reading, the RMS level in dB for the PCM engine and the peak
+   * level for MediaRecorder, or NaN when metering is off.
+   */
+  private double readMetering(RecordingSession session) {
+    LevelMeter meter = session.levelMeter;
+    if (meter != null) {
+      meter.read(session.levelReading);
+      return session.levelReading.rmsDb;
+    }
+    return session.meteringEnabled ? getCurrentMetering(session) : Double.NaN;
+  }
+
+  private WritableMap createProgressBody(RecordingSession session, double currentTime, double metering) {
+    WritableMap body = createEventBody(session.id);
+
+    if (session.levelMeter != null) {
+      body.putDouble("currentMetering", metering);
+      body.putDouble("currentPeakMetering", session.levelReading.peakDb);
+      body.putInt("clipCount", session.levelReading.clipCount);
+    } else if (session.meteringEnabled) {
+      body.putDouble("currentMetering", metering);
+    }
+
+    body.putDouble("currentTime", currentTime);
+    body.putString("path", session.outputFilePath);
+    return body;
+  }
+
+  /**
+   * Stops the progress ticks of a session while nobody sees them, so that a long recording in
+   * the background doesn't wake the CPU for them. The recorder threads keep running.
+   */
+  private void suspendProgress(RecordingSession session) {
+    stopTimer(session);
+    session.progressSuspendedAt = System.nanoTime();
+  }
+
+  /**
+   * Starts the ticks again and sends one progress event for the time they were suspended: where
+   * the recording is now and, with metering, the levels over the whole time.
+   */
+  private void resumeProgress(RecordingSession session) {
+    long suspended = System.nanoTime() - session.progressSuspendedAt;
+    session.progressSuspendedAt = 0;
+
+    // What was written meanwhile, since the first tick from now on starts over
+    long bytes = getBytesWritten(session);
+    if (bytes > session.lastBytesWritten) {
+      metrics.bytesWritten.addAndGet(bytes - session.lastBytesWritten);
+    }
+    session.lastBytesWritten = bytes;
+
+    // The first tick runs on this thread after this, and skips what is sent here
+    startTimer(session);
+
+    double currentTime = session.getCurrentTime();
+    double metering = readMetering(session);
+    session.lastProgressTime = currentTime;
+    session.lastProgressMetering = metering;
+
+    WritableMap body = createProgressBody(session, currentTime, metering);
+    body.putBoolean("catchUp", true);
+    body.putDouble("suspendedDuration", suspended / 1e9);
+    sendEvent(AudioRecorderEventProgress, body);
+  }
+
+  @Override
+  public void onHostPause() {
+    hostInBackground = true;
+    runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        for (RecordingSession session : sessions.values()) {
+          if (session.progressTask != null && !session.backgroundProgress) {
+            suspendProgress(session);
+          }
+        }
+      }
+    });
+  }
+
+  @Override
+  public void onHostResume() {
+    hostInBackground = false;
+    runOnScheduler(new Runnable() {
+      @Override
+      public void run() {
+        for (RecordingSession session : sessions.values()) {
+          if (session.progressSuspendedAt > 0 && session.isRecording) {
+            resumeProgress(session);
+          }
+        }
+      }
+    });
+  }
+
+  @Override
+  public void onHostDestroy() {
+    // Always preceded by onHostPause, and recordings go on without an Activity
+  }
+
+  /**
+   * Measures how late the tick is and how much was written since the previous one.
+   */
+  private void recordTickMetrics(RecordingSession session, long now) {
+    long bytes = getBytesWritten(session);
+    PcmRecorder pcm = session.pcmRecorder;
+    int overruns = pcm != null ? pcm.getOverruns() : 0;
+
+    if (session.lastTickTime > 0) {
+      long elapsed = now - session.lastTickTime;
+      metrics.progressJitter.record(Math.abs(elapsed - session.progressUpdateInterval * 1000000L));
+
+      // A new MediaRecorder segment starts over from an empty file
+      long written = bytes - session.lastBytesWritten;
+      if (written >= 0 && elapsed > 0) {
+        metrics.bytesWritten.addAndGet(written);
+        metrics.writeThroughput.record(written * 1000000000L / elapsed);
+      }
+    }
+    metrics.overruns.addAndGet(overruns - session.lastOverruns);
+
+    session.lastTickTime = now;
+    session.lastBytesWritten = bytes;
+    session.lastOverruns = overruns;
+  }
+
+  private long getBytesWritten(RecordingSession session) {
+    PcmRecorder pcm = session.pcmRecorder;
+    if (pcm != null) {
+      return pcm.getFramesWritten() * session.channels * PcmRecorder.BITS_PER_SAMPLE / 8;
+    }
+    if (session.outputFilePath == null) {
+      return 0;
+    }
+    return (session.warmFile != null ? session.warmFile : new File(session.outputFilePath)).length();
+  }
+
+  private double getCurrentMetering(RecordingSession session) {
+    int maxAmplitude = 0;
+    // Interruption handling may release the recorder meanwhile
+    synchronized (session) {
+      MediaRecorder recorder = session.recorder;
+      if (recorder != null) {
+        maxAmplitude = recorder.getMaxAmplitude();
+      }
+    }
+
+    return LevelMeter.toDb(maxAmplitude);
+  }
+
+  /**
+   * A tick is only worth an event when the recording advanced by at least half an interval
+   * (it does not while stalled) or when the level moved noticeably.
+   */
+  private boolean hasProgressChanged(RecordingSession session, double currentTime, double metering) {
+    if (currentTime - session.lastProgressTime >= session.progressUpdateInterval / 2000d) {
+      return true;
+    }
+
+    return session.meteringEnabled
+        && (Double.isNaN(session.lastProgressMetering) || Math.abs(metering - session.lastProgressMetering) >= MeteringChangeThreshold);
+  }
+
+  /**
+   * PcmRecorder reports from its own recording threads, which can't stop or release the recorder
+   * themselves, so its callbacks are handled here.
+   */
+  private void runOnScheduler(Runnable runnable) {
+    try {
+      scheduler.execute(runnable);
+    } catch (RejectedExecutionException e) {
+      Log.d(TAG, "Module is being destroyed, ignoring recorder callback");
+    }
+  }
+
+  private void stopTimer(RecordingSession session){
+    if (session.progressTask != null) {
+      session.progressTask.cancel(false);
+      session.progressTask = null;
+    }
+  }
+
+  @Override
+  public WritableMap createEventBody(String sessionId) {
+    WritableMap body = Arguments.createMap();
+    body.putString("sessionId", sessionId);
+    return body;
+  }
+
+  @Override
+  public void sendEvent(String eventName, Object params) {
+    // Recorder threads may still report while the bridge is being torn down
+    if (!getReactApplicationContext().hasActiveCatalystInstance()) {
+      return;
+    }
+
+    getReactApplicationContext()
+        .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+        .emit(eventName, params);
+  }
+
+  @Override
+  public void logAndRejectPromise(Promise promise, String errorCode, String errorMessage) {
+    Log.e(TAG, errorMessage);
+    metrics.countError(errorCode);
+    promise.reject(errorCode, errorMessage);
+  }
+
+  static boolean makeDir(@Nullable File dir) {
+    if (dir == null) {
+      return false;
+    }
+
+    try {
+      if (dir.exists()) {
+        return true;
+      }
+
+      return dir.mkdirs();
+    } catch (SecurityException exception) {
+      Log.e(TAG, exception.getLocalizedMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Releases everything a session holds and forgets it. With {@code clean} its files are deleted
+   * too.
+   */
+  private void reset(RecordingSession session, boolean clean) {
+    sessions.remove(session.id, session);
+
+    release(session.recorder);
+
+    if (session.pcmRecorder != null) {
+      session.pcmRecorder.release();
+    }
+
+    // A finished recording lets its streamer drain on its own
+    if (session.streamer != null && clean) {
+      session.streamer.cancel();
+    }
+
+    if (session.journal != null) {
+      if (clean) {
+        session.journal.delete();
+      } else {
+        session.journal.close();
+      }
+    }
+
+    if (clean && session.outputFilePath != null) {
+      deletePath(session.outputFilePath);
+
+      // Also the next MediaRecorder segment, which may already have been created
+      for (int i = 1; i <= session.getSegmentCount(); i++) {
+        deletePath(session.getSegmentFile(i).getPath());
+      }
+    }
+
+    if (session.warmFile != null) {
+      deletePath(session.warmFile.getPath());
+      session.warmFile = null;
+    }
+
+    session.recorder = null;
+    session.pcmRecorder = null;
+    session.levelMeter = null;
+    session.dsp = null;
+    session.streamer = null;
+    session.voiceActivityDetector = null;
+    session.journal = null;
+    session.isRecording = false;
+    session.isPaused = false;
+    stopTimer(session);
+    session.stopWatch.reset();
+    cancelRecovery(session);
+    session.progressSuspendedAt = 0;
+    if (session.handleInterruptions) {
+      updateInterruptionMonitor();
+    }
+    if (session.foregroundServiceTitle != null) {
+      updateForegroundService();
+    }
+  }
+
+  private void reset(RecordingSession session) {
+    reset(session, true);
+  }
 
   private void release(MediaRecorder mediaRecorder) {
     if (mediaRecorder != null) {
@@ -581,14 +2824,15 @@ class AudioRecorderManager extends ReactContextBaseJavaModule implements MediaRe
   private boolean deleteRecursive(File fileOrDirectory) throws SecurityException {
     if (fileOrDirectory.isDirectory()) {
       boolean allFilesDeleted = true;
+      File[] children = fileOrDirectory.listFiles();
 
-      for (File child : fileOrDirectory.listFiles()) {
+      for (File child : children != null ? children : new File[0]) {
         if (!deleteRecursive(child)) {
           allFilesDeleted = false;
         }
       }
 
-      return allFilesDeleted;
+      return allFilesDeleted && fileOrDirectory.delete();
     }
 
     return fileOrDirectory.delete();
@@ -0,0 +1,204 @@
+package com.rnim.rn.audio;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.zip.Checksum;
+
+/**
+ * Encodes a file to Base64 through a fixed-size, reusable buffer.
+ *
+ * The input is consumed in chunks whose length is a multiple of 3 bytes, so every chunk encodes
+ * to a self-contained Base64 run without padding and the concatenation of all chunks equals the
+ * encoding of the whole file. With line wrapping enabled the chunk length is also a multiple of
+ * 57 bytes (one 76 character line), which makes the output identical to
+ * {@code android.util.Base64.DEFAULT}. Peak memory is the two internal buffers, regardless of the
+ * size of the file.
+ */
+class Base64StreamEncoder {
+
+  interface Sink {
+    void write(byte[] encoded, int length) throws IOException;
+  }
+
+  private static final byte[] ALPHABET = {
+      'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M',
+      'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z',
+      'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm',
+      'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z',
+      '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '+', '/'
+  };
+
+  private static final int LINE_INPUT_BYTES = 57;
+  private static final int LINE_OUTPUT_CHARS = 76;
+
+  static final int DEFAULT_CHUNK_SIZE = LINE_INPUT_BYTES * 256;  // ~14KB
+
+  // The largest array most VMs allocate, a StringBuilder can't hold more
+  private static final int MAX_STRING_LENGTH = Integer.MAX_VALUE - 8;
+
+  private final boolean lineWrap;
+  private final byte[] input;
+  private final byte[] output;
+
+  Base64StreamEncoder(int chunkSize, boolean lineWrap) {
+    int alignment = lineWrap ? LINE_INPUT_BYTES : 3;
+    int alignedSize = Math.max(alignment, chunkSize - chunkSize % alignment);
+
+    this.lineWrap = lineWrap;
+    this.input = new byte[alignedSize];
+    this.output = new byte[(int) encodedLength(alignedSize, lineWrap)];
+  }
+
+  /**
+   * Number of input bytes consumed per call to {@link Sink#write}, except for the last chunk.
+   */
+  int getChunkSize() {
+    return input.length;
+  }
+
+  /**
+   * Exact number of Base64 characters produced for {@code inputLength} bytes.
+   */
+  static long encodedLength(long inputLength, boolean lineWrap) {
+    long length = (inputLength + 2) / 3 * 4;
+
+    if (lineWrap && length > 0) {
+      length += (length + LINE_OUTPUT_CHARS - 1) / LINE_OUTPUT_CHARS;
+    }
+
+    return length;
+  }
+
+  /**
+   * Streams the Base64 encoding of {@code file} into {@code sink} and returns the number of
+   * input bytes read. The encoded buffer handed to the sink is reused for the next chunk.
+   */
+  long encode(File file, Sink sink) throws IOException {
+    return encode(file, sink, null);
+  }
+
+  /**
+   * Same as {@link #encode(File, Sink)}, additionally feeding the raw bytes into
+   * {@code checksum} when one is given. Throws {@link InterruptedIOException} between chunks when
+   * the calling thread is interrupted.
+   */
+  long encode(File file, Sink sink, @Nullable Checksum checksum) throws IOException {
+    InputStream inputStream = new FileInputStream(file);
+
+    try {
+      long total = 0;
+      int read;
+
+      while ((read = readChunk(inputStream)) > 0) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new InterruptedIOException("Encoding of " + file.getPath() + " was cancelled");
+        }
+        if (checksum != null) {
+          checksum.update(input, 0, read);
+        }
+        sink.write(output, encodeChunk(read));
+        total += read;
+      }
+
+      return total;
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  /**
+   * Convenience wrapper for callers that need the whole encoding as a single string, pre-sized so
+   * the builder never has to grow.
+   *
+   * @throws IOException when the encoding is longer than a string can be, for files above about
+   * 1.5 GB
+   */
+  String encodeToString(File file) throws IOException {
+    long length = encodedLength(file.length(), lineWrap);
+    if (length > MAX_STRING_LENGTH) {
+      throw new IOException("The Base64 of " + file.getPath() + " would be " + length + " characters, too long for one string");
+    }
+    final StringBuilder builder = new StringBuilder((int) length);
+
+    encode(file, new Sink() {
+      @Override
+      public void write(byte[] encoded, int length) {
+        for (int i = 0; i < length; i++) {
+          builder.append((char) encoded[i]);
+        }
+      }
+    });
+
+    return builder.toString();
+  }
+
+  /**
+   * Fills the input buffer completely unless the end of the stream is reached, so that every
+   * chunk but the last stays aligned.
+   */
+  private int readChunk(InputStream inputStream) throws IOException {
+    int filled = 0;
+
+    while (filled < input.length) {
+      int read = inputStream.read(input, filled, input.length - filled);
+      if (read == -1) {
+        break;
+      }
+      filled += read;
+    }
+
+    return filled;
+  }
+
+  private int encodeChunk(int length) {
+    return encode(input, length, output, lineWrap);
+  }
+
+  /**
+   * Encodes the first {@code length} bytes of {@code source} into {@code target}, which must
+   * hold at least {@link #encodedLength} characters, and returns the number written.
+   */
+  static int encode(byte[] source, int length, byte[] target, boolean lineWrap) {
+    int in = 0;
+    int out = 0;
+    int lineChars = 0;
+
+    while (length - in >= 3) {
+      int bits = (source[in] & 0xff) << 16 | (source[in + 1] & 0xff) << 8 | (source[in + 2] & 0xff);
+      in += 3;
+
+      target[out++] = ALPHABET[(bits >>> 18) & 0x3f];
+      target[out++] = ALPHABET[(bits >>> 12) & 0x3f];
+      target[out++] = ALPHABET[(bits >>> 6) & 0x3f];
+      target[out++] = ALPHABET[bits & 0x3f];
+
+      lineChars += 4;
+      if (lineWrap && lineChars == LINE_OUTPUT_CHARS) {
+        target[out++] = '\n';
+        lineChars = 0;
+      }
+    }
+
+    int remaining = length - in;
+    if (remaining > 0) {
+      int bits = (source[in] & 0xff) << 16 | (remaining == 2 ? (source[in + 1] & 0xff) << 8 : 0);
+
+      target[out++] = ALPHABET[(bits >>> 18) & 0x3f];
+      target[out++] = ALPHABET[(bits >>> 12) & 0x3f];
+      target[out++] = remaining == 2 ? ALPHABET[(bits >>> 6) & 0x3f] : (byte) '=';
+      target[out++] = '=';
+      lineChars += 4;
+    }
+
+    if (lineWrap && lineChars > 0) {
+      target[out++] = '\n';
+    }
+
+    return out;
+  }
+}
@@ -0,0 +1,316 @@
+package com.rnim.rn.audio;
+
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes many files and directory trees on an executor, a few at a time. A directory is split
+ * into one task per child, so that a folder with thousands of segments is deleted in parallel
+ * too, and is deleted itself once its last child is gone. Trees are walked with
+ * {@link Files#walkFileTree} on Android 8.0 and newer and with {@link File#listFiles()} before.
+ * Symbolic links are deleted, never followed.
+ *
+ * With trash, each path is first renamed next to itself to a hidden name by {@link #start()},
+ * which is atomic and quick, so that the caller can move on while the renamed tree is deleted in
+ * the background. The renames don't wait behind the deletes of other batches.
+ * Nothing ever blocks waiting for other tasks: the task that finishes the last piece of a path
+ * or batch reports it.
+ */
+class BatchDelete {
+
+  interface Listener {
+    /**
+     * Called from {@link #start()} once every path has been renamed, or failed to, when deleting
+     * with trash.
+     */
+    void onTrashed(BatchDelete batch);
+
+    /**
+     * Called after each path is done, and at most every {@link #PROGRESS_INTERVAL_MS} while a
+     * big one is being deleted.
+     */
+    void onProgress(BatchDelete batch);
+
+    void onFinished(BatchDelete batch);
+  }
+
+  static class Result {
+    final String path;
+    volatile boolean trashed = false;
+    volatile boolean deleted = false;
+    volatile String error;
+    final AtomicLong files = new AtomicLong();
+
+    Result(String path) {
+      this.path = path;
+    }
+  }
+
+  static final String TRASH_PREFIX = ".rnaudio-trash-";
+
+  private static final long PROGRESS_INTERVAL_MS = 200;
+
+  final String id;
+  private final List<Result> results = new ArrayList<>();
+  private final boolean trash;
+  private final Executor executor;
+  private final Listener listener;
+
+  private final File[] targets;
+  // Children of a directory still being deleted, the directory is deleted when it reaches 0
+  private final AtomicIntegerArray pendingChildren;
+  private final AtomicInteger finishedPaths = new AtomicInteger();
+  private final AtomicLong deletedFiles = new AtomicLong();
+  private final AtomicLong lastProgress = new AtomicLong();
+
+  BatchDelete(String id, List<String> paths, boolean trash, Executor executor, Listener listener) {
+    this.id = id;
+    this.trash = trash;
+    this.executor = executor;
+    this.listener = listener;
+    this.targets = new File[paths.size()];
+    this.pendingChildren = new AtomicIntegerArray(paths.size());
+
+    for (String path : paths) {
+      results.add(new Result(path));
+    }
+  }
+
+  /**
+   * Renames the paths when deleting with trash, then queues the work and returns. An empty batch
+   * is reported finished at once.
+   *
+   * @throws RejectedExecutionException when the executor is shut down before anything was queued,
+   * never with trash as the renamed paths must go either way
+   */
+  void start() {
+    for (int i = 0; i < results.size(); i++) {
+      targets[i] = new File(results.get(i).path);
+      if (trash) {
+        moveToTrash(i);
+      }
+    }
+
+    if (trash) {
+      listener.onTrashed(this);
+    }
+
+    if (results.isEmpty()) {
+      listener.onFinished(this);
+      return;
+    }
+
+    for (int i = 0; i < results.size(); i++) {
+      final int index = i;
+      Runnable task = new Runnable() {
+        @Override
+        public void run() {
+          startPath(index);
+        }
+      };
+      if (i == 0 && !trash) {
+        executor.execute(task);
+      } else {
+        execute(task);
+      }
+    }
+  }
+
+  List<Result> getResults() {
+    return results;
+  }
+
+  int getPathCount() {
+    return results.size();
+  }
+
+  int getFinishedPaths() {
+    return finishedPaths.get();
+  }
+
+  long getDeletedFiles() {
+    return deletedFiles.get();
+  }
+
+  private void moveToTrash(int index) {
+    Result result = results.get(index);
+    File target = targets[index];
+
+    if (target.exists() || isSymlink(target)) {
+      File trashed = new File(target.getAbsoluteFile().getParentFile(), TRASH_PREFIX + System.nanoTime() + "-" + target.getName());
+      if (target.renameTo(trashed)) {
+        targets[index] = trashed;
+        result.trashed = true;
+      }
+    } else {
+      result.trashed = true;
+    }
+  }
+
+  private void startPath(final int index) {
+    File target = targets[index];
+
+    File[] children = target.isDirectory() && !isSymlink(target) ? target.listFiles() : null;
+    if (children == null || children.length == 0) {
+      deleteTree(index, target);
+      finishPath(index);
+      return;
+    }
+
+    pendingChildren.set(index, children.length);
+    for (final File child : children) {
+      execute(new Runnable() {
+        @Override
+        public void run() {
+          deleteTree(index, child);
+          if (pendingChildren.decrementAndGet(index) == 0) {
+            delete(index, targets[index]);
+            finishPath(index);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Runs the task on the executor, or right here once the executor is shut down, so that a batch
+   * that has started always finishes.
+   */
+  private void execute(Runnable task) {
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      task.run();
+    }
+  }
+
+  private void finishPath(int index) {
+    Result result = results.get(index);
+    File target = targets[index];
+    result.deleted = !target.exists() && !isSymlink(target);
+
+    lastProgress.set(System.currentTimeMillis());
+    listener.onProgress(this);
+
+    if (finishedPaths.incrementAndGet() == results.size()) {
+      listener.onFinished(this);
+    }
+  }
+
+  private void deleteTree(int index, File root) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      NioTree.delete(this, index, root);
+    } else {
+      deleteTreeWithFile(index, root);
+    }
+  }
+
+  private void deleteTreeWithFile(int index, File file) {
+    if (file.isDirectory() && !isSymlink(file)) {
+      File[] children = file.listFiles();
+      if (children != null) {
+        for (File child : children) {
+          deleteTreeWithFile(index, child);
+        }
+      }
+    }
+    delete(index, file);
+  }
+
+  private void delete(int index, File file) {
+    if (file.delete()) {
+      counted(index);
+    } else if (file.exists()) {
+      failed(index, "Failed to delete " + file.getPath());
+    }
+  }
+
+  private void counted(int index) {
+    results.get(index).files.incrementAndGet();
+    deletedFiles.incrementAndGet();
+
+    long now = System.currentTimeMillis();
+    long last = lastProgress.get();
+    if (now - last >= PROGRESS_INTERVAL_MS && lastProgress.compareAndSet(last, now)) {
+      listener.onProgress(this);
+    }
+  }
+
+  private void failed(int index, String message) {
+    Result result = results.get(index);
+    // The first failure of a path is the interesting one
+    if (result.error == null) {
+      result.error = message;
+    }
+  }
+
+  /**
+   * Whether the file is a symbolic link, which File can't tell directly before Android 8.0: a
+   * link resolves to somewhere else than where it is.
+   */
+  private static boolean isSymlink(File file) {
+    try {
+      File parent = file.getAbsoluteFile().getParentFile();
+      File inParent = parent == null ? file.getAbsoluteFile() : new File(parent.getCanonicalFile(), file.getName());
+      return !inParent.getCanonicalFile().equals(inParent);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Only loaded on Android 8.0 and newer, where java.nio.file exists.
+   */
+  private static class NioTree {
+    static void delete(final BatchDelete batch, final int index, File root) {
+      try {
+        Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            deletePath(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException e) {
+            // Gone meanwhile, or unreadable, which a delete still may fix
+            deletePath(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path directory, IOException e) {
+            deletePath(directory);
+            return FileVisitResult.CONTINUE;
+          }
+
+          private void deletePath(Path path) {
+            try {
+              if (Files.deleteIfExists(path)) {
+                batch.counted(index);
+              }
+            } catch (IOException e) {
+              batch.failed(index, "Failed to delete " + path + ": " + e.getMessage());
+            }
+          }
+        });
+      } catch (IOException e) {
+        batch.failed(index, "Failed to delete " + root.getPath() + ": " + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,278 @@
+package com.rnim.rn.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sends a file to a URL as a series of requests carrying one chunk each, read straight from the
+ * file into a reused direct buffer. Every request says where its chunk goes with
+ * `Content-Range: bytes <first>-<last>/<total>`, the total being `*` while the file is still
+ * being recorded. A server may answer with a `Range: bytes=0-<last>` header to say how much it
+ * really has, and the next chunk starts from there.
+ *
+ * The offset is saved in an {@link UploadState} after every chunk, so the upload can be resumed
+ * later. Failed requests are retried with backoff, except for client errors, which won't get
+ * better by retrying. Interrupting the thread cancels the upload.
+ */
+class ChunkedUpload {
+
+  /**
+   * What is being uploaded. A file that is complete from the start, or a recording that keeps
+   * growing until it is complete.
+   */
+  interface Source {
+    /**
+     * @throws IOException when the file will never be complete, e.g. because the recording
+     * failed, which fails the upload
+     */
+    boolean isComplete() throws IOException;
+  }
+
+  interface Listener {
+    /**
+     * @param total size of the file, or -1 while it is still growing
+     */
+    void onProgress(long sent, long total);
+  }
+
+  static class Options {
+    String url;
+    String method = "PUT";
+    Map<String, String> headers;
+    int chunkSize = 1024 * 1024;
+    int maxRetries = 3;
+    int pollInterval = 500;  // MilliSeconds, how often a growing file is checked
+    int retryDelay = 1000;  // MilliSeconds before the first retry, doubled for every next one
+    // Bytes at the start of a growing file that are rewritten once it is complete, like a WAV
+    // header, and sent again then
+    int headerSize = 0;
+  }
+
+  static class Result {
+    long size;
+    int status = -1;  // of the last request, -1 when there was nothing left to send
+    String response;
+  }
+
+  /**
+   * A request the server refused for good.
+   */
+  static class RejectedException extends IOException {
+    final int status;
+
+    RejectedException(int status, String message) {
+      super(message);
+      this.status = status;
+    }
+  }
+
+  static final Source COMPLETE = new Source() {
+    @Override
+    public boolean isComplete() {
+      return true;
+    }
+  };
+
+  private static final Pattern RANGE = Pattern.compile("bytes=\\d+-(\\d+)");
+  private static final int CONNECT_TIMEOUT = 15000;
+  private static final int READ_TIMEOUT = 60000;
+  private static final int MAX_RESPONSE_SIZE = 64 * 1024;
+
+  private final File file;
+  private final Source source;
+  private final Options options;
+  private final UploadState state;
+  private final Listener listener;
+
+  private final Result result = new Result();
+
+  ChunkedUpload(File file, Source source, Options options, UploadState state, Listener listener) {
+    this.file = file;
+    this.source = source;
+    this.options = options;
+    this.state = state;
+    this.listener = listener;
+  }
+
+  Result run() throws IOException {
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+
+    try {
+      FileChannel channel = input.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocateDirect(options.chunkSize);
+      boolean headerPending = options.headerSize > 0 && !source.isComplete();
+      long offset = state.offset;
+
+      while (true) {
+        if (Thread.interrupted()) {
+          throw new InterruptedIOException("Upload of " + file.getPath() + " was cancelled");
+        }
+
+        // Checked before the size, so a complete source also means a final size
+        boolean complete = source.isComplete();
+        long available = channel.size();
+
+        // Sent before the rest of the file, so that the last request is still the one that
+        // completes it
+        if (complete && headerPending) {
+          headerPending = false;
+          if (offset > 0 && available >= options.headerSize) {
+            send(channel, buffer, 0, options.headerSize, available);
+          }
+        }
+
+        if (offset >= available && complete) {
+          break;
+        }
+
+        // A growing file is only sent in whole chunks, so the requests don't get tiny
+        if (offset >= available || (!complete && available - offset < options.chunkSize)) {
+          sleep(options.pollInterval);
+          continue;
+        }
+
+        int length = (int) Math.min(options.chunkSize, available - offset);
+        long total = complete ? available : -1;
+        offset = send(channel, buffer, offset, length, total);
+
+        state.offset = offset;
+        state.save();
+        listener.onProgress(offset, total);
+      }
+
+      result.size = channel.size();
+      return result;
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Sends one chunk, retrying when it failed in a way that may pass, and returns the offset the
+   * next chunk starts from.
+   */
+  private long send(FileChannel channel, ByteBuffer buffer, long offset, int length, long total) throws IOException {
+    for (int attempt = 0; ; attempt++) {
+      try {
+        return request(channel, buffer, offset, length, total);
+      } catch (RejectedException e) {
+        throw e;
+      } catch (IOException e) {
+        if (attempt >= options.maxRetries || e instanceof InterruptedIOException) {
+          throw e;
+        }
+        sleep((long) options.retryDelay << attempt);
+      }
+    }
+  }
+
+  private long request(FileChannel channel, ByteBuffer buffer, long offset, int length, long total) throws IOException {
+    buffer.clear();
+    buffer.limit(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new IOException(file.getPath() + " is shorter than expected");
+      }
+    }
+    buffer.flip();
+
+    HttpURLConnection connection = (HttpURLConnection) new URL(options.url).openConnection();
+    try {
+      connection.setRequestMethod(options.method);
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(length);
+      connection.setConnectTimeout(CONNECT_TIMEOUT);
+      connection.setReadTimeout(READ_TIMEOUT);
+      connection.setRequestProperty("Content-Type", "application/octet-stream");
+      if (options.headers != null) {
+        for (Map.Entry<String, String> header : options.headers.entrySet()) {
+          connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+      }
+      connection.setRequestProperty("Content-Range",
+          "bytes " + offset + "-" + (offset + length - 1) + "/" + (total < 0 ? "*" : String.valueOf(total)));
+
+      OutputStream output = connection.getOutputStream();
+      try {
+        WritableByteChannel target = Channels.newChannel(output);
+        while (buffer.hasRemaining()) {
+          target.write(buffer);
+        }
+      } finally {
+        output.close();
+      }
+
+      int status = connection.getResponseCode();
+      // 308 is what resumable upload protocols answer for a chunk that isn't the last one
+      boolean accepted = (status >= 200 && status < 300) || status == 308;
+      String response = readResponse(connection, accepted);
+
+      if (!accepted) {
+        String message = "Upload of " + file.getPath() + " failed with status " + status;
+        if (status >= 400 && status < 500 && status != 408 && status != 429) {
+          throw new RejectedException(status, message);
+        }
+        throw new IOException(message);
+      }
+
+      result.status = status;
+      result.response = response;
+
+      String range = connection.getHeaderField("Range");
+      Matcher matcher = range != null ? RANGE.matcher(range) : null;
+      if (matcher != null && matcher.matches()) {
+        return Long.parseLong(matcher.group(1)) + 1;
+      }
+      return offset + length;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private static String readResponse(HttpURLConnection connection, boolean accepted) {
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+    try {
+      InputStream stream = accepted ? connection.getInputStream() : connection.getErrorStream();
+      if (stream == null) {
+        return "";
+      }
+
+      try {
+        byte[] chunk = new byte[4096];
+        int read;
+        while ((read = stream.read(chunk)) > 0 && response.size() < MAX_RESPONSE_SIZE) {
+          response.write(chunk, 0, read);
+        }
+      } finally {
+        stream.close();
+      }
+    } catch (IOException e) {
+      // The status is what matters, the body is only passed along
+    }
+
+    return response.toString();
+  }
+
+  private static void sleep(long millis) throws InterruptedIOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Upload was cancelled");
+    }
+  }
+}
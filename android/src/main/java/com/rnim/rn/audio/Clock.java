@@ -0,0 +1,10 @@
+package com.rnim.rn.audio;
+
+/**
+ * A source of nanosecond timestamps. The code that measures time takes one instead of calling
+ * Android directly, so that it also runs on a plain JVM; {@link AndroidClocks} has the ones
+ * used on a device.
+ */
+interface Clock {
+  long nanoTime();
+}
@@ -0,0 +1,135 @@
+package com.rnim.rn.audio;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * `deletePaths`: runs {@link BatchDelete}s and reports them as `deleteProgress` events.
+ */
+class DeleteController {
+
+  private static final String TAG = "ReactNativeAudio";
+
+  private static final String EventProgress = "deleteProgress";
+
+  private static final int MaxDeleteThreads = 4;
+
+  private final RecorderModule module;
+  private final RecordingIndexController recordings;
+
+  // Batches run here, a few files at a time since deleting is mostly waiting on the file
+  // system. Its queue is unbounded as a batch queues one task per child of a directory.
+  private final ThreadPoolExecutor executor;
+  private final AtomicInteger nextId = new AtomicInteger();
+
+  DeleteController(RecorderModule module, RecordingIndexController recordings) {
+    this.module = module;
+    this.recordings = recordings;
+
+    executor = new ThreadPoolExecutor(MaxDeleteThreads, MaxDeleteThreads, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), AudioRecorderManager.createBackgroundThreadFactory(TAG + "-delete"));
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  void deletePaths(ReadableArray pathArray, ReadableMap options, final Promise promise) {
+    final boolean trash = options.hasKey("Trash") && options.getBoolean("Trash");
+
+    List<String> paths = new ArrayList<>();
+    for (int i = 0; i < pathArray.size(); i++) {
+      paths.add(pathArray.getString(i));
+    }
+
+    final String id = String.valueOf(nextId.incrementAndGet());
+    BatchDelete batch = new BatchDelete(id, paths, trash, executor, new BatchDelete.Listener() {
+      @Override
+      public void onTrashed(BatchDelete batch) {
+        WritableMap result = Arguments.createMap();
+        result.putString("id", batch.id);
+        result.putArray("results", createResults(batch, true));
+        promise.resolve(result);
+      }
+
+      @Override
+      public void onProgress(BatchDelete batch) {
+        module.sendEvent(EventProgress, createProgressBody(batch));
+      }
+
+      @Override
+      public void onFinished(BatchDelete batch) {
+        for (BatchDelete.Result result : batch.getResults()) {
+          recordings.forget(result.path);
+        }
+
+        WritableMap body = createProgressBody(batch);
+        body.putBoolean("done", true);
+        body.putArray("results", createResults(batch, false));
+        module.sendEvent(EventProgress, body);
+
+        if (!trash) {
+          WritableMap result = Arguments.createMap();
+          result.putString("id", batch.id);
+          result.putArray("results", createResults(batch, false));
+          result.putDouble("deletedFiles", batch.getDeletedFiles());
+          promise.resolve(result);
+        }
+      }
+    });
+
+    // With trash the paths are renamed and the promise resolved right here, before the deletes
+    // queue up behind those of other batches
+    try {
+      batch.start();
+    } catch (RejectedExecutionException e) {
+      module.logAndRejectPromise(promise, AudioRecorderManager.InvalidStateError, "Module is being destroyed");
+    }
+  }
+
+  /**
+   * Takes no new batches. Batches already running still finish, deleting what the executor no
+   * longer takes inline.
+   */
+  void shutdown() {
+    executor.shutdown();
+  }
+
+  private static WritableMap createProgressBody(BatchDelete batch) {
+    WritableMap body = Arguments.createMap();
+    body.putString("id", batch.id);
+    body.putInt("totalPaths", batch.getPathCount());
+    body.putInt("finishedPaths", batch.getFinishedPaths());
+    body.putDouble("deletedFiles", batch.getDeletedFiles());
+    body.putBoolean("done", false);
+    return body;
+  }
+
+  private static WritableArray createResults(BatchDelete batch, boolean trashed) {
+    WritableArray results = Arguments.createArray();
+    for (BatchDelete.Result result : batch.getResults()) {
+      WritableMap item = Arguments.createMap();
+      item.putString("path", result.path);
+      if (trashed) {
+        item.putBoolean("trashed", result.trashed);
+      } else {
+        item.putBoolean("deleted", result.deleted);
+        item.putDouble("files", result.files.get());
+      }
+      if (result.error != null) {
+        item.putString("error", result.error);
+      }
+      results.pushMap(item);
+    }
+    return results;
+  }
+}
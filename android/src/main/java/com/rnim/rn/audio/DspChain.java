@@ -0,0 +1,270 @@
+package com.rnim.rn.audio;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An ordered chain of signal processing stages run on the captured samples before anything else
+ * sees them. Every stage changes the samples in place, keeps its state in a few fields and
+ * doesn't allocate, so the chain adds only arithmetic to the writer thread.
+ *
+ * The time, normally thread CPU time, and the number of buffers of every stage are counted in an
+ * {@link AtomicLongArray}, so that they can be read from another thread while recording.
+ */
+class DspChain implements PcmProcessor {
+
+  static final String Gain = "gain";
+  static final String HighPass = "high_pass";
+  static final String NoiseGate = "noise_gate";
+  static final String Agc = "agc";
+
+  private static final float FULL_SCALE = 32767f;
+
+  abstract static class Stage {
+    final String type;
+
+    Stage(String type) {
+      this.type = type;
+    }
+
+    abstract void process(short[] samples, int length);
+  }
+
+  private final Stage[] stages;
+  private final Clock clock;
+  private final AtomicLongArray cpuTimes;
+  private final AtomicLongArray buffers;
+
+  DspChain(List<Stage> stages, Clock clock) {
+    this.stages = stages.toArray(new Stage[stages.size()]);
+    this.clock = clock;
+    this.cpuTimes = new AtomicLongArray(this.stages.length);
+    this.buffers = new AtomicLongArray(this.stages.length);
+  }
+
+  @Override
+  public void process(short[] samples, int length) {
+    long time = clock.nanoTime();
+
+    for (int i = 0; i < stages.length; i++) {
+      stages[i].process(samples, length);
+
+      long now = clock.nanoTime();
+      cpuTimes.lazySet(i, cpuTimes.get(i) + now - time);
+      buffers.lazySet(i, buffers.get(i) + 1);
+      time = now;
+    }
+  }
+
+  int getStageCount() {
+    return stages.length;
+  }
+
+  String getStageType(int index) {
+    return stages[index].type;
+  }
+
+  /**
+   * Thread CPU time spent in a stage so far, in nanoseconds.
+   */
+  long getCpuTime(int index) {
+    return cpuTimes.get(index);
+  }
+
+  long getBufferCount(int index) {
+    return buffers.get(index);
+  }
+
+  private static float toAmplitude(double db) {
+    return (float) Math.pow(10, db / 20);
+  }
+
+  private static short clip(float sample) {
+    if (sample > FULL_SCALE) {
+      return Short.MAX_VALUE;
+    }
+    if (sample < -FULL_SCALE - 1) {
+      return Short.MIN_VALUE;
+    }
+    return (short) sample;
+  }
+
+  /**
+   * Multiplies by a fixed gain, clipping at full scale.
+   */
+  static class FixedGain extends Stage {
+    private final float gain;
+
+    FixedGain(double gainDb) {
+      super(Gain);
+      this.gain = toAmplitude(gainDb);
+    }
+
+    @Override
+    void process(short[] samples, int length) {
+      for (int i = 0; i < length; i++) {
+        samples[i] = clip(samples[i] * gain);
+      }
+    }
+  }
+
+  /**
+   * One-pole high-pass filter, `y[n] = a * (y[n-1] + x[n] - x[n-1])`, for rumble and DC offset
+   * below the cutoff.
+   */
+  static class HighPassFilter extends Stage {
+    private final int channels;
+    private final float a;
+    private final float[] lastInput;
+    private final float[] lastOutput;
+
+    HighPassFilter(int sampleRate, int channels, double cutoff) {
+      super(HighPass);
+      if (cutoff <= 0 || cutoff >= sampleRate / 2.0) {
+        throw new IllegalArgumentException("High-pass cutoff must be between 0 and " + sampleRate / 2 + " Hz");
+      }
+
+      double rc = 1 / (2 * Math.PI * cutoff);
+      this.channels = channels;
+      this.a = (float) (rc / (rc + 1.0 / sampleRate));
+      this.lastInput = new float[channels];
+      this.lastOutput = new float[channels];
+    }
+
+    @Override
+    void process(short[] samples, int length) {
+      for (int i = 0; i < length; i += channels) {
+        for (int channel = 0; channel < channels; channel++) {
+          float input = samples[i + channel];
+          float output = a * (lastOutput[channel] + input - lastInput[channel]);
+          lastInput[channel] = input;
+          lastOutput[channel] = output;
+          samples[i + channel] = clip(output);
+        }
+      }
+    }
+  }
+
+  /**
+   * Mutes the signal while its peak envelope stays below the threshold. The gate opens at once
+   * when the level rises, stays open for the hold time after it falls and then fades out over the
+   * release time, so that word endings aren't cut and closing doesn't click.
+   */
+  static class Gate extends Stage {
+    private final int channels;
+    private final float threshold;
+    private final int holdFrames;
+    private final float releaseStep;
+    private final float envelopeDecay;
+
+    private float envelope = 0;
+    private float gain = 1;
+    private int framesBelow = 0;
+
+    /**
+     * @param thresholdDb level in dBFS below which the gate closes
+     * @param hold milliseconds the gate stays open after the level fell
+     * @param release milliseconds it takes the gate to close
+     */
+    Gate(int sampleRate, int channels, double thresholdDb, int hold, int release) {
+      super(NoiseGate);
+      this.channels = channels;
+      this.threshold = FULL_SCALE * toAmplitude(thresholdDb);
+      this.holdFrames = Math.max(0, sampleRate * hold / 1000);
+      this.releaseStep = 1f / Math.max(1, sampleRate * release / 1000);
+      // The envelope falls by 60 dB in 10 ms
+      this.envelopeDecay = (float) Math.pow(0.001, 1.0 / Math.max(1, sampleRate / 100));
+    }
+
+    @Override
+    void process(short[] samples, int length) {
+      for (int i = 0; i < length; i += channels) {
+        float peak = 0;
+        for (int channel = 0; channel < channels; channel++) {
+          float magnitude = Math.abs((float) samples[i + channel]);
+          if (magnitude > peak) {
+            peak = magnitude;
+          }
+        }
+        envelope = peak > envelope ? peak : envelope * envelopeDecay;
+
+        if (envelope >= threshold) {
+          framesBelow = 0;
+          gain = 1;
+        } else if (framesBelow < holdFrames) {
+          framesBelow++;
+        } else if (gain > 0) {
+          gain = Math.max(0, gain - releaseStep);
+        }
+
+        if (gain < 1) {
+          for (int channel = 0; channel < channels; channel++) {
+            samples[i + channel] = (short) (samples[i + channel] * gain);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Automatic gain control: measures the RMS level of every buffer and moves the gain towards the
+   * one that brings it to the target, quickly when the signal gets louder and slowly when it gets
+   * quieter, so that loud onsets don't clip and pauses aren't pumped up. Buffers below the noise
+   * floor leave the gain alone.
+   */
+  static class AutomaticGain extends Stage {
+    // Time constants of the gain, in seconds
+    private static final double ATTACK = 0.01;
+    private static final double RELEASE = 0.5;
+    private static final double NOISE_FLOOR_DB = -60;
+
+    private final int channels;
+    private final float target;
+    private final float maxGain;
+    private final float noiseFloor;
+    private final float attack;
+    private final float release;
+
+    private float gain = 1;
+
+    /**
+     * @param targetDb RMS level in dBFS the signal is brought to
+     * @param maxGainDb the most the signal is amplified
+     */
+    AutomaticGain(int sampleRate, int channels, double targetDb, double maxGainDb) {
+      super(Agc);
+      this.channels = channels;
+      this.target = FULL_SCALE * toAmplitude(targetDb);
+      this.maxGain = toAmplitude(maxGainDb);
+      this.noiseFloor = FULL_SCALE * toAmplitude(NOISE_FLOOR_DB);
+      this.attack = (float) (1 - Math.exp(-1 / (ATTACK * sampleRate)));
+      this.release = (float) (1 - Math.exp(-1 / (RELEASE * sampleRate)));
+    }
+
+    @Override
+    void process(short[] samples, int length) {
+      if (length == 0) {
+        return;
+      }
+
+      double sumOfSquares = 0;
+      for (int i = 0; i < length; i++) {
+        sumOfSquares += samples[i] * samples[i];
+      }
+      float rms = (float) Math.sqrt(sumOfSquares / length);
+
+      float desired = gain;
+      if (rms > noiseFloor) {
+        desired = Math.min(maxGain, target / rms);
+      }
+      float coefficient = desired < gain ? attack : release;
+
+      for (int i = 0; i < length; i += channels) {
+        gain += (desired - gain) * coefficient;
+        for (int channel = 0; channel < channels; channel++) {
+          samples[i + channel] = clip(samples[i + channel] * gain);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.rnim.rn.audio;
+
+/**
+ * Peak, RMS and clipping over every sample recorded since the previous {@link #read}.
+ *
+ * {@link #process} runs on the recorder's writer thread and {@link #read} on whichever thread
+ * reports progress; the per-buffer work happens outside the lock, which only guards merging the
+ * totals.
+ */
+class LevelMeter implements PcmProcessor {
+
+  static final double SILENCE_DB = -160;
+
+  private static final double FULL_SCALE = 32767d;
+
+  /**
+   * Levels of one metering window. Reused by the reader so that polling doesn't allocate.
+   */
+  static class Reading {
+    double peakDb = SILENCE_DB;
+    double rmsDb = SILENCE_DB;
+    int clipCount;
+    long sampleCount;
+  }
+
+  private int peak;
+  private long sumOfSquares;
+  private int clipCount;
+  private long sampleCount;
+
+  @Override
+  public void process(short[] samples, int length) {
+    int blockPeak = 0;
+    long blockSum = 0;
+    int blockClips = 0;
+
+    for (int i = 0; i < length; i++) {
+      int sample = samples[i];
+      int magnitude = sample < 0 ? -sample : sample;
+
+      if (magnitude > blockPeak) {
+        blockPeak = magnitude;
+      }
+      if (magnitude >= Short.MAX_VALUE) {
+        blockClips++;
+      }
+      blockSum += sample * sample;
+    }
+
+    synchronized (this) {
+      if (blockPeak > peak) {
+        peak = blockPeak;
+      }
+      sumOfSquares += blockSum;
+      clipCount += blockClips;
+      sampleCount += length;
+    }
+  }
+
+  /**
+   * Fills {@code reading} with the levels of the current window and starts a new one.
+   */
+  void read(Reading reading) {
+    int windowPeak;
+    long windowSum;
+    long windowCount;
+
+    synchronized (this) {
+      windowPeak = peak;
+      windowSum = sumOfSquares;
+      windowCount = sampleCount;
+      reading.clipCount = clipCount;
+
+      peak = 0;
+      sumOfSquares = 0;
+      clipCount = 0;
+      sampleCount = 0;
+    }
+
+    reading.sampleCount = windowCount;
+    reading.peakDb = toDb(Math.min(windowPeak, Short.MAX_VALUE));
+    reading.rmsDb = windowCount > 0 ? toDb(Math.sqrt((double) windowSum / windowCount)) : SILENCE_DB;
+  }
+
+  /**
+   * Converts a linear 16 bit amplitude to dBFS, floored at {@link #SILENCE_DB}.
+   */
+  static double toDb(double amplitude) {
+    if (amplitude <= 0) {
+      return SILENCE_DB;
+    }
+
+    return Math.max(SILENCE_DB, 20 * Math.log10(amplitude / FULL_SCALE));
+  }
+}
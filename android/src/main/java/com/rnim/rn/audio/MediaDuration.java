@@ -0,0 +1,216 @@
+package com.rnim.rn.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the exact duration of a finished recording from its own headers instead of from the
+ * clock: the `mdhd` (or `mvhd`) box of MPEG-4 and 3GPP files, the frame headers of ADTS and AMR
+ * streams, and the sample count of WAV and raw PCM. Only the bytes that are needed are mapped,
+ * which is much cheaper than setting up a MediaMetadataRetriever.
+ */
+class MediaDuration {
+
+  private static final int BOX_MOOV = 0x6D6F6F76;
+  private static final int BOX_TRAK = 0x7472616B;
+  private static final int BOX_MDIA = 0x6D646961;
+  private static final int BOX_MDHD = 0x6D646864;
+  private static final int BOX_MVHD = 0x6D766864;
+  private static final int MAX_MOOV_SIZE = 16 * 1024 * 1024;
+
+  private MediaDuration() {
+  }
+
+  /**
+   * Returns the duration in seconds, or -1 when the format has no cheap way to tell or the file
+   * is not what it should be. {@code sampleRate} and {@code channels} are only used for raw PCM,
+   * which has no header.
+   */
+  static double read(File file, String format, int sampleRate, int channels) {
+    try {
+      RandomAccessFile input = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = input.getChannel();
+        switch (format) {
+          case AudioRecorderManager.Mpeg4AudioOutputFormat:
+          case AudioRecorderManager.ThreeGppAudioOutputFormat:
+            return readIsoMedia(channel);
+          case AudioRecorderManager.AacAdtsAudioOutputFormat:
+            return StreamFrames.scanAdts(channel).duration;
+          case AudioRecorderManager.AmrNbAudioOutputFormat:
+            return StreamFrames.scanAmr(channel, false).duration;
+          case AudioRecorderManager.AmrWbAudioOutputFormat:
+            return StreamFrames.scanAmr(channel, true).duration;
+          case AudioRecorderManager.WavAudioOutputFormat:
+            return readWav(channel);
+          case AudioRecorderManager.RawPcmAudioOutputFormat:
+            long frames = channel.size() / (channels * PcmRecorder.BITS_PER_SAMPLE / 8);
+            return frames / (double) sampleRate;
+          default:
+            return -1;
+        }
+      } finally {
+        input.close();
+      }
+    } catch (IOException | RuntimeException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Walks the top level boxes to `moov`, maps only that box and takes the duration of the first
+   * track's `mdhd`, which is in the track's own time scale (the sample rate for audio), falling
+   * back to the movie's `mvhd`.
+   */
+  private static double readIsoMedia(FileChannel channel) throws IOException {
+    long length = channel.size();
+    long offset = 0;
+
+    while (offset + 8 <= length) {
+      MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(16, length - offset));
+      long size = header.getInt(0) & 0xFFFFFFFFL;
+      int type = header.getInt(4);
+      int headerSize = 8;
+
+      if (size == 1) {
+        if (header.capacity() < 16) {
+          return -1;
+        }
+        size = header.getLong(8);
+        headerSize = 16;
+      } else if (size == 0) {
+        size = length - offset;
+      }
+
+      if (size < headerSize || offset + size > length) {
+        return -1;
+      }
+
+      if (type == BOX_MOOV) {
+        if (size > MAX_MOOV_SIZE) {
+          return -1;
+        }
+        MappedByteBuffer moov = channel.map(FileChannel.MapMode.READ_ONLY, offset + headerSize, size - headerSize);
+        return readMovie(moov);
+      }
+
+      offset += size;
+    }
+
+    return -1;
+  }
+
+  private static double readMovie(MappedByteBuffer moov) {
+    double movieDuration = -1;
+    int offset = 0;
+
+    while (offset + 8 <= moov.capacity()) {
+      int size = moov.getInt(offset);
+      int type = moov.getInt(offset + 4);
+      if (size < 8 || offset + size > moov.capacity()) {
+        break;
+      }
+
+      if (type == BOX_MVHD) {
+        movieDuration = readHeaderDuration(moov, offset + 8);
+      } else if (type == BOX_TRAK) {
+        int mdia = findBox(moov, offset + 8, offset + size, BOX_MDIA);
+        int mdhd = mdia >= 0 ? findBox(moov, mdia + 8, mdia + moov.getInt(mdia), BOX_MDHD) : -1;
+        if (mdhd >= 0) {
+          double trackDuration = readHeaderDuration(moov, mdhd + 8);
+          if (trackDuration >= 0) {
+            return trackDuration;
+          }
+        }
+      }
+
+      offset += size;
+    }
+
+    return movieDuration;
+  }
+
+  /**
+   * Finds a child box between {@code start} and {@code end} and returns its offset, or -1.
+   */
+  private static int findBox(MappedByteBuffer buffer, int start, int end, int type) {
+    int offset = start;
+    while (offset + 8 <= end) {
+      int size = buffer.getInt(offset);
+      if (size < 8 || offset + size > end) {
+        return -1;
+      }
+      if (buffer.getInt(offset + 4) == type) {
+        return offset;
+      }
+      offset += size;
+    }
+    return -1;
+  }
+
+  /**
+   * Reads the time scale and duration of an `mvhd` or `mdhd` box body, both laid out the same
+   * way: a version, then 32 or 64 bit times depending on it.
+   */
+  private static double readHeaderDuration(MappedByteBuffer buffer, int body) {
+    int version = buffer.get(body) & 0xFF;
+    long timeScale;
+    long duration;
+
+    if (version == 1) {
+      timeScale = buffer.getInt(body + 20) & 0xFFFFFFFFL;
+      duration = buffer.getLong(body + 24);
+    } else {
+      timeScale = buffer.getInt(body + 12) & 0xFFFFFFFFL;
+      duration = buffer.getInt(body + 16) & 0xFFFFFFFFL;
+    }
+
+    if (timeScale == 0 || duration < 0 || (version == 0 && duration == 0xFFFFFFFFL)) {
+      return -1;
+    }
+    return duration / (double) timeScale;
+  }
+
+  /**
+   * Takes the format from the `fmt ` chunk and the data size from the file itself when the
+   * `data` chunk size was clamped, as it is for recordings above 4 GB.
+   */
+  private static double readWav(FileChannel channel) throws IOException {
+    long length = channel.size();
+    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, 4096));
+    header.order(ByteOrder.LITTLE_ENDIAN);
+
+    if (header.capacity() < 12 || header.getInt(0) != 0x46464952 || header.getInt(8) != 0x45564157) {  // "RIFF", "WAVE"
+      return -1;
+    }
+
+    int sampleRate = 0;
+    int blockAlign = 0;
+    int offset = 12;
+
+    while (offset + 8 <= header.capacity()) {
+      int type = header.getInt(offset);
+      long size = header.getInt(offset + 4) & 0xFFFFFFFFL;
+
+      if (type == 0x20746D66 && offset + 22 <= header.capacity()) {  // "fmt "
+        sampleRate = header.getInt(offset + 12);
+        blockAlign = header.getShort(offset + 20) & 0xFFFF;
+      } else if (type == 0x61746164) {  // "data"
+        if (sampleRate <= 0 || blockAlign == 0) {
+          return -1;
+        }
+        long available = length - offset - 8;
+        long dataSize = size >= available || size >= 0xFFFFFFFFL - WavHeader.SIZE ? available : size;
+        return dataSize / blockAlign / (double) sampleRate;
+      }
+
+      offset += 8 + size + (size & 1);
+    }
+
+    return -1;
+  }
+}
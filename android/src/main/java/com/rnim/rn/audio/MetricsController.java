@@ -0,0 +1,97 @@
+package com.rnim.rn.audio;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * `getMetrics` and `setMetricsInterval`: turns the {@link RecorderMetrics} into the maps sent to
+ * JS, on request or as `recorderMetrics` events.
+ */
+class MetricsController {
+
+  private static final String TAG = "ReactNativeAudio";
+
+  private static final String EventMetrics = "recorderMetrics";
+
+  private final RecorderModule module;
+  private final RecorderMetrics metrics;
+  private final ScheduledExecutorService scheduler;
+  private ScheduledFuture<?> task;
+
+  MetricsController(RecorderModule module, RecorderMetrics metrics, ScheduledExecutorService scheduler) {
+    this.module = module;
+    this.metrics = metrics;
+    this.scheduler = scheduler;
+  }
+
+  synchronized void setInterval(int interval) {
+    if (task != null) {
+      task.cancel(false);
+      task = null;
+    }
+
+    if (interval <= 0) {
+      return;
+    }
+
+    try {
+      task = scheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          module.sendEvent(EventMetrics, createBody());
+        }
+      }, interval, interval, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      Log.d(TAG, "Module is being destroyed, not sending metrics");
+    }
+  }
+
+  WritableMap createBody() {
+    WritableMap body = Arguments.createMap();
+    body.putDouble("recordings", metrics.recordings.get());
+    body.putDouble("bytesWritten", metrics.bytesWritten.get());
+    body.putDouble("overruns", metrics.overruns.get());
+    body.putDouble("interruptions", metrics.interruptions.get());
+
+    WritableMap errors = Arguments.createMap();
+    for (Map.Entry<String, AtomicLong> error : metrics.getErrors().entrySet()) {
+      errors.putDouble(error.getKey(), error.getValue().get());
+    }
+    body.putMap("errors", errors);
+
+    for (RecorderMetrics.Histogram histogram : metrics.histograms) {
+      WritableArray buckets = Arguments.createArray();
+      WritableArray bounds = Arguments.createArray();
+      for (int i = 0; i < histogram.getBucketCount(); i++) {
+        buckets.pushDouble(histogram.getBucket(i));
+        if (i < histogram.getBucketCount() - 1) {
+          bounds.pushDouble(histogram.getBound(i));
+        }
+      }
+
+      WritableMap values = Arguments.createMap();
+      values.putString("unit", histogram.unit);
+      values.putDouble("count", histogram.getCount());
+      values.putDouble("mean", histogram.getMean());
+      values.putDouble("p50", histogram.getQuantile(0.5));
+      values.putDouble("p90", histogram.getQuantile(0.9));
+      values.putDouble("p99", histogram.getQuantile(0.99));
+      values.putDouble("max", histogram.getMax());
+      values.putArray("buckets", buckets);
+      values.putArray("bounds", bounds);
+      body.putMap(histogram.name, values);
+    }
+
+    return body;
+  }
+}
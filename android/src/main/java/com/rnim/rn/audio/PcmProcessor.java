@@ -0,0 +1,14 @@
+package com.rnim.rn.audio;
+
+/**
+ * Receives every block of samples a {@link PcmRecorder} captures, on its writer thread.
+ * Implementations run once per buffer (every few milliseconds) and must not allocate or block.
+ */
+interface PcmProcessor {
+
+  /**
+   * @param samples interleaved 16 bit samples, only valid for the duration of the call
+   * @param length number of samples (not frames) in {@code samples}
+   */
+  void process(short[] samples, int length);
+}
@@ -0,0 +1,935 @@
+package com.rnim.rn.audio;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.os.Debug;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records 16 bit PCM through {@link AudioRecord}, as an alternative to MediaRecorder when the
+ * samples themselves are needed.
+ *
+ * A capture thread running at audio priority reads into a fixed ring of direct buffers, and a
+ * writer thread drains them to disk through a {@link FileChannel}. Nothing is allocated once
+ * recording has started. If the writer falls behind and the ring runs out of free buffers, the
+ * capture thread keeps draining AudioRecord into a scratch buffer and counts an overrun rather
+ * than blocking. Every buffer is also decoded into a reusable {@code short[]} and handed to the
+ * registered {@link PcmProcessor}s before it is written. A {@link DspChain} runs ahead of them
+ * and its changes are encoded back into the buffer, so they end up in the file.
+ *
+ * With a segment limit the output is split into consecutive files named by
+ * {@link RecordingSegments}. The writer closes one file and opens the next between two buffers
+ * while the capture thread keeps filling the ring, so no audio is lost at the boundary.
+ *
+ * With a sync interval the writer periodically patches the WAV header, forces the data to disk
+ * and then commits the durable position to a {@link RecordingJournal}, so that a recording
+ * survives the process being killed. Syncing happens between buffers on the writer thread and
+ * never holds up capture.
+ *
+ * When AudioRecord stops delivering audio, because another app or a route change took the
+ * microphone, the writer keeps the file open and {@link #restart(boolean)} continues the
+ * recording into it with a new AudioRecord.
+ */
+class PcmRecorder {
+
+  interface Listener {
+    /**
+     * Called from a recording thread when the recording can't go on. The recorder must still be
+     * stopped or released by the owner.
+     */
+    void onError(PcmRecorder recorder, String message);
+
+    /**
+     * Called from the writer thread once `maxDuration` worth of audio has been written. No more
+     * audio is written after this.
+     */
+    void onMaxDurationReached(PcmRecorder recorder);
+
+    /**
+     * Called once a segment file is complete: from the writer thread when the recording
+     * rotates to the next file, and from {@link #stop()} for the last one.
+     */
+    void onSegmentFinished(PcmRecorder recorder, File segment, int index, long frames);
+
+    /**
+     * Called from the capture thread once the first samples of a recording have been read.
+     *
+     * @param latency nanoseconds since {@link #start()} was called
+     */
+    void onCaptureStarted(PcmRecorder recorder, long latency);
+
+    /**
+     * Called from the capture thread when AudioRecord failed to deliver audio, which is what
+     * happens when the microphone is taken away. Everything read so far is still written, and
+     * the recording can go on after {@link #restart(boolean)} or be stopped.
+     */
+    void onCaptureInterrupted(PcmRecorder recorder, String message);
+  }
+
+  /**
+   * Decides, after the processors have seen a buffer, whether it is written to the file.
+   */
+  interface Gate {
+    boolean shouldWrite();
+  }
+
+  static final int BITS_PER_SAMPLE = 16;
+
+  private static final String TAG = "ReactNativeAudio";
+  private static final int BUFFER_DURATION_MS = 20;
+  private static final int RING_SIZE = 16;
+  private static final long WRITER_POLL_MS = 50;
+  private static final int MAX_PRE_ROLL_MS = 60000;
+
+  private final int audioSource;
+  private final int sampleRate;
+  private final int channels;
+  private final boolean wav;
+  private final long maxFrames;
+  private final File file;
+  private final Listener listener;
+
+  private final int bytesPerFrame;
+  private final ArrayBlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(RING_SIZE);
+  private final ArrayBlockingQueue<ByteBuffer> filledBuffers = new ArrayBlockingQueue<>(RING_SIZE);
+  private final Object pauseLock = new Object();
+  private final List<PcmProcessor> processors = new ArrayList<>();
+  private final List<PcmProcessor> outputProcessors = new ArrayList<>();
+
+  private AudioRecord audioRecord;
+  private ByteBuffer scratchBuffer;
+  private short[] samples;
+  private RandomAccessFile output;
+  private FileChannel channel;
+  private WavHeader header;
+  private Thread captureThread;
+  private Thread writerThread;
+  private Gate gate;
+  private DspChain dsp;
+  private long segmentFrames = 0;
+  private int segmentIndex = 0;
+  private long segmentFramesWritten = 0;
+  private boolean rotatePending = false;
+  private RecordingJournal journal;
+  private long syncInterval = 0;  // nanoseconds
+  private long lastSync = 0;
+
+  private long startTime;
+  private boolean captureStarted = false;
+
+  // Pre-roll: while in standby the capture thread keeps the last preRollFrames in a ring that is
+  // allocated once, and the writer flushes it to the file ahead of the live audio.
+  private long preRollFrames = 0;
+  private ByteBuffer preRoll;
+  private ByteBuffer preRollView;
+  private ByteBuffer flushBuffer;
+  private int preRollPosition = 0;
+  private int preRollLength = 0;
+  private final Object preRollLock = new Object();
+  private volatile boolean standby = false;
+  private long standbyStartTime;
+  private long standbyCpuStartTime;
+  private volatile long standbyDuration = 0;  // nanoseconds
+  private volatile long standbyCpuTime = 0;  // nanoseconds
+
+  private volatile boolean running = false;
+  private volatile boolean paused = false;
+  private volatile boolean captureFinished = false;
+  private volatile boolean restarting = false;
+  private volatile long framesWritten = 0;
+  private volatile long framesCaptured = 0;
+  private volatile int overruns = 0;
+
+  /**
+   * @param maxDuration maximum duration in milliseconds, 0 for no limit
+   */
+  PcmRecorder(int audioSource, int sampleRate, int channels, boolean wav, int maxDuration, File file, Listener listener) {
+    this.audioSource = audioSource;
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.wav = wav;
+    this.maxFrames = maxDuration > 0 ? (long) sampleRate * maxDuration / 1000 : 0;
+    this.file = file;
+    this.listener = listener;
+    this.bytesPerFrame = channels * BITS_PER_SAMPLE / 8;
+  }
+
+  /**
+   * Creates an initialized AudioRecord for the given settings, sized for the buffers this
+   * recorder reads.
+   *
+   * @throws IllegalArgumentException for settings AudioRecord doesn't support on this device
+   * @throws IllegalStateException when AudioRecord can't be initialized (missing permission,
+   * microphone in use)
+   */
+  static AudioRecord createAudioRecord(int audioSource, int sampleRate, int channels) {
+    if (channels != 1 && channels != 2) {
+      throw new IllegalArgumentException("Unsupported channel count " + channels);
+    }
+
+    int channelConfig = channels == 1 ? AudioFormat.CHANNEL_IN_MONO : AudioFormat.CHANNEL_IN_STEREO;
+    int minBufferSize = AudioRecord.getMinBufferSize(sampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+    if (minBufferSize <= 0) {
+      throw new IllegalArgumentException("Unsupported sample rate " + sampleRate + " for " + channels + " channel(s)");
+    }
+
+    AudioRecord audioRecord = new AudioRecord(audioSource, sampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT,
+        Math.max(minBufferSize * 2, getBufferBytes(sampleRate, channels) * 4));
+
+    if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+      audioRecord.release();
+      throw new IllegalStateException("AudioRecord could not be initialized");
+    }
+
+    return audioRecord;
+  }
+
+  private static int getBufferBytes(int sampleRate, int channels) {
+    return Math.max(1, sampleRate * BUFFER_DURATION_MS / 1000) * channels * BITS_PER_SAMPLE / 8;
+  }
+
+  void prepare() throws IOException {
+    prepare(null);
+  }
+
+  /**
+   * Allocates the buffer ring and opens the output file, using {@code warmAudioRecord} when it
+   * is given, which must have been made by {@link #createAudioRecord} with the same settings.
+   * Otherwise the AudioRecord is created here, with the exceptions of
+   * {@link #createAudioRecord}.
+   */
+  void prepare(@Nullable AudioRecord warmAudioRecord) throws IOException {
+    int bufferBytes = getBufferBytes(sampleRate, channels);
+
+    audioRecord = warmAudioRecord != null ? warmAudioRecord : createAudioRecord(audioSource, sampleRate, channels);
+
+    freeBuffers.clear();
+    filledBuffers.clear();
+    for (int i = 0; i < RING_SIZE; i++) {
+      freeBuffers.add(ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN));
+    }
+    scratchBuffer = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+    samples = new short[bufferBytes / 2];
+
+    if (preRollFrames > 0) {
+      preRoll = ByteBuffer.allocateDirect((int) (preRollFrames * bytesPerFrame));
+      preRollView = preRoll.duplicate();
+      flushBuffer = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+      preRollPosition = 0;
+      preRollLength = 0;
+    }
+
+    header = new WavHeader();
+    segmentIndex = 0;
+
+    try {
+      openOutput(file);
+    } catch (IOException e) {
+      release();
+      throw e;
+    }
+  }
+
+  /**
+   * Keeps up to {@code duration} milliseconds of audio captured during {@link #startStandby()}
+   * to be written ahead of the recording. Must be called before {@link #prepare()}.
+   */
+  void setPreRoll(int duration) {
+    if (audioRecord != null) {
+      throw new IllegalStateException("Pre-roll can't be configured once prepared");
+    }
+    if (duration > MAX_PRE_ROLL_MS) {
+      throw new IllegalArgumentException("Pre-roll is limited to " + MAX_PRE_ROLL_MS / 1000 + " seconds");
+    }
+    preRollFrames = Math.max(0, (long) sampleRate * duration / 1000);
+  }
+
+  /**
+   * Splits the output into segments of at most {@code duration} milliseconds and/or
+   * {@code size} bytes; 0 means no limit. Must be called before {@link #start()}.
+   */
+  void setSegmentLimit(int duration, long size) {
+    if (running) {
+      throw new IllegalStateException("Segments can't be configured while recording");
+    }
+
+    long frames = duration > 0 ? (long) sampleRate * duration / 1000 : Long.MAX_VALUE;
+    if (size > 0) {
+      frames = Math.min(frames, (size - (wav ? WavHeader.SIZE : 0)) / bytesPerFrame);
+    }
+
+    segmentFrames = frames == Long.MAX_VALUE ? 0 : Math.max(1, frames);
+  }
+
+  /**
+   * Registers a processor for the captured samples. Must be called before {@link #start()}.
+   */
+  void addProcessor(PcmProcessor processor) {
+    if (running) {
+      throw new IllegalStateException("Processors can't be added while recording");
+    }
+    processors.add(processor);
+  }
+
+  /**
+   * Registers a processor that only sees the samples that make it into the file, after the
+   * {@link Gate}. Must be called before {@link #start()}.
+   */
+  void addOutputProcessor(PcmProcessor processor) {
+    if (running) {
+      throw new IllegalStateException("Processors can't be added while recording");
+    }
+    outputProcessors.add(processor);
+  }
+
+  /**
+   * Sets the chain that processes the samples before the processors see them and before they are
+   * written. Must be called before {@link #start()}.
+   */
+  void setDsp(DspChain dsp) {
+    if (running) {
+      throw new IllegalStateException("Processing can't be changed while recording");
+    }
+    this.dsp = dsp;
+  }
+
+  /**
+   * Sets the gate that may drop buffers from the file. Must be called before {@link #start()}.
+   */
+  void setGate(Gate gate) {
+    if (running) {
+      throw new IllegalStateException("A gate can't be set while recording");
+    }
+    this.gate = gate;
+  }
+
+  /**
+   * Forces the written audio to disk every {@code interval} milliseconds and commits it to
+   * {@code journal}. Must be called before {@link #start()}.
+   */
+  void setSync(int interval, RecordingJournal journal) {
+    if (running) {
+      throw new IllegalStateException("Syncing can't be configured while recording");
+    }
+    this.syncInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(0, interval));
+    this.journal = journal;
+  }
+
+  /**
+   * Starts capturing into the pre-roll ring without writing anything, until {@link #start()}.
+   * Only the capture thread runs, copying each buffer into the ring.
+   */
+  void startStandby() {
+    if (audioRecord == null || running || preRoll == null) {
+      throw new IllegalStateException("Recorder is not prepared for pre-roll or already running");
+    }
+
+    startAudioRecord();
+
+    standby = true;
+    standbyStartTime = System.nanoTime();
+    standbyCpuStartTime = -1;
+    startCaptureThread();
+  }
+
+  void start() {
+    if (audioRecord == null || (running && !standby)) {
+      throw new IllegalStateException("Recorder is not prepared or already running");
+    }
+
+    startTime = System.nanoTime();
+
+    if (standby) {
+      // The capture thread keeps running, its next buffer is the first one of the recording
+      synchronized (preRollLock) {
+        standby = false;
+        standbyDuration = startTime - standbyStartTime;
+      }
+      startWriterThread();
+      return;
+    }
+
+    startAudioRecord();
+    startWriterThread();
+    startCaptureThread();
+  }
+
+  private void startAudioRecord() {
+    audioRecord.startRecording();
+    if (audioRecord.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+      throw new IllegalStateException("AudioRecord failed to start, the microphone may be in use");
+    }
+
+    running = true;
+    paused = false;
+    captureFinished = false;
+    captureStarted = false;
+  }
+
+  private void startWriterThread() {
+    writerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        writeLoop();
+      }
+    }, TAG + "-pcm-writer");
+    writerThread.start();
+  }
+
+  private void startCaptureThread() {
+    captureThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        captureLoop();
+      }
+    }, TAG + "-pcm-capture");
+    captureThread.start();
+  }
+
+  void pause() {
+    synchronized (pauseLock) {
+      if (!running || paused) {
+        return;
+      }
+      paused = true;
+      audioRecord.stop();
+    }
+  }
+
+  void resume() {
+    synchronized (pauseLock) {
+      if (!running || !paused) {
+        return;
+      }
+      audioRecord.startRecording();
+      paused = false;
+      pauseLock.notifyAll();
+    }
+  }
+
+  /**
+   * Continues capturing after an interruption, into the same file, and reports the first buffer
+   * to {@link Listener#onCaptureStarted} again with the latency since this call. A paused
+   * recorder is resumed; with {@code rebuild}, or when its AudioRecord doesn't start again, it
+   * gets a new AudioRecord, which also picks up the current input route. The new one is created
+   * before the old one is stopped, so a failure leaves the recorder as it was.
+   *
+   * @throws IllegalStateException when the microphone is still unavailable
+   */
+  void restart(boolean rebuild) {
+    if (!running || standby) {
+      throw new IllegalStateException("Recorder is not running");
+    }
+
+    long restartTime = System.nanoTime();
+
+    if (!rebuild && paused) {
+      synchronized (pauseLock) {
+        startTime = restartTime;
+        captureStarted = false;
+        audioRecord.startRecording();
+        if (audioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+          paused = false;
+          pauseLock.notifyAll();
+          return;
+        }
+      }
+    }
+
+    AudioRecord replacement = createAudioRecord(audioSource, sampleRate, channels);
+
+    // Lets the capture thread run out, the writer keeps draining the ring meanwhile
+    synchronized (pauseLock) {
+      restarting = true;
+      pauseLock.notifyAll();
+      if (audioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+        audioRecord.stop();
+      }
+    }
+    join(captureThread);
+    audioRecord.release();
+
+    audioRecord = replacement;
+    startTime = restartTime;
+    restarting = false;
+
+    // Stays paused without a capture thread on failure, to be restarted again or stopped
+    paused = true;
+    startAudioRecord();
+    startCaptureThread();
+  }
+
+  /**
+   * Stops capturing, flushes everything captured so far, finalizes the file and releases the
+   * recorder. Returns the number of frames written.
+   */
+  long stop() throws IOException {
+    stopThreads();
+
+    try {
+      finalizeOutput();
+    } finally {
+      release();
+    }
+
+    if (segmentFrames > 0) {
+      listener.onSegmentFinished(this, RecordingSegments.file(file, segmentIndex), segmentIndex, segmentFramesWritten);
+    }
+
+    return framesWritten;
+  }
+
+  /**
+   * Number of segment files written so far, including the current one.
+   */
+  int getSegmentCount() {
+    return segmentIndex + 1;
+  }
+
+  /**
+   * Stops and frees everything without finalizing the output file.
+   */
+  void release() {
+    stopThreads();
+
+    if (audioRecord != null) {
+      audioRecord.release();
+      audioRecord = null;
+    }
+
+    closeOutput();
+  }
+
+  long getFramesWritten() {
+    return framesWritten;
+  }
+
+  /**
+   * Frames captured so far, including any the gate kept out of the file.
+   */
+  long getFramesCaptured() {
+    return framesCaptured;
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  int getSampleRate() {
+    return sampleRate;
+  }
+
+  int getOverruns() {
+    return overruns;
+  }
+
+  boolean isPaused() {
+    return paused;
+  }
+
+  boolean isStandby() {
+    return standby;
+  }
+
+  /**
+   * Frames of audio currently kept for the pre-roll, or flushed ahead of the recording once it
+   * started.
+   */
+  long getPreRollFramesBuffered() {
+    synchronized (preRollLock) {
+      return preRollLength / bytesPerFrame;
+    }
+  }
+
+  /**
+   * Time spent in standby so far, or before the recording started, in nanoseconds.
+   */
+  long getStandbyDuration() {
+    return standby ? System.nanoTime() - standbyStartTime : standbyDuration;
+  }
+
+  /**
+   * CPU time the capture thread used while in standby, in nanoseconds.
+   */
+  long getStandbyCpuTime() {
+    return standbyCpuTime;
+  }
+
+  private void stopThreads() {
+    synchronized (pauseLock) {
+      if (!running) {
+        return;
+      }
+      running = false;
+      paused = false;
+      pauseLock.notifyAll();
+
+      if (audioRecord != null && audioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+        audioRecord.stop();
+      }
+    }
+
+    join(captureThread);
+    join(writerThread);
+    captureThread = null;
+    writerThread = null;
+  }
+
+  private void captureLoop() {
+    try {
+      while (running && !restarting) {
+        if (paused) {
+          synchronized (pauseLock) {
+            while (paused && running && !restarting) {
+              pauseLock.wait();
+            }
+          }
+          continue;
+        }
+
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+          // The writer is behind: keep AudioRecord drained but drop this buffer
+          buffer = scratchBuffer;
+          overruns++;
+        }
+
+        buffer.clear();
+        int read = audioRecord.read(buffer, buffer.capacity());
+
+        if (read < 0) {
+          if (buffer != scratchBuffer) {
+            freeBuffers.offer(buffer);
+          }
+          if (!running || paused || restarting) {
+            continue;
+          }
+          listener.onCaptureInterrupted(this, "AudioRecord read failed with error " + read);
+          return;
+        }
+
+        if (buffer == scratchBuffer) {
+          continue;
+        }
+
+        if (read == 0) {
+          freeBuffers.offer(buffer);
+          continue;
+        }
+
+        buffer.limit(read - read % bytesPerFrame);
+
+        if (standby && keepForPreRoll(buffer)) {
+          freeBuffers.offer(buffer);
+          continue;
+        }
+
+        if (!captureStarted) {
+          captureStarted = true;
+          listener.onCaptureStarted(this, System.nanoTime() - startTime);
+        }
+
+        filledBuffers.offer(buffer);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      captureFinished = true;
+    }
+  }
+
+  /**
+   * Copies a captured buffer into the pre-roll ring, overwriting the oldest audio. Returns false,
+   * leaving the buffer alone, when standby ended and it belongs to the recording instead.
+   */
+  private boolean keepForPreRoll(ByteBuffer buffer) {
+    synchronized (preRollLock) {
+      if (!standby) {
+        return false;
+      }
+
+      int capacity = preRoll.capacity();
+      if (buffer.remaining() > capacity) {
+        buffer.position(buffer.limit() - capacity);
+      }
+
+      while (buffer.hasRemaining()) {
+        int chunk = Math.min(buffer.remaining(), capacity - preRollPosition);
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + chunk);
+        preRoll.position(preRollPosition);
+        preRoll.put(buffer);
+        buffer.limit(limit);
+
+        preRollPosition = (preRollPosition + chunk) % capacity;
+        preRollLength = Math.min(capacity, preRollLength + chunk);
+      }
+    }
+
+    long cpuTime = Debug.threadCpuTimeNanos();
+    if (standbyCpuStartTime < 0) {
+      standbyCpuStartTime = cpuTime;
+    }
+    standbyCpuTime = cpuTime - standbyCpuStartTime;
+
+    return true;
+  }
+
+  /**
+   * Writes the pre-roll ring, oldest audio first, through the same path as captured buffers.
+   * Returns true once the maximum duration has been reached.
+   */
+  private boolean flushPreRoll() throws IOException {
+    int capacity = preRoll.capacity();
+    int position = (preRollPosition - preRollLength + capacity) % capacity;
+    int remaining = preRollLength;
+
+    while (remaining > 0) {
+      int chunk = Math.min(Math.min(remaining, flushBuffer.capacity()), capacity - position);
+      preRollView.limit(position + chunk);
+      preRollView.position(position);
+
+      flushBuffer.clear();
+      flushBuffer.put(preRollView);
+      flushBuffer.flip();
+      if (write(flushBuffer)) {
+        return true;
+      }
+
+      position = (position + chunk) % capacity;
+      remaining -= chunk;
+    }
+
+    return false;
+  }
+
+  private void writeLoop() {
+    boolean limitReached = false;
+
+    try {
+      if (preRoll != null && preRollLength > 0) {
+        limitReached = flushPreRoll();
+        if (limitReached) {
+          listener.onMaxDurationReached(this);
+        }
+      }
+
+      while (true) {
+        boolean finished = captureFinished;
+        ByteBuffer buffer = filledBuffers.poll(WRITER_POLL_MS, TimeUnit.MILLISECONDS);
+
+        // The capture thread also finishes when it was interrupted, but then it may be restarted
+        if (buffer == null) {
+          if (finished && !running) {
+            return;
+          }
+          continue;
+        }
+
+        if (!limitReached) {
+          limitReached = write(buffer);
+          if (limitReached) {
+            listener.onMaxDurationReached(this);
+          }
+        }
+
+        freeBuffers.offer(buffer);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to write PCM data to " + file.getPath(), e);
+      listener.onError(this, "Failed to write to " + file.getPath() + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Writes one buffer and returns true once the maximum duration of written audio has been
+   * reached.
+   */
+  private boolean write(ByteBuffer buffer) throws IOException {
+    int frames = buffer.remaining() / bytesPerFrame;
+    if (maxFrames > 0 && framesWritten + frames >= maxFrames) {
+      frames = (int) (maxFrames - framesWritten);
+      buffer.limit(buffer.position() + frames * bytesPerFrame);
+    }
+
+    int length = decode(buffer);
+    if (dsp != null) {
+      dsp.process(samples, length);
+      encode(buffer, length);
+    }
+    runProcessors(processors, length);
+    framesCaptured += frames;
+
+    if (gate != null && !gate.shouldWrite()) {
+      return false;
+    }
+
+    runProcessors(outputProcessors, length);
+
+    while (buffer.hasRemaining()) {
+      if (rotatePending) {
+        rotate();
+      }
+
+      int limit = buffer.limit();
+      if (segmentFrames > 0) {
+        long room = segmentFrames - segmentFramesWritten;
+        if (buffer.remaining() / bytesPerFrame > room) {
+          buffer.limit(buffer.position() + (int) room * bytesPerFrame);
+        }
+      }
+
+      int chunkFrames = buffer.remaining() / bytesPerFrame;
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.limit(limit);
+
+      segmentFramesWritten += chunkFrames;
+      // Rotate lazily, so that a recording ending on a boundary doesn't leave an empty file
+      rotatePending = segmentFrames > 0 && segmentFramesWritten >= segmentFrames;
+    }
+
+    framesWritten += frames;
+
+    if (journal != null && System.nanoTime() - lastSync >= syncInterval) {
+      sync();
+    }
+
+    return maxFrames > 0 && framesWritten >= maxFrames;
+  }
+
+  /**
+   * Makes everything written so far durable and records it in the journal.
+   */
+  private void sync() throws IOException {
+    finalizeOutput();
+    journal.commit(segmentIndex, channel.position(), framesWritten);
+    lastSync = System.nanoTime();
+  }
+
+  private void rotate() throws IOException {
+    finalizeOutput();
+    closeOutput();
+
+    File finished = RecordingSegments.file(file, segmentIndex);
+    long finishedFrames = segmentFramesWritten;
+
+    segmentIndex++;
+    openOutput(RecordingSegments.file(file, segmentIndex));
+    rotatePending = false;
+
+    if (journal != null) {
+      sync();
+    }
+
+    listener.onSegmentFinished(this, finished, segmentIndex - 1, finishedFrames);
+  }
+
+  private void openOutput(File target) throws IOException {
+    output = new RandomAccessFile(target, "rw");
+    output.setLength(0);
+    channel = output.getChannel();
+    segmentFramesWritten = 0;
+
+    if (wav) {
+      header.write(channel, sampleRate, channels, BITS_PER_SAMPLE, 0);
+      channel.position(WavHeader.SIZE);
+    }
+  }
+
+  /**
+   * Decodes the buffer into {@link #samples} when any processor needs them and returns the
+   * number of samples.
+   */
+  private int decode(ByteBuffer buffer) {
+    int length = buffer.remaining() / 2;
+    if (dsp == null && processors.isEmpty() && outputProcessors.isEmpty()) {
+      return length;
+    }
+
+    int position = buffer.position();
+    for (int i = 0; i < length; i++) {
+      samples[i] = buffer.getShort(position + i * 2);
+    }
+
+    return length;
+  }
+
+  /**
+   * Writes {@link #samples} back into the buffer, leaving its position and limit alone.
+   */
+  private void encode(ByteBuffer buffer, int length) {
+    int position = buffer.position();
+    for (int i = 0; i < length; i++) {
+      buffer.putShort(position + i * 2, samples[i]);
+    }
+  }
+
+  private void runProcessors(List<PcmProcessor> list, int length) {
+    for (int i = 0, count = list.size(); i < count; i++) {
+      list.get(i).process(samples, length);
+    }
+  }
+
+  private void finalizeOutput() throws IOException {
+    if (channel == null) {
+      return;
+    }
+
+    if (wav) {
+      header.write(channel, sampleRate, channels, BITS_PER_SAMPLE, segmentFramesWritten * bytesPerFrame);
+    }
+    channel.force(false);
+  }
+
+  private void closeOutput() {
+    try {
+      if (output != null) {
+        output.close();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to close output of " + file.getPath(), e);
+    }
+
+    output = null;
+    channel = null;
+  }
+
+  private static void join(Thread thread) {
+    if (thread == null || thread == Thread.currentThread()) {
+      return;
+    }
+
+    boolean interrupted = false;
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
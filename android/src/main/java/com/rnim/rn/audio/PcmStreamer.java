@@ -0,0 +1,234 @@
+package com.rnim.rn.audio;
+
+import android.util.Log;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups captured PCM into fixed-duration batches and hands them, Base64 encoded, to a
+ * {@link Listener} from its own dispatch thread.
+ *
+ * Batches live in a preallocated pool and wait for dispatch in a bounded queue. When the queue
+ * is full either the oldest queued batch or the newest one is dropped, depending on the policy,
+ * and a drop counter is incremented, so a slow consumer never makes memory grow. When
+ * acknowledgements are required, at most {@link #MAX_UNACKNOWLEDGED} batches are handed out
+ * before the consumer calls {@link #acknowledge()}, which lets a busy JS thread push back all the
+ * way to the queue.
+ */
+class PcmStreamer implements PcmProcessor {
+
+  interface Listener {
+    /**
+     * @param startFrame index of the first frame of the batch since recording started
+     * @param dropped total number of batches dropped so far
+     */
+    void onBatch(int sequence, long startFrame, int frameCount, String data, int dropped);
+  }
+
+  static final String DropOldest = "drop_oldest";
+  static final String DropNewest = "drop_newest";
+
+  static final int MAX_UNACKNOWLEDGED = 2;
+
+  private static final String TAG = "ReactNativeAudio";
+  private static final long DISPATCH_POLL_MS = 50;
+  private static final long FINISH_TIMEOUT_MS = 1000;
+
+  private static class Batch {
+    final byte[] data;
+    long startFrame;
+    int length;
+    int sequence;
+
+    Batch(int capacity) {
+      data = new byte[capacity];
+    }
+  }
+
+  private final int channels;
+  private final boolean dropOldest;
+  private final boolean requireAcknowledge;
+  private final Listener listener;
+
+  private final ArrayBlockingQueue<Batch> pending;
+  private final ArrayBlockingQueue<Batch> pool;
+  private final Semaphore credits = new Semaphore(MAX_UNACKNOWLEDGED);
+  private final byte[] encoded;
+
+  private Batch current;
+  private long framesSeen = 0;
+  private int nextSequence = 0;
+  private Thread dispatcher;
+
+  private volatile int dropped = 0;
+  private volatile boolean finishing = false;
+
+  /**
+   * @param batchDuration duration of a batch in milliseconds
+   * @param queueCapacity number of batches that may wait for dispatch
+   */
+  PcmStreamer(int sampleRate, int channels, int batchDuration, int queueCapacity, String dropPolicy,
+              boolean requireAcknowledge, Listener listener) {
+    int batchFrames = Math.max(1, (int) ((long) sampleRate * batchDuration / 1000));
+    int capacity = Math.max(1, queueCapacity);
+    int batchBytes = batchFrames * channels * 2;
+
+    this.channels = channels;
+    this.dropOldest = !DropNewest.equals(dropPolicy);
+    this.requireAcknowledge = requireAcknowledge;
+    this.listener = listener;
+    this.pending = new ArrayBlockingQueue<>(capacity);
+    // One batch being filled and one being dispatched on top of the queued ones
+    this.pool = new ArrayBlockingQueue<>(capacity + 2);
+    this.encoded = new byte[(int) Base64StreamEncoder.encodedLength(batchBytes, false)];
+
+    for (int i = 0; i < capacity + 2; i++) {
+      pool.add(new Batch(batchBytes));
+    }
+    current = pool.poll();
+  }
+
+  void start() {
+    dispatcher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        dispatchLoop();
+      }
+    }, TAG + "-pcm-stream");
+    dispatcher.start();
+  }
+
+  @Override
+  public void process(short[] samples, int length) {
+    int index = 0;
+
+    while (index < length) {
+      Batch batch = current;
+      if (batch.length == 0) {
+        batch.startFrame = framesSeen + index / channels;
+      }
+
+      int count = Math.min(length - index, (batch.data.length - batch.length) / 2);
+      byte[] data = batch.data;
+      int offset = batch.length;
+
+      for (int i = 0; i < count; i++) {
+        short sample = samples[index + i];
+        data[offset++] = (byte) sample;
+        data[offset++] = (byte) (sample >> 8);
+      }
+
+      batch.length = offset;
+      index += count;
+
+      if (batch.length == data.length) {
+        enqueue(batch);
+      }
+    }
+
+    framesSeen += length / channels;
+  }
+
+  /**
+   * Queues the partially filled batch and waits (briefly) for the dispatcher to drain the queue
+   * without waiting for acknowledgements. Call once the recorder has stopped delivering samples,
+   * so that every batch is delivered before the recording is reported as finished.
+   */
+  void finish() {
+    if (current.length > 0) {
+      enqueue(current);
+    }
+    finishing = true;
+
+    if (dispatcher != null) {
+      try {
+        dispatcher.join(FINISH_TIMEOUT_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Stops dispatching right away, dropping queued batches.
+   */
+  void cancel() {
+    finishing = true;
+    pending.clear();
+
+    if (dispatcher != null) {
+      dispatcher.interrupt();
+    }
+  }
+
+  void acknowledge() {
+    if (requireAcknowledge && credits.availablePermits() < MAX_UNACKNOWLEDGED) {
+      credits.release();
+    }
+  }
+
+  private void enqueue(Batch batch) {
+    batch.sequence = nextSequence++;
+
+    if (!pending.offer(batch)) {
+      Batch victim = batch;
+
+      if (dropOldest) {
+        victim = pending.poll();
+        if (victim == null || !pending.offer(batch)) {
+          victim = batch;
+        }
+      }
+
+      dropped++;
+      recycle(victim);
+    }
+
+    // The pool holds one batch more than can be queued or dispatched, so it never runs dry here
+    current = pool.poll();
+    current.length = 0;
+  }
+
+  private void recycle(Batch batch) {
+    batch.length = 0;
+    pool.offer(batch);
+  }
+
+  private void dispatchLoop() {
+    try {
+      while (true) {
+        boolean done = finishing;
+
+        if (requireAcknowledge && !done) {
+          if (!credits.tryAcquire(DISPATCH_POLL_MS, TimeUnit.MILLISECONDS)) {
+            continue;
+          }
+        }
+
+        Batch batch = pending.poll(DISPATCH_POLL_MS, TimeUnit.MILLISECONDS);
+        if (batch == null) {
+          if (requireAcknowledge && !done) {
+            credits.release();
+          }
+          if (done) {
+            return;
+          }
+          continue;
+        }
+
+        int length = Base64StreamEncoder.encode(batch.data, batch.length, encoded, false);
+        int frames = batch.length / (channels * 2);
+        listener.onBatch(batch.sequence, batch.startFrame, frames, new String(encoded, 0, length, "US-ASCII"), dropped);
+
+        recycle(batch);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (UnsupportedEncodingException e) {
+      Log.e(TAG, "US-ASCII is not supported", e);
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package com.rnim.rn.audio;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Files that finishing, transcoding or uploading is still reading or writing, with how many
+ * tasks use each, which eviction must not delete. Paths are kept as the index stores them.
+ */
+class PinnedPaths {
+
+  private final Map<String, Integer> counts = new HashMap<>();
+
+  synchronized void pin(String... paths) {
+    for (String path : paths) {
+      String key = new File(path).getPath();
+      Integer count = counts.get(key);
+      counts.put(key, count == null ? 1 : count + 1);
+    }
+  }
+
+  synchronized void unpin(String... paths) {
+    for (String path : paths) {
+      String key = new File(path).getPath();
+      Integer count = counts.get(key);
+      if (count == null || count <= 1) {
+        counts.remove(key);
+      } else {
+        counts.put(key, count - 1);
+      }
+    }
+  }
+
+  synchronized void addTo(Collection<String> paths) {
+    paths.addAll(counts.keySet());
+  }
+}
@@ -0,0 +1,171 @@
+package com.rnim.rn.audio;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Health numbers of the recorder, shared by all sessions of a module: counters and histograms
+ * with fixed buckets that are updated with atomic operations only, so that recording them
+ * neither locks nor allocates. Readers get a consistent enough picture without stopping the
+ * writers; a histogram read while it is being updated may be off by the one value in flight.
+ */
+class RecorderMetrics {
+
+  // Bucket upper bounds, the last bucket takes everything above
+  private static final long[] LATENCY_BOUNDS = {
+      100000L, 250000L, 500000L, 1000000L, 2500000L, 5000000L, 10000000L, 25000000L, 50000000L,
+      100000000L, 250000000L, 500000000L, 1000000000L, 2500000000L, 5000000000L, 10000000000L
+  };  // Nanoseconds, 0.1 ms to 10 s
+  private static final long[] THROUGHPUT_BOUNDS = {
+      1024L, 4096L, 8192L, 16384L, 32768L, 65536L, 131072L, 262144L, 524288L, 1048576L, 4194304L
+  };  // Bytes per second, 1 KB/s to 4 MB/s
+
+  /**
+   * Counts values into fixed buckets and keeps their count, sum and maximum.
+   */
+  static class Histogram {
+    final String name;
+    final String unit;
+    private final long[] bounds;
+    private final double scale;  // Divides a value into the reported unit
+    private final AtomicLongArray buckets;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram(String name, String unit, long[] bounds, double scale) {
+      this.name = name;
+      this.unit = unit;
+      this.bounds = bounds;
+      this.scale = scale;
+      this.buckets = new AtomicLongArray(bounds.length + 1);
+    }
+
+    void record(long value) {
+      if (value < 0) {
+        value = 0;
+      }
+
+      int bucket = 0;
+      while (bucket < bounds.length && value > bounds[bucket]) {
+        bucket++;
+      }
+
+      buckets.incrementAndGet(bucket);
+      count.incrementAndGet();
+      sum.addAndGet(value);
+
+      long current = max.get();
+      while (value > current && !max.compareAndSet(current, value)) {
+        current = max.get();
+      }
+    }
+
+    long getCount() {
+      return count.get();
+    }
+
+    double getMean() {
+      long n = count.get();
+      return n > 0 ? sum.get() / scale / n : 0;
+    }
+
+    double getMax() {
+      return max.get() / scale;
+    }
+
+    /**
+     * The upper bound of the bucket the quantile falls in, or the maximum for the last bucket.
+     */
+    double getQuantile(double quantile) {
+      long n = count.get();
+      if (n == 0) {
+        return 0;
+      }
+
+      long rank = (long) Math.ceil(quantile * n);
+      long seen = 0;
+      for (int i = 0; i < bounds.length; i++) {
+        seen += buckets.get(i);
+        if (seen >= rank) {
+          return Math.min(bounds[i], max.get()) / scale;
+        }
+      }
+      return getMax();
+    }
+
+    int getBucketCount() {
+      return bounds.length + 1;
+    }
+
+    long getBucket(int index) {
+      return buckets.get(index);
+    }
+
+    /**
+     * Upper bound of a bucket in the reported unit. There is one bound less than there are
+     * buckets, the last bucket has none.
+     */
+    double getBound(int index) {
+      return bounds[index] / scale;
+    }
+
+    void reset() {
+      for (int i = 0; i < buckets.length(); i++) {
+        buckets.set(i, 0);
+      }
+      count.set(0);
+      sum.set(0);
+      max.set(0);
+    }
+  }
+
+  final Histogram prepareLatency = new Histogram("prepareLatency", "ms", LATENCY_BOUNDS, 1e6);
+  final Histogram startLatency = new Histogram("startLatency", "ms", LATENCY_BOUNDS, 1e6);
+  final Histogram stopLatency = new Histogram("stopLatency", "ms", LATENCY_BOUNDS, 1e6);
+  final Histogram finishTime = new Histogram("finishTime", "ms", LATENCY_BOUNDS, 1e6);
+  final Histogram progressJitter = new Histogram("progressJitter", "ms", LATENCY_BOUNDS, 1e6);
+  final Histogram writeThroughput = new Histogram("writeThroughput", "B/s", THROUGHPUT_BOUNDS, 1);
+  final Histogram restartLatency = new Histogram("restartLatency", "ms", LATENCY_BOUNDS, 1e6);
+
+  final Histogram[] histograms = {
+      prepareLatency, startLatency, stopLatency, finishTime, progressJitter, writeThroughput, restartLatency
+  };
+
+  final AtomicLong recordings = new AtomicLong();
+  final AtomicLong bytesWritten = new AtomicLong();
+  final AtomicLong overruns = new AtomicLong();
+  final AtomicLong interruptions = new AtomicLong();
+
+  // Error codes are a small fixed set, so the map stops growing after the first of each
+  private final ConcurrentHashMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+  void countError(String code) {
+    AtomicLong counter = errors.get(code);
+    if (counter == null) {
+      AtomicLong created = new AtomicLong();
+      counter = errors.putIfAbsent(code, created);
+      if (counter == null) {
+        counter = created;
+      }
+    }
+    counter.incrementAndGet();
+  }
+
+  Map<String, AtomicLong> getErrors() {
+    return errors;
+  }
+
+  void reset() {
+    for (Histogram histogram : histograms) {
+      histogram.reset();
+    }
+    recordings.set(0);
+    bytesWritten.set(0);
+    overruns.set(0);
+    interruptions.set(0);
+    errors.clear();
+  }
+}
@@ -0,0 +1,38 @@
+package com.rnim.rn.audio;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.Set;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import androidx.annotation.Nullable;
+
+/**
+ * What the controllers need from {@link AudioRecorderManager}. Each controller keeps the state
+ * and the React-facing code of one subsystem, uploads, the recordings index, batch deletes,
+ * transcoding or metrics, and the manager's React methods delegate to it.
+ */
+interface RecorderModule {
+  @Nullable
+  RecordingSession getSession(String sessionId);
+
+  /**
+   * The files sessions may be writing and background work is still reading or writing, which
+   * must not be deleted.
+   */
+  Set<String> getPathsInUse();
+
+  WritableMap createEventBody(String sessionId);
+
+  void sendEvent(String eventName, Object params);
+
+  void logAndRejectPromise(Promise promise, String errorCode, String errorMessage);
+
+  /**
+   * Runs post-recording work of a session on {@code executor}, so that it is cancelled with the
+   * session, and keeps eviction away from {@code paths} until it is done. Returns false when the
+   * work could not be queued.
+   */
+  boolean runInBackground(String sessionId, ThreadPoolExecutor executor, String[] paths, Runnable runnable);
+}
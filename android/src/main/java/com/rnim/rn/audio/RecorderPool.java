@@ -0,0 +1,209 @@
+package com.rnim.rn.audio;
+
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recorders set up by `warmUp` ahead of `prepareRecordingAtPath`, so that the slow part of
+ * getting a recorder ready is already done when the recording is requested.
+ *
+ * For the PCM engine an entry is an initialized AudioRecord. MediaRecorder can only be prepared
+ * once its output file is set, so a warm one records into a temporary file that is moved to the
+ * requested path when the recording stops. Entries are matched by a key made of the settings
+ * they were set up with, and released when they stay unused for their idle timeout or when the
+ * pool is over capacity, oldest first.
+ */
+class RecorderPool {
+
+  private static final String TAG = "RecorderPool";
+
+  static class Entry {
+    final String key;
+    @Nullable final MediaRecorder recorder;
+    @Nullable final File file;
+    @Nullable final AudioRecord audioRecord;
+
+    ScheduledFuture<?> eviction;
+
+    Entry(String key, MediaRecorder recorder, File file) {
+      this.key = key;
+      this.recorder = recorder;
+      this.file = file;
+      this.audioRecord = null;
+    }
+
+    Entry(String key, AudioRecord audioRecord) {
+      this.key = key;
+      this.recorder = null;
+      this.file = null;
+      this.audioRecord = audioRecord;
+    }
+
+    void release() {
+      if (recorder != null) {
+        recorder.reset();
+        recorder.release();
+      }
+
+      if (file != null && file.exists() && !file.delete()) {
+        Log.w(TAG, "Failed to delete " + file.getPath());
+      }
+
+      if (audioRecord != null) {
+        audioRecord.release();
+      }
+    }
+  }
+
+  private final int capacity;
+  private final ScheduledExecutorService scheduler;
+  private final LinkedList<Entry> entries = new LinkedList<>();
+
+  RecorderPool(int capacity, ScheduledExecutorService scheduler) {
+    this.capacity = capacity;
+    this.scheduler = scheduler;
+  }
+
+  int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Adds a warm recorder, releasing the oldest one when the pool is full.
+   */
+  synchronized void add(Entry entry, long idleTimeout) {
+    while (entries.size() >= capacity) {
+      remove(entries.getFirst()).release();
+    }
+
+    entries.add(entry);
+    scheduleEviction(entry, idleTimeout);
+  }
+
+  synchronized int count(String key) {
+    int count = 0;
+    for (Entry entry : entries) {
+      if (entry.key.equals(key)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Restarts the idle timeout of the recorders warmed up for {@code key}.
+   */
+  synchronized void keepWarm(String key, long idleTimeout) {
+    for (Entry entry : entries) {
+      if (entry.key.equals(key)) {
+        cancelEviction(entry);
+        scheduleEviction(entry, idleTimeout);
+      }
+    }
+  }
+
+  /**
+   * Hands out a warm recorder for {@code key}, which the caller then owns, or null if there is
+   * none.
+   */
+  @Nullable
+  synchronized Entry take(String key) {
+    for (Entry entry : entries) {
+      if (entry.key.equals(key)) {
+        return remove(entry);
+      }
+    }
+    return null;
+  }
+
+  synchronized void clear() {
+    Iterator<Entry> iterator = entries.iterator();
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next();
+      iterator.remove();
+      cancelEviction(entry);
+      entry.release();
+    }
+  }
+
+  private Entry remove(Entry entry) {
+    entries.remove(entry);
+    cancelEviction(entry);
+    return entry;
+  }
+
+  private synchronized void evict(Entry entry) {
+    if (entries.remove(entry)) {
+      Log.d(TAG, "Releasing idle recorder " + entry.key);
+      entry.release();
+    }
+  }
+
+  private void scheduleEviction(final Entry entry, long idleTimeout) {
+    try {
+      entry.eviction = scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          evict(entry);
+        }
+      }, idleTimeout, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // Shutting down, the pool is about to be cleared
+      entry.eviction = null;
+    }
+  }
+
+  private void cancelEviction(Entry entry) {
+    if (entry.eviction != null) {
+      entry.eviction.cancel(false);
+      entry.eviction = null;
+    }
+  }
+
+  /**
+   * Moves a recording, copying it when it can't be renamed, e.g. because the temporary file of a
+   * warm recorder is on another volume than the requested path.
+   */
+  static void move(File from, File to) throws IOException {
+    if (from.renameTo(to)) {
+      return;
+    }
+
+    FileInputStream in = new FileInputStream(from);
+    try {
+      FileOutputStream out = new FileOutputStream(to);
+      try {
+        FileChannel source = in.getChannel();
+        FileChannel target = out.getChannel();
+        long size = source.size();
+        long position = 0;
+        while (position < size) {
+          position += source.transferTo(position, size - position, target);
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+
+    if (!from.delete()) {
+      Log.w(TAG, "Failed to delete " + from.getPath());
+    }
+  }
+}
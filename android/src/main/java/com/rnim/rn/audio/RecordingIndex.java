@@ -0,0 +1,275 @@
+package com.rnim.rn.audio;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A SQLite table of finished recordings with what is known about them, so that listing them
+ * needs neither a stat call nor reading the files. Rows are added when a recording finishes and
+ * removed when the module deletes the file; files deleted by others stay listed until they are
+ * evicted.
+ *
+ * Every recording also has the time it was last used, which `touch` moves forward, for evicting
+ * the least recently used ones first when a {@link Quota} is exceeded. All methods block on
+ * disk, so they are called from a background thread.
+ */
+class RecordingIndex extends SQLiteOpenHelper {
+
+  private static final String DATABASE_NAME = "RNAudioRecordings.db";
+  private static final int DATABASE_VERSION = 1;
+  private static final String TABLE = "recordings";
+
+  // Sort orders a query may ask for, mapped to their columns so that nothing from JS ends up
+  // in the SQL
+  static final String SortCreated = "created";
+  static final String SortLastUsed = "lastUsed";
+  static final String SortSize = "size";
+  static final String SortDuration = "duration";
+  static final String SortPath = "path";
+
+  private static final String COLUMNS = "path, duration, size, format, sample_rate, channels, created, last_used, waveform_path";
+
+  static class Entry {
+    String path;
+    double duration;  // Seconds, -1 when unknown
+    long size;
+    String format;
+    int sampleRate;
+    int channels;
+    long created;  // MilliSeconds since the epoch
+    long lastUsed;  // MilliSeconds since the epoch
+    String waveformPath;
+  }
+
+  static class Query {
+    String directory;  // Only recordings under it
+    String format;
+    String sortBy = SortCreated;
+    boolean descending = true;
+    int offset = 0;
+    int limit = 50;
+  }
+
+  static class Page {
+    final List<Entry> entries = new ArrayList<>();
+    int total;
+  }
+
+  /**
+   * Limits on the indexed recordings, 0 for none of a kind.
+   */
+  static class Quota {
+    long maxSize;  // Bytes
+    int maxCount;
+    long maxAge;  // MilliSeconds since last use
+
+    boolean isEmpty() {
+      return maxSize <= 0 && maxCount <= 0 && maxAge <= 0;
+    }
+  }
+
+  RecordingIndex(Context context) {
+    super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    // Listing reads while a finished recording is being added
+    setWriteAheadLoggingEnabled(true);
+  }
+
+  @Override
+  public void onCreate(SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE " + TABLE + " ("
+        + "path TEXT PRIMARY KEY NOT NULL, "
+        + "duration REAL NOT NULL, "
+        + "size INTEGER NOT NULL, "
+        + "format TEXT, "
+        + "sample_rate INTEGER NOT NULL, "
+        + "channels INTEGER NOT NULL, "
+        + "created INTEGER NOT NULL, "
+        + "last_used INTEGER NOT NULL, "
+        + "waveform_path TEXT)");
+    db.execSQL("CREATE INDEX " + TABLE + "_created ON " + TABLE + " (created)");
+    db.execSQL("CREATE INDEX " + TABLE + "_last_used ON " + TABLE + " (last_used)");
+  }
+
+  @Override
+  public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    // Only one version so far
+  }
+
+  void put(Entry entry) {
+    ContentValues values = new ContentValues();
+    values.put("path", entry.path);
+    values.put("duration", entry.duration);
+    values.put("size", entry.size);
+    values.put("format", entry.format);
+    values.put("sample_rate", entry.sampleRate);
+    values.put("channels", entry.channels);
+    values.put("created", entry.created);
+    values.put("last_used", entry.lastUsed);
+    values.put("waveform_path", entry.waveformPath);
+    getWritableDatabase().insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+  }
+
+  /**
+   * Marks a recording as used now. Returns false when it isn't indexed.
+   */
+  boolean touch(String path, long now) {
+    ContentValues values = new ContentValues();
+    values.put("last_used", now);
+    return getWritableDatabase().update(TABLE, values, "path = ?", new String[]{path}) > 0;
+  }
+
+  /**
+   * Forgets a recording, or every recording under it when it is a directory.
+   */
+  int remove(String path) {
+    String directory = path.endsWith(File.separator) ? path : path + File.separator;
+    return getWritableDatabase().delete(TABLE, "path = ? OR substr(path, 1, ?) = ?",
+        new String[]{path, String.valueOf(directory.length()), directory});
+  }
+
+  Page query(Query query) {
+    StringBuilder where = new StringBuilder(" WHERE 1");
+    List<String> args = new ArrayList<>();
+
+    if (query.directory != null) {
+      String directory = query.directory.endsWith(File.separator) ? query.directory : query.directory + File.separator;
+      where.append(" AND substr(path, 1, ?) = ?");
+      args.add(String.valueOf(directory.length()));
+      args.add(directory);
+    }
+    if (query.format != null) {
+      where.append(" AND format = ?");
+      args.add(query.format);
+    }
+
+    String[] selection = args.toArray(new String[args.size()]);
+    SQLiteDatabase db = getReadableDatabase();
+    Page page = new Page();
+
+    Cursor count = db.rawQuery("SELECT COUNT(*) FROM " + TABLE + where, selection);
+    try {
+      page.total = count.moveToFirst() ? count.getInt(0) : 0;
+    } finally {
+      count.close();
+    }
+
+    // The path makes the order total, so that pages don't overlap
+    String order = getSortColumn(query.sortBy) + (query.descending ? " DESC" : " ASC") + ", path";
+    Cursor cursor = db.rawQuery("SELECT " + COLUMNS + " FROM " + TABLE + where
+        + " ORDER BY " + order + " LIMIT " + Math.max(0, query.limit) + " OFFSET " + Math.max(0, query.offset), selection);
+    try {
+      while (cursor.moveToNext()) {
+        page.entries.add(read(cursor));
+      }
+    } finally {
+      cursor.close();
+    }
+
+    return page;
+  }
+
+  /**
+   * Deletes recordings, least recently used first, until the indexed ones are within the quota,
+   * and returns them. The most recently used recording is always kept, and so is every path in
+   * {@code inUse}, whose files still count against the quota.
+   */
+  List<Entry> evict(Quota quota, long now, Set<String> inUse) {
+    List<Entry> evicted = new ArrayList<>();
+    if (quota.isEmpty()) {
+      return evicted;
+    }
+
+    SQLiteDatabase db = getWritableDatabase();
+    long totalSize = 0;
+    int totalCount = 0;
+
+    Cursor totals = db.rawQuery("SELECT COALESCE(SUM(size), 0), COUNT(*) FROM " + TABLE, null);
+    try {
+      if (totals.moveToFirst()) {
+        totalSize = totals.getLong(0);
+        totalCount = totals.getInt(1);
+      }
+    } finally {
+      totals.close();
+    }
+
+    List<Entry> candidates = new ArrayList<>();
+    int maxCandidates = totalCount - 1;
+    Cursor cursor = db.rawQuery("SELECT " + COLUMNS + " FROM " + TABLE + " ORDER BY last_used ASC, path", null);
+    try {
+      while (cursor.moveToNext() && candidates.size() < maxCandidates) {
+        Entry entry = read(cursor);
+        if (inUse.contains(entry.path)) {
+          continue;
+        }
+
+        boolean overSize = quota.maxSize > 0 && totalSize > quota.maxSize;
+        boolean overCount = quota.maxCount > 0 && totalCount > quota.maxCount;
+        boolean tooOld = quota.maxAge > 0 && now - entry.lastUsed > quota.maxAge;
+        if (!overSize && !overCount && !tooOld) {
+          break;
+        }
+
+        candidates.add(entry);
+        totalSize -= entry.size;
+        totalCount--;
+      }
+    } finally {
+      cursor.close();
+    }
+
+    for (Entry entry : candidates) {
+      File file = new File(entry.path);
+      if (file.exists() && !file.delete()) {
+        continue;
+      }
+      if (entry.waveformPath != null) {
+        new File(entry.waveformPath).delete();
+      }
+      db.delete(TABLE, "path = ?", new String[]{entry.path});
+      evicted.add(entry);
+    }
+
+    return evicted;
+  }
+
+  private static String getSortColumn(@Nullable String sortBy) {
+    if (SortLastUsed.equals(sortBy)) {
+      return "last_used";
+    }
+    if (SortSize.equals(sortBy)) {
+      return "size";
+    }
+    if (SortDuration.equals(sortBy)) {
+      return "duration";
+    }
+    if (SortPath.equals(sortBy)) {
+      return "path";
+    }
+    return "created";
+  }
+
+  private static Entry read(Cursor cursor) {
+    Entry entry = new Entry();
+    entry.path = cursor.getString(0);
+    entry.duration = cursor.getDouble(1);
+    entry.size = cursor.getLong(2);
+    entry.format = cursor.isNull(3) ? null : cursor.getString(3);
+    entry.sampleRate = cursor.getInt(4);
+    entry.channels = cursor.getInt(5);
+    entry.created = cursor.getLong(6);
+    entry.lastUsed = cursor.getLong(7);
+    entry.waveformPath = cursor.isNull(8) ? null : cursor.getString(8);
+    return entry;
+  }
+}
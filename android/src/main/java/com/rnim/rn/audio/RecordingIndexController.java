@@ -0,0 +1,278 @@
+package com.rnim.rn.audio;
+
+import android.content.Context;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.Nullable;
+
+import android.util.Log;
+
+/**
+ * `listRecordings`, `touchRecording` and `setStorageQuota`: keeps every finished recording in
+ * the {@link RecordingIndex} and evicts the least recently used ones beyond the quota. Its
+ * single thread keeps the database work in order.
+ */
+class RecordingIndexController {
+
+  private static final String TAG = "ReactNativeAudio";
+
+  private static final String EventEvicted = "recordingsEvicted";
+
+  private static final int MaxListLimit = 500;
+
+  private final RecorderModule module;
+  private final RecordingIndex index;
+  private final ThreadPoolExecutor executor;
+  private volatile RecordingIndex.Quota quota = new RecordingIndex.Quota();
+
+  RecordingIndexController(RecorderModule module, Context context) {
+    this.module = module;
+
+    index = new RecordingIndex(context);
+    executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), AudioRecorderManager.createBackgroundThreadFactory(TAG + "-index"));
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Adds the files of a finished recording to the index and then evicts what went over the
+   * quota, on the index thread.
+   */
+  void indexRecording(final AudioRecorderManager.FinishedRecording recording, @Nullable final String waveformPath) {
+    runOnIndexThread(new Runnable() {
+      @Override
+      public void run() {
+        long now = System.currentTimeMillis();
+
+        try {
+          for (File file : recording.files) {
+            RecordingIndex.Entry entry = new RecordingIndex.Entry();
+            entry.path = file.getPath();
+            entry.size = file.length();
+            entry.format = recording.format;
+            entry.sampleRate = recording.sampleRate;
+            entry.channels = recording.channels;
+            entry.created = now;
+            entry.lastUsed = now;
+            entry.duration = recording.format != null
+                ? MediaDuration.read(file, recording.format, recording.sampleRate, recording.channels)
+                : -1;
+            if (entry.duration < 0 && recording.files.size() == 1) {
+              entry.duration = recording.duration;
+            }
+            if (entry.path.equals(recording.path)) {
+              entry.waveformPath = waveformPath;
+            }
+            index.put(entry);
+          }
+        } catch (RuntimeException e) {
+          Log.e(TAG, "Failed to index recording " + recording.path, e);
+          return;
+        }
+
+        // Every file of the recording is new, none of it may go to make room for the rest
+        List<String> paths = new ArrayList<>();
+        for (File file : recording.files) {
+          paths.add(file.getPath());
+        }
+        evict(now, paths);
+      }
+    });
+  }
+
+  /**
+   * Removes a deleted file, or everything under a deleted directory, from the index.
+   */
+  void forget(@Nullable final String path) {
+    if (path == null) {
+      return;
+    }
+
+    runOnIndexThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          index.remove(new File(path).getPath());
+        } catch (RuntimeException e) {
+          Log.e(TAG, "Failed to remove " + path + " from the recordings index", e);
+        }
+      }
+    });
+  }
+
+  void list(ReadableMap queryMap, final Promise promise) {
+    final RecordingIndex.Query query = new RecordingIndex.Query();
+    query.directory = queryMap.hasKey("Directory") && !queryMap.isNull("Directory") ? queryMap.getString("Directory") : null;
+    query.format = queryMap.hasKey("Format") && !queryMap.isNull("Format") ? queryMap.getString("Format") : null;
+    query.sortBy = queryMap.hasKey("SortBy") ? queryMap.getString("SortBy") : RecordingIndex.SortCreated;
+    query.descending = !queryMap.hasKey("Order") || !"asc".equals(queryMap.getString("Order"));
+    query.offset = queryMap.hasKey("Offset") ? Math.max(0, queryMap.getInt("Offset")) : 0;
+    query.limit = queryMap.hasKey("Limit") ? Math.max(0, Math.min(queryMap.getInt("Limit"), MaxListLimit)) : query.limit;
+
+    boolean queued = runOnIndexThread(new Runnable() {
+      @Override
+      public void run() {
+        RecordingIndex.Page page;
+        try {
+          page = index.query(query);
+        } catch (RuntimeException e) {
+          module.logAndRejectPromise(promise, AudioRecorderManager.RecordingIndexError, "Failed to list recordings: " + e.getMessage());
+          return;
+        }
+
+        WritableArray recordings = Arguments.createArray();
+        for (RecordingIndex.Entry entry : page.entries) {
+          WritableMap recording = Arguments.createMap();
+          recording.putString("path", entry.path);
+          recording.putString("uri", "file://" + entry.path);
+          recording.putDouble("duration", entry.duration);
+          recording.putDouble("size", entry.size);
+          recording.putString("format", entry.format);
+          recording.putInt("sampleRate", entry.sampleRate);
+          recording.putInt("channels", entry.channels);
+          recording.putDouble("created", entry.created);
+          recording.putDouble("lastUsed", entry.lastUsed);
+          if (entry.waveformPath != null) {
+            recording.putString("waveformPath", entry.waveformPath);
+          }
+          recordings.pushMap(recording);
+        }
+
+        int next = query.offset + page.entries.size();
+        WritableMap result = Arguments.createMap();
+        result.putArray("recordings", recordings);
+        result.putInt("total", page.total);
+        result.putInt("offset", query.offset);
+        if (next < page.total && !page.entries.isEmpty()) {
+          result.putInt("nextOffset", next);
+        } else {
+          result.putNull("nextOffset");
+        }
+        promise.resolve(result);
+      }
+    });
+
+    if (!queued) {
+      module.logAndRejectPromise(promise, AudioRecorderManager.InvalidStateError, "Module is being destroyed");
+    }
+  }
+
+  void touch(final String path, final Promise promise) {
+    boolean queued = runOnIndexThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          promise.resolve(index.touch(new File(path).getPath(), System.currentTimeMillis()));
+        } catch (RuntimeException e) {
+          module.logAndRejectPromise(promise, AudioRecorderManager.RecordingIndexError, "Failed to update recording " + path + ": " + e.getMessage());
+        }
+      }
+    });
+
+    if (!queued) {
+      module.logAndRejectPromise(promise, AudioRecorderManager.InvalidStateError, "Module is being destroyed");
+    }
+  }
+
+  void setQuota(ReadableMap quotaMap, final Promise promise) {
+    RecordingIndex.Quota quota = new RecordingIndex.Quota();
+    quota.maxSize = quotaMap.hasKey("MaxSize") ? (long) quotaMap.getDouble("MaxSize") : 0;
+    quota.maxCount = quotaMap.hasKey("MaxCount") ? quotaMap.getInt("MaxCount") : 0;
+    quota.maxAge = quotaMap.hasKey("MaxAge") ? (long) quotaMap.getDouble("MaxAge") : 0;
+    this.quota = quota;
+
+    boolean queued = runOnIndexThread(new Runnable() {
+      @Override
+      public void run() {
+        WritableArray evicted = evict(System.currentTimeMillis(), Collections.<String>emptyList());
+        if (evicted == null) {
+          module.logAndRejectPromise(promise, AudioRecorderManager.RecordingIndexError, "Failed to evict recordings");
+          return;
+        }
+        promise.resolve(evicted);
+      }
+    });
+
+    if (!queued) {
+      module.logAndRejectPromise(promise, AudioRecorderManager.InvalidStateError, "Module is being destroyed");
+    }
+  }
+
+  /**
+   * Closes the index once the work queued before is done.
+   */
+  void close() {
+    runOnIndexThread(new Runnable() {
+      @Override
+      public void run() {
+        index.close();
+      }
+    });
+    executor.shutdown();
+  }
+
+  /**
+   * Deletes the least recently used recordings beyond the quota, except for the files of
+   * sessions and background work and the given ones, and tells JS which ones.
+   */
+  @Nullable
+  private WritableArray evict(long now, Collection<String> keep) {
+    Set<String> inUse = module.getPathsInUse();
+    inUse.addAll(keep);
+
+    List<RecordingIndex.Entry> evicted;
+    try {
+      evicted = index.evict(quota, now, inUse);
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Failed to evict recordings", e);
+      return null;
+    }
+
+    WritableArray paths = Arguments.createArray();
+    long size = 0;
+    for (RecordingIndex.Entry entry : evicted) {
+      paths.pushString(entry.path);
+      size += entry.size;
+    }
+
+    if (!evicted.isEmpty()) {
+      WritableMap body = Arguments.createMap();
+      body.putArray("paths", paths);
+      body.putDouble("size", size);
+      module.sendEvent(EventEvicted, body);
+    }
+
+    // An array can only be sent once
+    WritableArray result = Arguments.createArray();
+    for (RecordingIndex.Entry entry : evicted) {
+      result.pushString(entry.path);
+    }
+    return result;
+  }
+
+  private boolean runOnIndexThread(Runnable runnable) {
+    try {
+      executor.execute(runnable);
+      return true;
+    } catch (RejectedExecutionException e) {
+      Log.d(TAG, "Module is being destroyed, skipping recordings index work");
+      return false;
+    }
+  }
+}
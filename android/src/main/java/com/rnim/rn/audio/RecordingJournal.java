@@ -0,0 +1,146 @@
+package com.rnim.rn.audio;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Small file kept next to a crash-safe recording, `<path>.journal`, that describes how to repair
+ * the recording if the process dies before it is finalized.
+ *
+ * The header holds the recording's file name, output format, sample rate and channel count, which
+ * a raw PCM file can't be read back without. It is followed by a fixed commit record, the segment
+ * being written, its durable size in bytes and the total frames written, which is rewritten in
+ * place and forced to disk after the audio data itself has been forced. The journal is deleted
+ * once the recording finishes normally, so any journal found later belongs to an orphan.
+ */
+class RecordingJournal {
+
+  static final String EXTENSION = ".journal";
+
+  private static final String TAG = "ReactNativeAudio";
+  private static final int MAGIC = 0x524E524A;  // "RNRJ"
+  private static final short VERSION = 1;
+  private static final int COMMIT_SIZE = 4 + 8 + 8;
+
+  /**
+   * Contents of a journal read back from disk.
+   */
+  static class Entry {
+    File recording;
+    String format;
+    int sampleRate;
+    int channels;
+    int segment;
+    long bytes;
+    long frames;
+  }
+
+  private final File file;
+  private final RandomAccessFile output;
+  private final FileChannel channel;
+  private final long commitPosition;
+  private final ByteBuffer commit = ByteBuffer.allocate(COMMIT_SIZE);
+
+  private RecordingJournal(File file, RandomAccessFile output, long commitPosition) {
+    this.file = file;
+    this.output = output;
+    this.channel = output.getChannel();
+    this.commitPosition = commitPosition;
+  }
+
+  static File fileFor(File recording) {
+    return new File(recording.getPath() + EXTENSION);
+  }
+
+  static RecordingJournal create(File recording, String format, int sampleRate, int channels) throws IOException {
+    File file = fileFor(recording);
+    RandomAccessFile output = new RandomAccessFile(file, "rw");
+
+    try {
+      output.setLength(0);
+      output.writeInt(MAGIC);
+      output.writeShort(VERSION);
+      output.writeUTF(recording.getName());
+      output.writeUTF(format);
+      output.writeInt(sampleRate);
+      output.writeShort(channels);
+
+      RecordingJournal journal = new RecordingJournal(file, output, output.getFilePointer());
+      journal.commit(0, 0, 0);
+      return journal;
+    } catch (IOException e) {
+      output.close();
+      file.delete();
+      throw e;
+    }
+  }
+
+  /**
+   * Records that {@code bytes} of segment {@code segment}, header included, and {@code frames}
+   * frames in total are on disk. Callers force the audio data before committing it. Recovery cuts
+   * PCM recordings back to exactly that. MediaRecorder owns its file and can't tell, so it
+   * commits only the segment it moved on to, with 0 bytes and frames, which recovery ignores.
+   */
+  synchronized void commit(int segment, long bytes, long frames) throws IOException {
+    commit.clear();
+    commit.putInt(segment).putLong(bytes).putLong(frames);
+    commit.flip();
+
+    long position = commitPosition;
+    while (commit.hasRemaining()) {
+      position += channel.write(commit, position);
+    }
+    channel.force(false);
+  }
+
+  /**
+   * Closes the journal and leaves it on disk, for a recording that is abandoned unfinished.
+   */
+  synchronized void close() {
+    try {
+      output.close();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to close journal " + file.getPath(), e);
+    }
+  }
+
+  /**
+   * Closes and removes the journal of a recording that finished normally.
+   */
+  synchronized void delete() {
+    close();
+    if (!file.delete() && file.exists()) {
+      Log.w(TAG, "Failed to delete journal " + file.getPath());
+    }
+  }
+
+  static Entry read(File journal) throws IOException {
+    DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+
+    try {
+      if (input.readInt() != MAGIC || input.readShort() != VERSION) {
+        throw new IOException("Not a recording journal: " + journal.getPath());
+      }
+
+      Entry entry = new Entry();
+      entry.recording = new File(journal.getParentFile(), input.readUTF());
+      entry.format = input.readUTF();
+      entry.sampleRate = input.readInt();
+      entry.channels = input.readShort();
+      entry.segment = input.readInt();
+      entry.bytes = input.readLong();
+      entry.frames = input.readLong();
+      return entry;
+    } finally {
+      input.close();
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package com.rnim.rn.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Repairs the files of a recording that was interrupted before it was finalized, as described by
+ * its {@link RecordingJournal}.
+ *
+ * Streamable formats are cut back to their last complete frame: PCM to the size the journal last
+ * committed, as anything after it may not have reached the disk, with the WAV header patched;
+ * ADTS and AMR to the last frame whose header and payload are both in the file, as found by
+ * {@link StreamFrames}; MPEG-2 TS to a whole packet. MPEG-4, 3GPP and WebM keep their index at
+ * the end of the file, so those are only reported as recovered when MediaRecorder managed to
+ * write it.
+ */
+class RecordingRecovery {
+
+  static class Result {
+    File recording;
+    String format;
+    boolean recovered;
+    double duration = -1;  // seconds, -1 when unknown
+    long size;
+    String error;
+    final List<File> segments = new ArrayList<>();
+  }
+
+  private static final int TS_PACKET_SIZE = 188;
+
+  private RecordingRecovery() {
+  }
+
+  static Result recover(RecordingJournal.Entry entry) throws IOException {
+    Result result = new Result();
+    result.recording = entry.recording;
+    result.format = entry.format;
+    result.recovered = true;
+
+    double duration = 0;
+
+    for (int i = 0; i <= entry.segment; i++) {
+      File segment = RecordingSegments.file(entry.recording, i);
+      if (!segment.exists()) {
+        continue;
+      }
+
+      double segmentDuration = repair(segment, entry, i == entry.segment);
+      if (segmentDuration < 0) {
+        duration = -1;
+      } else if (duration >= 0) {
+        duration += segmentDuration;
+      }
+
+      result.segments.add(segment);
+      result.size += segment.length();
+    }
+
+    if (result.segments.isEmpty()) {
+      result.recovered = false;
+      result.error = "No audio file found for " + entry.recording.getPath();
+      return result;
+    }
+
+    if (isContainer(entry.format)) {
+      for (File segment : result.segments) {
+        if (AudioRecorderManager.WebmAudioOutputFormat.equals(entry.format) || !hasMovieBox(segment)) {
+          result.recovered = false;
+          result.error = "The recording was not finalized and its format can't be repaired";
+          return result;
+        }
+      }
+    }
+
+    // The frames committed with the last size are exactly what the PCM files now hold
+    result.duration = isPcm(entry.format) ? entry.frames / (double) entry.sampleRate : duration;
+    return result;
+  }
+
+  private static boolean isPcm(String format) {
+    return AudioRecorderManager.WavAudioOutputFormat.equals(format)
+        || AudioRecorderManager.RawPcmAudioOutputFormat.equals(format);
+  }
+
+  private static boolean isContainer(String format) {
+    return !isPcm(format)
+        && !AudioRecorderManager.AacAdtsAudioOutputFormat.equals(format)
+        && !AudioRecorderManager.AmrNbAudioOutputFormat.equals(format)
+        && !AudioRecorderManager.AmrWbAudioOutputFormat.equals(format)
+        && !AudioRecorderManager.Mpeg2TsAudioOutputFormat.equals(format);
+  }
+
+  /**
+   * Repairs one segment in place and returns its duration in seconds, or -1 when unknown.
+   * {@code last} is the segment the journal's commit is about.
+   */
+  private static double repair(File segment, RecordingJournal.Entry entry, boolean last) throws IOException {
+    switch (entry.format) {
+      case AudioRecorderManager.WavAudioOutputFormat:
+        return repairPcm(segment, entry, true, last);
+      case AudioRecorderManager.RawPcmAudioOutputFormat:
+        return repairPcm(segment, entry, false, last);
+      case AudioRecorderManager.AacAdtsAudioOutputFormat:
+      case AudioRecorderManager.AmrNbAudioOutputFormat:
+      case AudioRecorderManager.AmrWbAudioOutputFormat:
+        return repairStream(segment, entry.format);
+      case AudioRecorderManager.Mpeg2TsAudioOutputFormat:
+        truncate(segment, segment.length() - segment.length() % TS_PACKET_SIZE);
+        return -1;
+      default:
+        return -1;
+    }
+  }
+
+  private static double repairPcm(File segment, RecordingJournal.Entry entry, boolean wav, boolean last) throws IOException {
+    int bytesPerFrame = entry.channels * PcmRecorder.BITS_PER_SAMPLE / 8;
+    long headerSize = wav ? WavHeader.SIZE : 0;
+    // Earlier segments were finalized and closed before the journal moved on to the next one
+    long durable = last ? Math.min(entry.bytes, segment.length()) : segment.length();
+    long dataSize = Math.max(0, durable - headerSize);
+    dataSize -= dataSize % bytesPerFrame;
+
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    try {
+      file.setLength(headerSize + dataSize);
+      if (wav) {
+        new WavHeader().write(file.getChannel(), entry.sampleRate, entry.channels, PcmRecorder.BITS_PER_SAMPLE, dataSize);
+      }
+      file.getChannel().force(false);
+    } finally {
+      file.close();
+    }
+
+    return dataSize / bytesPerFrame / (double) entry.sampleRate;
+  }
+
+  /**
+   * Cuts an ADTS or AMR segment back to its last whole frame.
+   */
+  private static double repairStream(File segment, String format) throws IOException {
+    StreamFrames.Scan scan;
+    RandomAccessFile file = new RandomAccessFile(segment, "r");
+    try {
+      if (AudioRecorderManager.AacAdtsAudioOutputFormat.equals(format)) {
+        scan = StreamFrames.scanAdts(file.getChannel());
+      } else {
+        scan = StreamFrames.scanAmr(file.getChannel(), AudioRecorderManager.AmrWbAudioOutputFormat.equals(format));
+      }
+    } finally {
+      file.close();
+    }
+
+    truncate(segment, scan.end);
+    return scan.duration;
+  }
+
+  /**
+   * Whether the top level of an ISO base media file contains a `moov` box, which is only written
+   * when MediaRecorder stops normally.
+   */
+  private static boolean hasMovieBox(File segment) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(segment, "r");
+
+    try {
+      long length = file.length();
+      long offset = 0;
+
+      while (offset + 8 <= length) {
+        file.seek(offset);
+        long size = file.readInt() & 0xFFFFFFFFL;
+        int type = file.readInt();
+
+        if (type == 0x6D6F6F76) {  // "moov"
+          return true;
+        }
+
+        if (size == 1) {
+          size = file.readLong();
+        } else if (size == 0) {
+          return false;  // Runs to the end of the file
+        }
+
+        if (size < 8) {
+          return false;
+        }
+        offset += size;
+      }
+
+      return false;
+    } finally {
+      file.close();
+    }
+  }
+
+  private static void truncate(File segment, long length) throws IOException {
+    if (segment.length() == length) {
+      return;
+    }
+
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    try {
+      file.setLength(length);
+      file.getChannel().force(false);
+    } finally {
+      file.close();
+    }
+  }
+}
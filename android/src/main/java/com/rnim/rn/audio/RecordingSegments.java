@@ -0,0 +1,28 @@
+package com.rnim.rn.audio;
+
+import java.io.File;
+
+/**
+ * Naming of the files a segmented recording is split into: the first segment is written to the
+ * requested path and the following ones get an index before the extension, e.g. `take.wav`,
+ * `take_1.wav`, `take_2.wav`.
+ */
+class RecordingSegments {
+
+  private RecordingSegments() {
+  }
+
+  static File file(File base, int index) {
+    if (index == 0) {
+      return base;
+    }
+
+    String name = base.getName();
+    int dot = name.lastIndexOf('.');
+    String segmentName = dot > 0
+        ? name.substring(0, dot) + "_" + index + name.substring(dot)
+        : name + "_" + index;
+
+    return new File(base.getParentFile(), segmentName);
+  }
+}
@@ -0,0 +1,119 @@
+package com.rnim.rn.audio;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.IBinder;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+/**
+ * A foreground service that only shows a notification, so that Android keeps the process and
+ * its access to the microphone while the app is in the background. The recording itself stays
+ * in {@link AudioRecorderManager}; this service is started when a session with
+ * `ForegroundService` starts recording and stopped once none is.
+ *
+ * The library declares the service but none of its permissions, which only apps that use it
+ * should ask for. Those declare `FOREGROUND_SERVICE`, and `FOREGROUND_SERVICE_MICROPHONE` when
+ * targeting Android 14, and, when targeting Android 10 or newer, the service again with
+ * `android:foregroundServiceType="microphone"` in their own manifest.
+ */
+public class RecordingService extends Service {
+
+  private static final String EXTRA_TITLE = "title";
+  private static final String EXTRA_TEXT = "text";
+  private static final String CHANNEL_ID = "react-native-audio-recording";
+  private static final String CHANNEL_NAME = "Recording";
+  private static final int NOTIFICATION_ID = 0x52454331;  // "REC1"
+
+  /**
+   * Starts the service, or updates its notification when it is already running.
+   *
+   * @throws IllegalStateException when the app isn't allowed to start a foreground service now,
+   * e.g. from the background on Android 12 or newer, or didn't declare the permissions for it
+   */
+  static void start(Context context, String title, @Nullable String text) {
+    // Without them startForeground would throw in the service, which can't be caught here.
+    // API 28 and 34 are compared by number for the default compileSdkVersion.
+    if (Build.VERSION.SDK_INT >= 28 && !hasPermission(context, "android.permission.FOREGROUND_SERVICE")) {
+      throw new IllegalStateException("The app doesn't declare the FOREGROUND_SERVICE permission");
+    }
+    if (Build.VERSION.SDK_INT >= 34 && !hasPermission(context, "android.permission.FOREGROUND_SERVICE_MICROPHONE")) {
+      throw new IllegalStateException("The app doesn't declare the FOREGROUND_SERVICE_MICROPHONE permission");
+    }
+
+    Intent intent = new Intent(context, RecordingService.class);
+    intent.putExtra(EXTRA_TITLE, title);
+    intent.putExtra(EXTRA_TEXT, text);
+    ContextCompat.startForegroundService(context, intent);
+  }
+
+  static void stop(Context context) {
+    context.stopService(new Intent(context, RecordingService.class));
+  }
+
+  private static boolean hasPermission(Context context, String permission) {
+    return ContextCompat.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
+  }
+
+  @Override
+  public int onStartCommand(Intent intent, int flags, int startId) {
+    // A restart by the system has no recording to keep alive
+    if (intent == null) {
+      stopSelf();
+      return START_NOT_STICKY;
+    }
+
+    startForeground(NOTIFICATION_ID, createNotification(intent.getStringExtra(EXTRA_TITLE), intent.getStringExtra(EXTRA_TEXT)));
+    return START_NOT_STICKY;
+  }
+
+  @Override
+  public void onDestroy() {
+    stopForeground(true);
+    super.onDestroy();
+  }
+
+  @Nullable
+  @Override
+  public IBinder onBind(Intent intent) {
+    return null;
+  }
+
+  private Notification createNotification(String title, @Nullable String text) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      NotificationChannel channel = new NotificationChannel(CHANNEL_ID, CHANNEL_NAME, NotificationManager.IMPORTANCE_LOW);
+      channel.setShowBadge(false);
+      ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE)).createNotificationChannel(channel);
+    }
+
+    NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
+        .setContentTitle(title)
+        .setSmallIcon(getApplicationInfo().icon)
+        .setOngoing(true)
+        .setOnlyAlertOnce(true)
+        .setPriority(NotificationCompat.PRIORITY_LOW)
+        .setCategory(Notification.CATEGORY_SERVICE);
+
+    if (text != null) {
+      builder.setContentText(text);
+    }
+
+    // Tapping the notification brings the app back
+    Intent launch = getPackageManager().getLaunchIntentForPackage(getPackageName());
+    if (launch != null) {
+      int immutable = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0;
+      builder.setContentIntent(PendingIntent.getActivity(this, 0, launch, PendingIntent.FLAG_UPDATE_CURRENT | immutable));
+    }
+
+    return builder.build();
+  }
+}
@@ -0,0 +1,130 @@
+package com.rnim.rn.audio;
+
+import android.media.MediaRecorder;
+
+import com.facebook.react.bridge.ReadableMap;
+
+import java.io.File;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Everything {@link AudioRecorderManager} knows about one recording, from
+ * `prepareRecordingAtPath` until it finishes or is destroyed. Sessions are independent, so a
+ * second one can be prepared or recording while another one is still running.
+ *
+ * Starting, stopping, pausing and interrupting run on different threads, the React methods on
+ * the native modules thread and interruption handling on the scheduler, and all of them replace
+ * or release the recorder. They hold the session's monitor while they do.
+ */
+class RecordingSession {
+
+  final String id;
+
+  MediaRecorder recorder = null;
+  PcmRecorder pcmRecorder = null;
+  String outputFilePath = null;
+  String outputFormat = null;  // As written, so `wav` or `raw_pcm` for the PCM engine
+  int sampleRate = 0;
+  int channels = 0;
+  int maxDuration = 0;
+  volatile boolean isRecording = false;
+  volatile boolean isPaused = false;
+  // Set once the recording stopped normally, as opposed to failing or being destroyed
+  volatile boolean finished = false;
+  boolean includeBase64 = false;
+  int base64ChunkSize = 0;
+  final StopWatch stopWatch = new StopWatch(AndroidClocks.ELAPSED_REALTIME);
+  boolean meteringEnabled = false;
+  int progressUpdateInterval = 1000;	// 1 second
+
+  ScheduledFuture<?> progressTask;
+  boolean backgroundProgress = false;  // Keeps the ticks going while the app is in the background
+  long progressSuspendedAt = 0;  // Nanoseconds, 0 unless the ticks are suspended
+  // Shown by RecordingService while recording, null when the session doesn't want it
+  String foregroundServiceTitle;
+  String foregroundServiceText;
+  // Where the previous progress tick left off, for the metrics
+  long lastTickTime;
+  long lastBytesWritten;
+  int lastOverruns;
+  double lastProgressTime;
+  double lastProgressMetering;
+  LevelMeter levelMeter;
+  DspChain dsp;
+  final LevelMeter.Reading levelReading = new LevelMeter.Reading();
+  PcmStreamer streamer;
+  VoiceActivityDetector voiceActivityDetector;
+  String vadIndexPath;
+  WaveformPeaks waveform;
+
+  int segmentDuration = 0;  // MilliSeconds
+  long segmentSize = 0;  // Bytes
+  int segmentIndex = 0;  // MediaRecorder only, the PCM engine counts its own segments
+  double segmentStartTime = 0;
+
+  // Post-recording transcoding, when the recording settings asked for it
+  Transcoder.Settings transcode;
+  String transcodePath;
+
+  // Set when the recorder came from the warm-up pool. A warm MediaRecorder records into
+  // warmFile, which is moved to outputFilePath when the recording stops.
+  boolean warm = false;
+  File warmFile;
+  long prepareDuration;  // Nanoseconds
+
+  boolean crashSafe = false;
+  int syncInterval = 1000;  // MilliSeconds
+  RecordingJournal journal;
+
+  // Interruption handling: what interrupted the recording while it is interrupted, when that
+  // began, and what it resumed from until the first audio after it arrived. A MediaRecorder that
+  // had to be closed continues into the next segment file, set up from the same settings.
+  boolean handleInterruptions = false;
+  volatile String interruption;
+  long interruptionStart;  // Nanoseconds
+  String resumedFrom;
+  long resumeStart;  // Nanoseconds
+  int recoveryDelay = 0;  // MilliSeconds
+  ScheduledFuture<?> recoveryTask;
+  ReadableMap recordingSettings;
+
+  RecordingSession(String id) {
+    this.id = id;
+  }
+
+  boolean isPrepared() {
+    return recorder != null || pcmRecorder != null;
+  }
+
+  /**
+   * Seconds recorded so far. The PCM engine counts the frames written to the file, which can't
+   * drift from the audio; MediaRecorder only has the clock.
+   */
+  double getCurrentTime() {
+    PcmRecorder pcm = pcmRecorder;
+    if (pcm != null) {
+      return pcm.getFramesWritten() / (double) pcm.getSampleRate();
+    }
+    return stopWatch.getTimeSeconds();
+  }
+
+  boolean isSegmenting() {
+    return segmentDuration > 0 || segmentSize > 0;
+  }
+
+  /**
+   * Whether the recording is split into more than one file, because of the segment limits or
+   * because MediaRecorder continued into a new file after an interruption.
+   */
+  boolean hasSegments() {
+    return isSegmenting() || getSegmentCount() > 1;
+  }
+
+  int getSegmentCount() {
+    return pcmRecorder != null ? pcmRecorder.getSegmentCount() : segmentIndex + 1;
+  }
+
+  File getSegmentFile(int index) {
+    return RecordingSegments.file(new File(outputFilePath), index);
+  }
+}
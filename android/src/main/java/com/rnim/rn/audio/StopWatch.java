@@ -1,45 +1,55 @@
 package com.rnim.rn.audio;
 
-import java.lang.System;
-import java.lang.Thread;
-
+/**
+ * Measures recording time on a monotonic {@link Clock}, so that it doesn't jump when the wall
+ * clock is changed, and keeps it in nanoseconds, so that it doesn't lose precision over long
+ * recordings. Time while stopped (paused) isn't counted.
+ */
 public class StopWatch {
-    private long start;
-    private float elapsedTime = 0;
-    private boolean paused = true;
-  
-    public StopWatch() {
-    }
-  
-    public void start() {
-        start = System.currentTimeMillis();
-        paused = false;
-    }
-  
-    public float stop() {
-        if (!paused) {
-            long now = System.currentTimeMillis();
-            elapsedTime += (now - start) / 1000f;
-            paused = true;
-        }
-  
-        return elapsedTime;
-    }
-  
-    public void reset() {
-        start = 0;
-        elapsedTime = 0;
-        paused = true;
+  private final Clock clock;
+  private long start;
+  private long elapsedTime = 0;  // nanoseconds
+  private boolean paused = true;
+
+  StopWatch(Clock clock) {
+    this.clock = clock;
+  }
+
+  public void start() {
+    start = now();
+    paused = false;
+  }
+
+  public double stop() {
+    if (!paused) {
+      elapsedTime += now() - start;
+      paused = true;
     }
-  
-    public float getTimeSeconds() {
-      float seconds = elapsedTime;
-      
-      if (!paused) {
-        long now = System.currentTimeMillis();
-        seconds += (float)(now - start) / 1000f;
-      }
-
-      return seconds;
+
+    return elapsedTime / 1e9;
+  }
+
+  public void reset() {
+    start = 0;
+    elapsedTime = 0;
+    paused = true;
+  }
+
+  public double getTimeSeconds() {
+    return getTimeNanos() / 1e9;
+  }
+
+  public long getTimeNanos() {
+    long nanos = elapsedTime;
+
+    if (!paused) {
+      nanos += now() - start;
     }
-  }
\ No newline at end of file
+
+    return nanos;
+  }
+
+  private long now() {
+    return clock.nanoTime();
+  }
+}
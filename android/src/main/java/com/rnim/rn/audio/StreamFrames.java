@@ -0,0 +1,131 @@
+package com.rnim.rn.audio;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Walks the frames of ADTS and AMR streams, which have no index, up to the last frame whose
+ * header and payload are both in the file. {@link MediaDuration} uses it to measure finished
+ * recordings and {@link RecordingRecovery} to cut interrupted ones back to a whole frame.
+ */
+class StreamFrames {
+
+  static class Scan {
+    long end;  // bytes up to the end of the last whole frame, including the file header
+    double duration;  // seconds
+  }
+
+  private static final int ADTS_HEADER_SIZE = 7;
+  private static final int[] ADTS_SAMPLE_RATES = {
+      96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+  };
+
+  private static final byte[] AMR_NB_MAGIC = {'#', '!', 'A', 'M', 'R', '\n'};
+  private static final byte[] AMR_WB_MAGIC = {'#', '!', 'A', 'M', 'R', '-', 'W', 'B', '\n'};
+  // Speech payload bytes by frame type; -1 marks reserved types, which end the scan
+  private static final int[] AMR_NB_FRAME_SIZES = {12, 13, 15, 17, 19, 20, 26, 31, 5, -1, -1, -1, -1, -1, -1, 0};
+  private static final int[] AMR_WB_FRAME_SIZES = {17, 23, 32, 36, 40, 46, 50, 58, 60, 5, -1, -1, -1, -1, 0, 0};
+  private static final double AMR_FRAME_DURATION = 0.02;
+
+  // Streams are scanned through a window that is moved along the file
+  private static final int SCAN_WINDOW_SIZE = 1024 * 1024;
+
+  private StreamFrames() {
+  }
+
+  static Scan scanAdts(FileChannel channel) throws IOException {
+    ScanWindow window = new ScanWindow(channel);
+    long length = channel.size();
+    long offset = 0;
+    long samples = 0;
+    int sampleRate = 0;
+
+    while (offset + ADTS_HEADER_SIZE <= length) {
+      int b0 = window.get(offset);
+      int b1 = window.get(offset + 1);
+      int b2 = window.get(offset + 2);
+      int b3 = window.get(offset + 3);
+      int b4 = window.get(offset + 4);
+      int b5 = window.get(offset + 5);
+      int b6 = window.get(offset + 6);
+
+      boolean sync = b0 == 0xFF && (b1 & 0xF6) == 0xF0;
+      int frameLength = ((b3 & 0x03) << 11) | (b4 << 3) | ((b5 & 0xE0) >> 5);
+      int rateIndex = (b2 & 0x3C) >> 2;
+      if (!sync || frameLength < ADTS_HEADER_SIZE || rateIndex >= ADTS_SAMPLE_RATES.length
+          || offset + frameLength > length) {
+        break;
+      }
+
+      offset += frameLength;
+      samples += ((b6 & 0x03) + 1) * 1024;
+      sampleRate = ADTS_SAMPLE_RATES[rateIndex];
+    }
+
+    Scan scan = new Scan();
+    scan.end = offset;
+    scan.duration = sampleRate > 0 ? samples / (double) sampleRate : 0;
+    return scan;
+  }
+
+  /**
+   * A file that ends inside its magic is scanned as empty.
+   *
+   * @throws IOException when the file starts with something else than the AMR magic
+   */
+  static Scan scanAmr(FileChannel channel, boolean wideband) throws IOException {
+    byte[] magic = wideband ? AMR_WB_MAGIC : AMR_NB_MAGIC;
+    int[] frameSizes = wideband ? AMR_WB_FRAME_SIZES : AMR_NB_FRAME_SIZES;
+    ScanWindow window = new ScanWindow(channel);
+    long length = channel.size();
+    long offset = 0;
+    long frames = 0;
+
+    for (int i = 0; i < magic.length && i < length; i++) {
+      if (window.get(i) != magic[i]) {
+        throw new IOException("Not an AMR file");
+      }
+    }
+
+    if (length >= magic.length) {
+      offset = magic.length;
+
+      while (offset < length) {
+        int size = frameSizes[(window.get(offset) >> 3) & 0x0F];
+        if (size < 0 || offset + 1 + size > length) {
+          break;
+        }
+        offset += 1 + size;
+        frames++;
+      }
+    }
+
+    Scan scan = new Scan();
+    scan.end = offset;
+    scan.duration = frames * AMR_FRAME_DURATION;
+    return scan;
+  }
+
+  /**
+   * Byte access to a stream through a read-only mapping of at most {@link #SCAN_WINDOW_SIZE}
+   * bytes, moved forward as the scan goes.
+   */
+  private static class ScanWindow {
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long start = 0;
+
+    ScanWindow(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    int get(long position) throws IOException {
+      if (buffer == null || position < start || position >= start + buffer.capacity()) {
+        start = position;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SCAN_WINDOW_SIZE, channel.size() - start));
+      }
+      return buffer.get((int) (position - start)) & 0xFF;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package com.rnim.rn.audio;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Build;
+
+import androidx.annotation.Nullable;
+
+import android.util.Log;
+
+/**
+ * `transcode`, `setTranscodeConcurrency` and the transcoding of finished recordings asked for
+ * with `Transcode`.
+ */
+class TranscodeController {
+
+  private static final String TAG = "ReactNativeAudio";
+
+  private static final String EventProgress = "transcodeProgress";
+  private static final String EventFinished = "transcodeFinished";
+
+  private final RecorderModule module;
+  private final RecorderMetrics metrics;
+
+  // Transcoding runs here, at most `setTranscodeConcurrency` jobs at a time. Its queue is
+  // unbounded since every job was asked for explicitly. Post-recording jobs are tracked with
+  // the finish tasks.
+  private final ThreadPoolExecutor executor;
+
+  TranscodeController(RecorderModule module, RecorderMetrics metrics) {
+    this.module = module;
+    this.metrics = metrics;
+
+    executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), AudioRecorderManager.createBackgroundThreadFactory(TAG + "-transcode"));
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  void transcode(final String inputPath, final String outputPath, ReadableMap settings, final Promise promise) {
+    final Transcoder.Settings transcode;
+    try {
+      transcode = readSettings(settings);
+    } catch (RuntimeException e) {
+      module.logAndRejectPromise(promise, AudioRecorderManager.FailedToConfigureRecorderError, "Invalid transcoding settings: " + e.getMessage());
+      return;
+    }
+
+    if (!isAvailable(transcode)) {
+      module.logAndRejectPromise(promise, AudioRecorderManager.MethodNotAvailableError, "Transcoding to " + transcode.encoding + " is not available on this Android version");
+      return;
+    }
+
+    if (!AudioRecorderManager.makeDir(new File(outputPath).getParentFile())) {
+      module.logAndRejectPromise(promise, AudioRecorderManager.NoAccessToWriteToDirectoryError, "Make sure you have access to the output path (" + outputPath + ")");
+      return;
+    }
+
+    Runnable job = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Transcoder.Result result = runTranscoder(null, inputPath, outputPath, transcode);
+
+          WritableMap body = Arguments.createMap();
+          body.putString("path", outputPath);
+          body.putString("uri", "file://" + outputPath);
+          body.putDouble("duration", result.duration);
+          body.putDouble("size", result.size);
+          promise.resolve(body);
+        } catch (IOException | RuntimeException e) {
+          module.logAndRejectPromise(promise, AudioRecorderManager.TranscodeFailedError, "Transcoding " + inputPath + " failed with error: " + e.getMessage());
+        }
+      }
+    };
+
+    try {
+      executor.execute(job);
+    } catch (RejectedExecutionException e) {
+      module.logAndRejectPromise(promise, AudioRecorderManager.InvalidStateError, "Module is being destroyed");
+    }
+  }
+
+  void setConcurrency(int concurrency) {
+    int size = Math.max(1, concurrency);
+    if (size > executor.getMaximumPoolSize()) {
+      executor.setMaximumPoolSize(size);
+      executor.setCorePoolSize(size);
+    } else {
+      executor.setCorePoolSize(size);
+      executor.setMaximumPoolSize(size);
+    }
+  }
+
+  static Transcoder.Settings readSettings(ReadableMap settings) {
+    Transcoder.Settings transcode = new Transcoder.Settings();
+    transcode.encoding = settings.hasKey("AudioEncoding") ? settings.getString("AudioEncoding") : Transcoder.Aac;
+    transcode.bitRate = settings.hasKey("AudioEncodingBitRate") ? settings.getInt("AudioEncodingBitRate") : 64000;
+    transcode.sampleRate = settings.hasKey("SampleRate") ? settings.getInt("SampleRate") : 0;
+    transcode.channels = settings.hasKey("Channels") ? settings.getInt("Channels") : 0;
+
+    if (!Transcoder.Aac.equals(transcode.encoding) && !Transcoder.Opus.equals(transcode.encoding)) {
+      throw new IllegalArgumentException("Unsupported transcoding encoding " + transcode.encoding);
+    }
+    if (transcode.channels < 0 || transcode.channels > 2) {
+      throw new IllegalArgumentException("Unsupported channel count " + transcode.channels);
+    }
+    return transcode;
+  }
+
+  /**
+   * Opus encoding and the Ogg muxer came with Android 10, API 29, which is compared by number
+   * since the default compileSdkVersion has no Build.VERSION_CODES.Q.
+   */
+  static boolean isAvailable(Transcoder.Settings transcode) {
+    if (Transcoder.Opus.equals(transcode.encoding)) {
+      return Build.VERSION.SDK_INT >= 29;
+    }
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+  }
+
+  /**
+   * The recording path with the extension of the transcoded format.
+   */
+  static String getOutputPath(String path, Transcoder.Settings transcode) {
+    String extension = Transcoder.Opus.equals(transcode.encoding) ? ".ogg" : ".m4a";
+    int dot = path.lastIndexOf('.');
+    String base = dot > path.lastIndexOf('/') ? path.substring(0, dot) : path;
+    return path.equals(base + extension) ? base + ".transcoded" + extension : base + extension;
+  }
+
+  /**
+   * Transcodes a finished recording as the session's finish work and sends `transcodeFinished`.
+   */
+  void transcodeRecording(final String sessionId, final String inputPath, final String outputPath, final Transcoder.Settings transcode) {
+    boolean scheduled = module.runInBackground(sessionId, executor, new String[]{inputPath, outputPath}, new Runnable() {
+      @Override
+      public void run() {
+        WritableMap body = module.createEventBody(sessionId);
+        body.putString("inputPath", inputPath);
+        body.putString("path", outputPath);
+
+        try {
+          Transcoder.Result result = runTranscoder(sessionId, inputPath, outputPath, transcode);
+          body.putString("uri", "file://" + outputPath);
+          body.putDouble("duration", result.duration);
+          body.putDouble("size", result.size);
+        } catch (InterruptedIOException e) {
+          Log.d(TAG, e.getMessage());
+          return;
+        } catch (IOException | RuntimeException e) {
+          Log.e(TAG, "Transcoding " + inputPath + " failed", e);
+          body.putString("code", AudioRecorderManager.TranscodeFailedError);
+          metrics.countError(AudioRecorderManager.TranscodeFailedError);
+          body.putString("error", String.valueOf(e.getMessage()));
+        }
+
+        module.sendEvent(EventFinished, body);
+      }
+    });
+
+    if (!scheduled) {
+      WritableMap body = module.createEventBody(sessionId);
+      body.putString("inputPath", inputPath);
+      body.putString("path", outputPath);
+      body.putString("code", AudioRecorderManager.InvalidStateError);
+      body.putString("error", "Module is being destroyed");
+      module.sendEvent(EventFinished, body);
+    }
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private Transcoder.Result runTranscoder(@Nullable final String sessionId, final String inputPath, final String outputPath, Transcoder.Settings transcode) throws IOException {
+    return new Transcoder(new File(inputPath), new File(outputPath), transcode, new Transcoder.Listener() {
+      @Override
+      public void onProgress(double progress) {
+        WritableMap body = sessionId != null ? module.createEventBody(sessionId) : Arguments.createMap();
+        body.putString("inputPath", inputPath);
+        body.putString("path", outputPath);
+        body.putDouble("progress", progress);
+
+        module.sendEvent(EventProgress, body);
+      }
+    }).run();
+  }
+}
@@ -0,0 +1,527 @@
+package com.rnim.rn.audio;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Re-encodes the audio track of a file: the extractor feeds the decoder, the decoded PCM is
+ * converted to the target sample rate and channel count, and the encoder output is muxed into
+ * the new file. Everything runs on the calling thread through the codecs' own direct buffers;
+ * the only copy is the PCM going through the {@link Resampler}.
+ *
+ * AAC is written to MPEG-4 and Opus to Ogg (Android 10 and newer). A cancelled run, by
+ * interrupting the thread, or a failed one deletes the partial output.
+ */
+class Transcoder {
+
+  interface Listener {
+    /**
+     * @param progress fraction of the input that has been encoded, from 0 to 1
+     */
+    void onProgress(double progress);
+  }
+
+  static class Settings {
+    String encoding;
+    int bitRate;
+    int sampleRate;  // 0 to keep the input's
+    int channels;  // 0 to keep the input's
+  }
+
+  static class Result {
+    double duration;  // seconds
+    long size;  // bytes
+  }
+
+  static final String Aac = "aac";
+  static final String Opus = "opus";
+
+  private static final String TAG = "ReactNativeAudio";
+  // MediaMuxer.OutputFormat.MUXER_OUTPUT_OGG, which is API 29 and so beyond the default
+  // compileSdkVersion
+  private static final int MUXER_OUTPUT_OGG = 4;
+  private static final long TIMEOUT_US = 10000;
+  private static final double PROGRESS_STEP = 0.01;
+
+  private final File input;
+  private final File output;
+  private final Settings settings;
+  private final Listener listener;
+
+  private MediaExtractor extractor;
+  private MediaCodec decoder;
+  private MediaCodec encoder;
+  private MediaMuxer muxer;
+  private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+  private Resampler resampler;
+  private short[] decoded = new short[0];
+  private ShortBuffer pending = ShortBuffer.allocate(0);
+  private int outputRate;
+  private int outputChannels;
+  private long framesQueued = 0;
+  private long inputDuration;  // microseconds, -1 when unknown
+  private double lastProgress = 0;
+  private int muxerTrack = -1;
+
+  Transcoder(File input, File output, Settings settings, Listener listener) {
+    this.input = input;
+    this.output = output;
+    this.settings = settings;
+    this.listener = listener;
+  }
+
+  Result run() throws IOException {
+    boolean succeeded = false;
+
+    try {
+      transcode();
+      succeeded = true;
+    } finally {
+      release();
+      if (!succeeded && output.exists() && !output.delete()) {
+        Log.w(TAG, "Failed to delete partial output " + output.getPath());
+      }
+    }
+
+    Result result = new Result();
+    result.duration = framesQueued / (double) outputRate;
+    result.size = output.length();
+    return result;
+  }
+
+  private void transcode() throws IOException {
+    extractor = new MediaExtractor();
+    extractor.setDataSource(input.getPath());
+
+    int track = selectAudioTrack();
+    MediaFormat inputFormat = extractor.getTrackFormat(track);
+    extractor.selectTrack(track);
+    inputDuration = inputFormat.containsKey(MediaFormat.KEY_DURATION) ? inputFormat.getLong(MediaFormat.KEY_DURATION) : -1;
+
+    int inputRate = inputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+    int inputChannels = inputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+    outputRate = settings.sampleRate > 0 ? settings.sampleRate : inputRate;
+    outputChannels = settings.channels > 0 ? settings.channels : Math.min(inputChannels, 2);
+    resampler = new Resampler(inputRate, inputChannels, outputRate, outputChannels);
+
+    decoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
+    decoder.configure(inputFormat, null, null, 0);
+    decoder.start();
+
+    encoder = MediaCodec.createEncoderByType(getEncoderMime());
+    encoder.configure(createOutputFormat(), null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    encoder.start();
+
+    muxer = new MediaMuxer(output.getPath(), Opus.equals(settings.encoding)
+        ? MUXER_OUTPUT_OGG
+        : MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+
+    boolean extractorDone = false;
+    boolean decoderDone = false;
+    boolean encoderInputDone = false;
+    boolean encoderDone = false;
+
+    while (!encoderDone) {
+      if (Thread.interrupted()) {
+        throw new InterruptedIOException("Transcoding " + input.getPath() + " was cancelled");
+      }
+
+      if (!extractorDone) {
+        extractorDone = feedDecoder();
+      }
+
+      if (!decoderDone && !pending.hasRemaining()) {
+        decoderDone = drainDecoder();
+      }
+
+      if (!encoderInputDone) {
+        encoderInputDone = feedEncoder(decoderDone);
+      }
+
+      encoderDone = drainEncoder();
+    }
+
+    muxer.stop();
+    listener.onProgress(1);
+  }
+
+  private int selectAudioTrack() throws IOException {
+    for (int i = 0; i < extractor.getTrackCount(); i++) {
+      String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+      if (mime != null && mime.startsWith("audio/")) {
+        return i;
+      }
+    }
+    throw new IOException("No audio track in " + input.getPath());
+  }
+
+  private String getEncoderMime() {
+    if (Aac.equals(settings.encoding)) {
+      return MediaFormat.MIMETYPE_AUDIO_AAC;
+    }
+    if (Opus.equals(settings.encoding)) {
+      return MediaFormat.MIMETYPE_AUDIO_OPUS;
+    }
+    throw new IllegalArgumentException("Unsupported transcoding encoding " + settings.encoding);
+  }
+
+  private MediaFormat createOutputFormat() {
+    MediaFormat format = MediaFormat.createAudioFormat(getEncoderMime(), outputRate, outputChannels);
+    format.setInteger(MediaFormat.KEY_BIT_RATE, settings.bitRate);
+    if (Aac.equals(settings.encoding)) {
+      format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+    }
+    return format;
+  }
+
+  /**
+   * Moves one compressed sample from the extractor to the decoder. Returns true once the end of
+   * the input has been queued.
+   */
+  private boolean feedDecoder() {
+    int index = decoder.dequeueInputBuffer(TIMEOUT_US);
+    if (index < 0) {
+      return false;
+    }
+
+    ByteBuffer buffer = decoder.getInputBuffer(index);
+    int size = extractor.readSampleData(buffer, 0);
+    if (size < 0) {
+      decoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+      return true;
+    }
+
+    decoder.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+    extractor.advance();
+    return false;
+  }
+
+  /**
+   * Takes one buffer of decoded PCM and converts it into {@link #pending}. Returns true once the
+   * decoder reached the end of the stream.
+   */
+  private boolean drainDecoder() {
+    int index = decoder.dequeueOutputBuffer(info, TIMEOUT_US);
+
+    if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+      MediaFormat format = decoder.getOutputFormat();
+      resampler = new Resampler(format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+          format.getInteger(MediaFormat.KEY_CHANNEL_COUNT), outputRate, outputChannels);
+      return false;
+    }
+    if (index < 0) {
+      return false;
+    }
+
+    boolean done = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+
+    if (info.size > 0) {
+      ByteBuffer buffer = decoder.getOutputBuffer(index);
+      buffer.position(info.offset);
+      buffer.limit(info.offset + info.size);
+      ShortBuffer samples = buffer.order(ByteOrder.nativeOrder()).asShortBuffer();
+
+      int length = samples.remaining();
+      if (decoded.length < length) {
+        decoded = new short[length];
+      }
+      samples.get(decoded, 0, length);
+
+      int capacity = resampler.getOutputCapacity(length);
+      if (pending.capacity() < capacity) {
+        pending = ShortBuffer.allocate(capacity);
+      }
+      pending.clear();
+      pending.limit(resampler.process(decoded, length, pending.array()));
+    }
+
+    decoder.releaseOutputBuffer(index, false);
+    return done;
+  }
+
+  /**
+   * Copies converted PCM into the encoder's input buffers, and queues the end of the stream once
+   * the decoder is done and everything was handed over. Returns true once that happened.
+   */
+  private boolean feedEncoder(boolean decoderDone) {
+    if (!pending.hasRemaining() && !decoderDone) {
+      return false;
+    }
+
+    int index = encoder.dequeueInputBuffer(TIMEOUT_US);
+    if (index < 0) {
+      return false;
+    }
+
+    long presentationTime = framesQueued * 1000000L / outputRate;
+
+    if (!pending.hasRemaining()) {
+      encoder.queueInputBuffer(index, 0, 0, presentationTime, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+      return true;
+    }
+
+    ByteBuffer buffer = encoder.getInputBuffer(index);
+    buffer.clear();
+    ShortBuffer target = buffer.order(ByteOrder.nativeOrder()).asShortBuffer();
+
+    int length = Math.min(pending.remaining(), target.remaining());
+    length -= length % outputChannels;
+    int limit = pending.limit();
+    pending.limit(pending.position() + length);
+    target.put(pending);
+    pending.limit(limit);
+
+    encoder.queueInputBuffer(index, 0, length * 2, presentationTime, 0);
+    framesQueued += length / outputChannels;
+    return false;
+  }
+
+  /**
+   * Writes what the encoder produced to the muxer. Returns true once the encoder reached the end
+   * of the stream.
+   */
+  private boolean drainEncoder() {
+    int index = encoder.dequeueOutputBuffer(info, TIMEOUT_US);
+
+    if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+      muxerTrack = muxer.addTrack(encoder.getOutputFormat());
+      muxer.start();
+      return false;
+    }
+    if (index < 0) {
+      return false;
+    }
+
+    // The codec config is already part of the format the track was added with
+    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+      info.size = 0;
+    }
+
+    if (info.size > 0 && muxerTrack >= 0) {
+      ByteBuffer buffer = encoder.getOutputBuffer(index);
+      buffer.position(info.offset);
+      buffer.limit(info.offset + info.size);
+      muxer.writeSampleData(muxerTrack, buffer, info);
+      reportProgress(info.presentationTimeUs);
+    }
+
+    encoder.releaseOutputBuffer(index, false);
+    return (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+  }
+
+  private void reportProgress(long presentationTime) {
+    if (inputDuration <= 0) {
+      return;
+    }
+
+    double progress = Math.min(1, presentationTime / (double) inputDuration);
+    if (progress - lastProgress >= PROGRESS_STEP) {
+      lastProgress = progress;
+      listener.onProgress(progress);
+    }
+  }
+
+  private void release() {
+    if (extractor != null) {
+      extractor.release();
+      extractor = null;
+    }
+
+    decoder = releaseCodec(decoder);
+    encoder = releaseCodec(encoder);
+
+    if (muxer != null) {
+      try {
+        muxer.release();
+      } catch (IllegalStateException e) {
+        Log.w(TAG, "Failed to release muxer of " + output.getPath(), e);
+      }
+      muxer = null;
+    }
+  }
+
+  private static MediaCodec releaseCodec(MediaCodec codec) {
+    if (codec != null) {
+      try {
+        codec.stop();
+      } catch (IllegalStateException e) {
+        // Never started or already failed, releasing is all that is left
+      }
+      codec.release();
+    }
+    return null;
+  }
+
+  /**
+   * Converts interleaved 16 bit PCM between sample rates, by linear interpolation, and between
+   * channel counts, by averaging down to mono or spreading the input channels. Keeps the last
+   * frame of each buffer, so that consecutive buffers join without a click.
+   *
+   * Downsampling first runs the input through a windowed-sinc low-pass filter below the new
+   * Nyquist frequency, so that e.g. 48 kHz to 16 kHz doesn't fold everything above 8 kHz back
+   * into the audible range. The filter delays the output by half its length, well under a
+   * millisecond, and the last that many frames of the input are not converted.
+   */
+  static class Resampler {
+    // Filter taps per unit of the downsampling ratio, more taps make a steeper cut-off
+    private static final int TAPS_PER_STEP = 16;
+    // Cut-off as a fraction of the output Nyquist frequency, leaving room for the transition band
+    private static final double CUTOFF = 0.9;
+
+    private final int inputChannels;
+    private final int outputChannels;
+    private final double step;
+    private final short[] previous;
+    private short[] mixed = new short[0];
+    // Position of the next output frame, in input frames, where 0 is the previous frame
+    private double position = 1;
+
+    // The anti-aliasing filter, null when not downsampling. The history holds the last
+    // `taps - 1` input frames, so that the filter runs across buffers.
+    private final float[] filter;
+    private short[] history;
+    private short[] extended = new short[0];
+    private short[] filtered = new short[0];
+
+    Resampler(int inputRate, int inputChannels, int outputRate, int outputChannels) {
+      this.inputChannels = inputChannels;
+      this.outputChannels = outputChannels;
+      this.step = inputRate / (double) outputRate;
+      this.previous = new short[outputChannels];
+
+      if (step > 1) {
+        filter = createLowPassFilter(TAPS_PER_STEP * (int) Math.ceil(step) + 1, CUTOFF * 0.5 / step);
+        history = new short[(filter.length - 1) * outputChannels];
+      } else {
+        filter = null;
+      }
+    }
+
+    /**
+     * A Blackman-windowed sinc with an odd number of taps and a cut-off in cycles per input
+     * sample, normalized to unity gain.
+     */
+    static float[] createLowPassFilter(int taps, double cutoff) {
+      float[] coefficients = new float[taps];
+      int middle = taps / 2;
+      double sum = 0;
+
+      for (int i = 0; i < taps; i++) {
+        int n = i - middle;
+        double sinc = n == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * n) / (Math.PI * n);
+        double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * i / (taps - 1)) + 0.08 * Math.cos(4 * Math.PI * i / (taps - 1));
+        coefficients[i] = (float) (sinc * window);
+        sum += coefficients[i];
+      }
+
+      for (int i = 0; i < taps; i++) {
+        coefficients[i] /= sum;
+      }
+      return coefficients;
+    }
+
+    int getOutputCapacity(int inputSamples) {
+      return ((int) Math.ceil(inputSamples / inputChannels / step) + 2) * outputChannels;
+    }
+
+    /**
+     * Converts {@code length} input samples into {@code output} and returns the number of
+     * samples written.
+     */
+    int process(short[] input, int length, short[] output) {
+      int frames = length / inputChannels;
+      short[] source = mix(input, frames);
+      if (filter != null) {
+        source = lowPass(source, frames);
+      }
+
+      if (step == 1) {
+        System.arraycopy(source, 0, output, 0, frames * outputChannels);
+        return frames * outputChannels;
+      }
+
+      int written = 0;
+      while (position < frames) {
+        int index = (int) position;
+        double fraction = position - index;
+        for (int c = 0; c < outputChannels; c++) {
+          int a = index == 0 ? previous[c] : source[(index - 1) * outputChannels + c];
+          int b = source[index * outputChannels + c];
+          output[written++] = (short) Math.round(a + (b - a) * fraction);
+        }
+        position += step;
+      }
+
+      if (frames > 0) {
+        System.arraycopy(source, (frames - 1) * outputChannels, previous, 0, outputChannels);
+        position -= frames;
+      }
+      return written;
+    }
+
+    private short[] lowPass(short[] source, int frames) {
+      int channels = outputChannels;
+      int kept = history.length;
+      int samples = frames * channels;
+
+      if (extended.length < kept + samples) {
+        extended = new short[kept + samples];
+        filtered = new short[samples];
+      }
+      System.arraycopy(history, 0, extended, 0, kept);
+      System.arraycopy(source, 0, extended, kept, samples);
+
+      for (int i = 0; i < frames; i++) {
+        for (int c = 0; c < channels; c++) {
+          float sum = 0;
+          int sample = i * channels + c;
+          for (int k = 0; k < filter.length; k++) {
+            sum += filter[k] * extended[sample + k * channels];
+          }
+          filtered[sample] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sum)));
+        }
+      }
+
+      System.arraycopy(extended, samples, history, 0, kept);
+      return filtered;
+    }
+
+    private short[] mix(short[] input, int frames) {
+      if (inputChannels == outputChannels) {
+        return input;
+      }
+
+      if (mixed.length < frames * outputChannels) {
+        mixed = new short[frames * outputChannels];
+      }
+
+      for (int i = 0; i < frames; i++) {
+        if (outputChannels == 1) {
+          int sum = 0;
+          for (int c = 0; c < inputChannels; c++) {
+            sum += input[i * inputChannels + c];
+          }
+          mixed[i] = (short) (sum / inputChannels);
+        } else {
+          for (int c = 0; c < outputChannels; c++) {
+            mixed[i * outputChannels + c] = input[i * inputChannels + Math.min(c, inputChannels - 1)];
+          }
+        }
+      }
+
+      return mixed;
+    }
+  }
+}
@@ -0,0 +1,256 @@
+package com.rnim.rn.audio;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.util.Log;
+
+/**
+ * `upload` and `cancelUpload`: runs {@link ChunkedUpload}s of finished files or of recordings
+ * still being made, remembering how far each got in an {@link UploadState}.
+ */
+class UploadController {
+
+  private static final String TAG = "ReactNativeAudio";
+
+  private static final String EventProgress = "uploadProgress";
+
+  private static final int MaxConcurrentUploads = 2;
+  private static final int MaxPendingUploads = 16;
+  private static final int MaxUploadChunkSize = 16 * 1024 * 1024;
+
+  private final RecorderModule module;
+  private final PinnedPaths pinnedPaths;
+  private final File stateDirectory;
+
+  // Uploads run here, a few at a time so they don't take all of the bandwidth, and are kept by
+  // upload id so that `cancelUpload` can stop them
+  private final ThreadPoolExecutor executor;
+  private final ConcurrentHashMap<String, Future<?>> uploads = new ConcurrentHashMap<>();
+
+  UploadController(RecorderModule module, PinnedPaths pinnedPaths, File stateDirectory) {
+    this.module = module;
+    this.pinnedPaths = pinnedPaths;
+    this.stateDirectory = stateDirectory;
+
+    executor = new ThreadPoolExecutor(MaxConcurrentUploads, MaxConcurrentUploads, 30, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(MaxPendingUploads), AudioRecorderManager.createBackgroundThreadFactory(TAG + "-upload"));
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  void upload(ReadableMap settings, final Promise promise) {
+    final ChunkedUpload.Options options = new ChunkedUpload.Options();
+    final String path;
+    final String sessionId;
+    final String id;
+    File file;
+    ChunkedUpload.Source source = ChunkedUpload.COMPLETE;
+
+    try {
+      options.url = settings.getString("Url");
+      options.method = settings.hasKey("Method") ? settings.getString("Method") : options.method;
+      options.chunkSize = settings.hasKey("ChunkSize") ? settings.getInt("ChunkSize") : options.chunkSize;
+      options.maxRetries = settings.hasKey("MaxRetries") ? settings.getInt("MaxRetries") : options.maxRetries;
+      options.headers = settings.hasKey("Headers") ? readHeaders(settings.getMap("Headers")) : null;
+      sessionId = settings.hasKey("SessionId") ? settings.getString("SessionId") : null;
+
+      if (options.url == null || !(options.url.startsWith("http://") || options.url.startsWith("https://"))) {
+        throw new IllegalArgumentException("Url must be an http or https URL");
+      }
+      if (options.chunkSize <= 0 || options.chunkSize > MaxUploadChunkSize) {
+        throw new IllegalArgumentException("ChunkSize must be between 1 and " + MaxUploadChunkSize);
+      }
+    } catch (RuntimeException e) {
+      module.logAndRejectPromise(promise, AudioRecorderManager.InvalidStateError, "Invalid upload settings: " + e.getMessage());
+      return;
+    }
+
+    if (sessionId != null) {
+      final RecordingSession session = module.getSession(sessionId);
+      if (session == null || !session.isRecording) {
+        module.logAndRejectPromise(promise, AudioRecorderManager.RecorderNotPreparedError, "Session " + sessionId + " is not recording");
+        return;
+      }
+      if (session.isSegmenting()) {
+        module.logAndRejectPromise(promise, AudioRecorderManager.InvalidStateError, "Upload the files of segmentFinished events of a segmented recording instead");
+        return;
+      }
+      if (session.hasSegments()) {
+        module.logAndRejectPromise(promise, AudioRecorderManager.InvalidStateError, "The recording continued into another file after an interruption, upload its files once it finished");
+        return;
+      }
+      if (!isStreamableFormat(session.outputFormat)) {
+        module.logAndRejectPromise(promise, AudioRecorderManager.InvalidStateError, "A " + session.outputFormat + " recording is rewritten when it stops and can only be uploaded once finished");
+        return;
+      }
+
+      path = session.outputFilePath;
+      // A warm recorder writes elsewhere until it stops. The file keeps being read through the
+      // open channel when it is moved.
+      file = session.warmFile != null ? session.warmFile : new File(path);
+      options.headerSize = AudioRecorderManager.WavAudioOutputFormat.equals(session.outputFormat) ? WavHeader.SIZE : 0;
+      source = new ChunkedUpload.Source() {
+        @Override
+        public boolean isComplete() throws IOException {
+          // MediaRecorder continues into a new file after an interruption, which this upload
+          // doesn't follow
+          if (session.getSegmentCount() > 1) {
+            throw new IOException("The recording continued into another file after an interruption");
+          }
+          if (module.getSession(session.id) == session && session.isRecording) {
+            return false;
+          }
+          // Failed or destroyed recordings are deleted, what was read of them is no recording
+          if (!session.finished) {
+            throw new IOException("The recording failed before it was finished");
+          }
+          return true;
+        }
+      };
+    } else if (settings.hasKey("Path")) {
+      path = settings.getString("Path");
+      file = new File(path);
+      if (!file.isFile()) {
+        module.logAndRejectPromise(promise, AudioRecorderManager.NoRecordDataFoundError, "There is no file at " + path);
+        return;
+      }
+    } else {
+      module.logAndRejectPromise(promise, AudioRecorderManager.InvalidStateError, "Give either the Path or the SessionId to upload");
+      return;
+    }
+
+    id = settings.hasKey("UploadId") ? settings.getString("UploadId") : getUploadId(path, options.url);
+    final UploadState state = UploadState.load(stateDirectory, id, options.url, path);
+    final File input = file;
+    final ChunkedUpload.Source uploadSource = source;
+    final String[] usedPaths = {path, input.getPath()};
+    // Settles the promise once, whether the upload ran or was cancelled while queued
+    final AtomicBoolean settled = new AtomicBoolean(false);
+
+    FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+      @Override
+      public void run() {
+        if (!settled.compareAndSet(false, true)) {
+          return;
+        }
+
+        try {
+          ChunkedUpload.Result result = new ChunkedUpload(input, uploadSource, options, state, new ChunkedUpload.Listener() {
+            @Override
+            public void onProgress(long sent, long total) {
+              WritableMap body = sessionId != null ? module.createEventBody(sessionId) : Arguments.createMap();
+              body.putString("id", id);
+              body.putString("path", path);
+              body.putDouble("sent", sent);
+              body.putDouble("total", total);
+
+              module.sendEvent(EventProgress, body);
+            }
+          }).run();
+          if (!state.delete()) {
+            Log.w(TAG, "Failed to delete the state of upload " + id);
+          }
+
+          WritableMap body = Arguments.createMap();
+          body.putString("id", id);
+          body.putString("path", path);
+          body.putDouble("size", result.size);
+          body.putInt("status", result.status);
+          body.putString("response", result.response);
+          promise.resolve(body);
+        } catch (InterruptedIOException e) {
+          module.logAndRejectPromise(promise, AudioRecorderManager.UploadFailedError, "Upload " + id + " was cancelled at " + state.offset + " bytes");
+        } catch (IOException | RuntimeException e) {
+          module.logAndRejectPromise(promise, AudioRecorderManager.UploadFailedError, "Upload " + id + " failed at " + state.offset + " bytes with error: " + e.getMessage());
+        }
+      }
+    }, null) {
+      @Override
+      protected void done() {
+        uploads.remove(id, this);
+        pinnedPaths.unpin(usedPaths);
+        if (isCancelled() && settled.compareAndSet(false, true)) {
+          module.logAndRejectPromise(promise, AudioRecorderManager.UploadFailedError, "Upload " + id + " was cancelled before it started");
+        }
+      }
+    };
+
+    if (uploads.putIfAbsent(id, task) != null) {
+      module.logAndRejectPromise(promise, AudioRecorderManager.InvalidStateError, "Upload " + id + " is already running");
+      return;
+    }
+
+    pinnedPaths.pin(usedPaths);
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      uploads.remove(id, task);
+      pinnedPaths.unpin(usedPaths);
+      settled.set(true);
+      module.logAndRejectPromise(promise, AudioRecorderManager.InvalidStateError, "Too many uploads are waiting, or the module is being destroyed");
+    }
+  }
+
+  void cancel(String id, Promise promise) {
+    Future<?> task = uploads.remove(id);
+    if (task != null) {
+      task.cancel(true);
+    }
+    promise.resolve(task != null);
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private static Map<String, String> readHeaders(ReadableMap headers) {
+    Map<String, String> result = new HashMap<>();
+    ReadableMapKeySetIterator iterator = headers.keySetIterator();
+    while (iterator.hasNextKey()) {
+      String name = iterator.nextKey();
+      result.put(name, headers.getString(name));
+    }
+    return result;
+  }
+
+  /**
+   * Formats whose bytes stay as they are once written, so they can be sent while the recording
+   * goes on. A WAV header is the exception, it is sent again at the end.
+   */
+  private static boolean isStreamableFormat(String outputFormat) {
+    switch (outputFormat) {
+      case AudioRecorderManager.AacAdtsAudioOutputFormat:
+      case AudioRecorderManager.AmrNbAudioOutputFormat:
+      case AudioRecorderManager.AmrWbAudioOutputFormat:
+      case AudioRecorderManager.Mpeg2TsAudioOutputFormat:
+      case AudioRecorderManager.WavAudioOutputFormat:
+      case AudioRecorderManager.RawPcmAudioOutputFormat:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static String getUploadId(String path, String url) {
+    return UUID.nameUUIDFromBytes((url + "\n" + path).getBytes(Charset.forName("UTF-8"))).toString();
+  }
+}
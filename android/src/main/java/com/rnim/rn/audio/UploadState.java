@@ -0,0 +1,103 @@
+package com.rnim.rn.audio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * How far an upload got, kept in `<directory>/<id>.upload` so that an upload that was cancelled,
+ * failed or killed with the app continues where it stopped when it is started again.
+ */
+class UploadState {
+
+  static final String EXTENSION = ".upload";
+
+  private static final int MAGIC = 0x524E5550;  // "RNUP"
+  private static final int VERSION = 1;
+
+  final String url;
+  final String path;
+  long offset = 0;
+
+  private final File file;
+
+  private UploadState(File file, String url, String path) {
+    this.file = file;
+    this.url = url;
+    this.path = path;
+  }
+
+  /**
+   * The saved state of upload {@code id}, or a fresh one when there is none or it was for
+   * another file or URL.
+   */
+  static UploadState load(File directory, String id, String url, String path) {
+    File file = new File(directory, id + EXTENSION);
+    UploadState state = new UploadState(file, url, path);
+
+    if (!file.exists()) {
+      return state;
+    }
+
+    try {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+          return state;
+        }
+        if (url.equals(input.readUTF()) && path.equals(input.readUTF())) {
+          state.offset = input.readLong();
+        }
+      } finally {
+        input.close();
+      }
+    } catch (IOException e) {
+      // Unreadable, most likely cut short by a crash before the rename, so the upload starts over
+      state.offset = 0;
+    }
+
+    return state;
+  }
+
+  /**
+   * Writes the state next to its file and renames it into place, so that a crash leaves either
+   * the old or the new state.
+   */
+  void save() throws IOException {
+    File directory = file.getParentFile();
+    if (directory != null && !directory.exists() && !directory.mkdirs()) {
+      throw new IOException("Failed to create " + directory.getPath());
+    }
+
+    File temporary = new File(file.getPath() + ".tmp");
+    FileOutputStream stream = new FileOutputStream(temporary);
+    try {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeUTF(url);
+      output.writeUTF(path);
+      output.writeLong(offset);
+      output.flush();
+      stream.getFD().sync();
+    } finally {
+      stream.close();
+    }
+
+    if (!temporary.renameTo(file)) {
+      throw new IOException("Failed to save upload state " + file.getPath());
+    }
+  }
+
+  /**
+   * Returns false when the state is still there.
+   */
+  boolean delete() {
+    return !file.exists() || file.delete();
+  }
+}
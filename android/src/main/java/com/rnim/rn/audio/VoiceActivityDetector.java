@@ -0,0 +1,193 @@
+package com.rnim.rn.audio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Energy and zero-crossing voice activity detector.
+ *
+ * Samples are analysed in 20 ms frames. A frame counts as speech when its RMS level is above the
+ * energy threshold and its zero-crossing rate is below the ZCR threshold (broadband noise crosses
+ * zero far more often than voiced speech). Speech lasts until no speech frame has been seen for
+ * the hangover time, so short pauses between words don't split a segment.
+ *
+ * As a {@link PcmRecorder.Gate} it lets the recorder skip buffers that are pure silence. It also
+ * keeps the silent segments, in frames of the captured signal, to write them as a sidecar index.
+ */
+class VoiceActivityDetector implements PcmProcessor, PcmRecorder.Gate {
+
+  interface Listener {
+    /**
+     * Called on the recorder's writer thread.
+     *
+     * @param frame index of the first frame of the transition in the captured signal
+     */
+    void onSpeechStart(long frame);
+
+    void onSpeechEnd(long frame);
+  }
+
+  static final String SkipSilence = "skip_silence";
+  static final String IndexSilence = "index";
+
+  private static final int FRAME_DURATION_MS = 20;
+  private static final int MAX_SILENT_SEGMENTS = 8192;
+
+  private final int sampleRate;
+  private final int channels;
+  private final double energyThreshold;  // mean square
+  private final double zeroCrossingThreshold;
+  private final int frameLength;  // frames per analysis frame
+  private final int hangoverFrames;  // analysis frames
+  private final Listener listener;
+
+  // Current analysis frame
+  private long sumOfSquares;
+  private int crossings;
+  private int count;
+  private int lastSign;
+
+  private boolean speech = false;
+  private boolean speechInBlock = false;
+  private int framesSinceSpeech = 0;
+  private long framesSeen = 0;
+
+  // Silent segments as [start, end) frame pairs; the last one is open while silent. Allocated up
+  // front as they are added on the writer thread, segments past the cap are only counted
+  private final long[] silence = new long[MAX_SILENT_SEGMENTS * 2];
+  private int silenceLength = 0;
+  private boolean silenceOpen = false;
+  private int droppedSilence = 0;
+
+  /**
+   * @param energyThresholdDb RMS level in dBFS above which a frame may be speech
+   * @param zeroCrossingThreshold fraction of samples, between 0 and 1, that may cross zero in a
+   * speech frame
+   * @param hangover milliseconds speech is held after the last speech frame
+   */
+  VoiceActivityDetector(int sampleRate, int channels, double energyThresholdDb, double zeroCrossingThreshold,
+                        int hangover, Listener listener) {
+    double amplitude = 32767d * Math.pow(10, energyThresholdDb / 20);
+
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.energyThreshold = amplitude * amplitude;
+    this.zeroCrossingThreshold = zeroCrossingThreshold;
+    this.frameLength = Math.max(1, sampleRate * FRAME_DURATION_MS / 1000);
+    this.hangoverFrames = Math.max(0, hangover / FRAME_DURATION_MS);
+    this.listener = listener;
+
+    openSilence(0);
+  }
+
+  @Override
+  public void process(short[] samples, int length) {
+    speechInBlock = speech;
+
+    for (int i = 0; i < length; i += channels) {
+      int sample = samples[i];
+      for (int channel = 1; channel < channels; channel++) {
+        sample += samples[i + channel];
+      }
+      sample /= channels;
+
+      sumOfSquares += sample * sample;
+
+      int sign = sample > 0 ? 1 : sample < 0 ? -1 : 0;
+      if (sign != 0) {
+        if (lastSign != 0 && sign != lastSign) {
+          crossings++;
+        }
+        lastSign = sign;
+      }
+
+      framesSeen++;
+      if (++count == frameLength) {
+        endFrame();
+      }
+    }
+  }
+
+  @Override
+  public boolean shouldWrite() {
+    return speechInBlock;
+  }
+
+  boolean isSpeech() {
+    return speech;
+  }
+
+  /**
+   * Writes the silent segments as JSON: `{"sampleRate":..,"silence":[[start,end],..]}`, with
+   * positions in seconds, and `"droppedSilence"` when there were more segments than kept.
+   * {@code totalFrames} closes a segment still open at the end.
+   */
+  void writeIndex(File file, long totalFrames) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+    try {
+      writer.write("{\"sampleRate\":" + sampleRate + ",\"silence\":[");
+
+      for (int i = 0; i < silenceLength; i += 2) {
+        long end = i + 1 < silenceLength ? silence[i + 1] : totalFrames;
+        if (i > 0) {
+          writer.write(',');
+        }
+        writer.write("[" + silence[i] / (double) sampleRate + "," + Math.max(silence[i], end) / (double) sampleRate + "]");
+      }
+
+      writer.write("]");
+      if (droppedSilence > 0) {
+        writer.write(",\"droppedSilence\":" + droppedSilence);
+      }
+      writer.write("}");
+    } finally {
+      writer.close();
+    }
+  }
+
+  private void endFrame() {
+    double meanSquare = (double) sumOfSquares / count;
+    double zeroCrossingRate = (double) crossings / count;
+    long frameStart = framesSeen - count;
+
+    sumOfSquares = 0;
+    crossings = 0;
+    count = 0;
+
+    boolean voiced = meanSquare >= energyThreshold && zeroCrossingRate <= zeroCrossingThreshold;
+
+    if (voiced) {
+      framesSinceSpeech = 0;
+      if (!speech) {
+        speech = true;
+        speechInBlock = true;
+        closeSilence(frameStart);
+        listener.onSpeechStart(frameStart);
+      }
+    } else if (speech && ++framesSinceSpeech > hangoverFrames) {
+      speech = false;
+      openSilence(framesSeen);
+      listener.onSpeechEnd(framesSeen);
+    }
+  }
+
+  private void openSilence(long frame) {
+    if (silenceLength == silence.length) {
+      droppedSilence++;
+      return;
+    }
+    silence[silenceLength++] = frame;
+    silenceOpen = true;
+  }
+
+  private void closeSilence(long frame) {
+    if (silenceOpen) {
+      silence[silenceLength++] = frame;
+      silenceOpen = false;
+    }
+  }
+}
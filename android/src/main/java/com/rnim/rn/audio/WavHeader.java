@@ -0,0 +1,48 @@
+package com.rnim.rn.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Canonical 44 byte RIFF/WAVE header for 16 bit PCM.
+ */
+class WavHeader {
+
+  static final int SIZE = 44;
+
+  private static final long MAX_DATA_SIZE = 0xFFFFFFFFL - (SIZE - 8);
+
+  private final ByteBuffer buffer = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+  /**
+   * Writes the header at the start of {@code channel} without moving the channel position.
+   * {@code dataSize} is clamped to what a RIFF file can describe.
+   */
+  void write(FileChannel channel, int sampleRate, int channels, int bitsPerSample, long dataSize) throws IOException {
+    int clampedSize = (int) Math.min(dataSize, MAX_DATA_SIZE);
+    int blockAlign = channels * bitsPerSample / 8;
+
+    buffer.clear();
+    buffer.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+    buffer.putInt(clampedSize + SIZE - 8);
+    buffer.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+    buffer.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+    buffer.putInt(16);                          // fmt chunk size
+    buffer.putShort((short) 1);                 // PCM
+    buffer.putShort((short) channels);
+    buffer.putInt(sampleRate);
+    buffer.putInt(sampleRate * blockAlign);     // byte rate
+    buffer.putShort((short) blockAlign);
+    buffer.putShort((short) bitsPerSample);
+    buffer.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+    buffer.putInt(clampedSize);
+    buffer.flip();
+
+    long position = 0;
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package com.rnim.rn.audio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Builds a min/max peaks pyramid while recording, so a waveform can be drawn later without
+ * decoding the audio again.
+ *
+ * Every level keeps one min/max pair per bucket of {@link #BUCKET_SIZES} frames, all channels
+ * mixed. Only the finest level looks at samples; each coarser level is merged from the
+ * completed buckets of the level below. As the pairs are added on the writer thread, each level
+ * is allocated up front for the maximum duration and holds at most {@link #MAX_BUCKETS} pairs.
+ * Buckets past that are dropped, so a level that is full covers only the start of a long
+ * recording and {@link #read} uses a coarser one.
+ *
+ * The sidecar file is big endian: magic, version, sample rate, channels, frame count, level
+ * count, then the bucket size and bucket count of each level, then the interleaved min/max
+ * shorts of each level.
+ */
+class WaveformPeaks implements PcmProcessor {
+
+  static final int[] BUCKET_SIZES = {256, 1024, 4096};
+  static final String SIDECAR_EXTENSION = ".peaks";
+
+  // 1 MB per level: 23 minutes at 48 kHz in the finest level and 6 hours in the coarsest
+  static final int MAX_BUCKETS = 1 << 18;
+
+  private static final int MAGIC = 0x524E5750;  // "RNWP"
+  private static final short VERSION = 1;
+
+  private static class Level {
+    final int bucketSize;
+    final short[] pairs;
+    int length;  // shorts used in pairs
+
+    int min = Short.MAX_VALUE;
+    int max = Short.MIN_VALUE;
+    int frames;
+
+    Level(int bucketSize, int buckets) {
+      this.bucketSize = bucketSize;
+      this.pairs = new short[buckets * 2];
+    }
+  }
+
+  /**
+   * Peaks read back from a sidecar, scaled to [-1, 1].
+   */
+  static class Waveform {
+    int sampleRate;
+    long frames;
+    int bucketSize;
+    float[] min;
+    float[] max;
+  }
+
+  private final int sampleRate;
+  private final int channels;
+  private final Level[] levels;
+  private long frames = 0;
+
+  /**
+   * @param maxDuration MilliSeconds the recording may last, 0 when it has no limit
+   */
+  WaveformPeaks(int sampleRate, int channels, int maxDuration) {
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.levels = new Level[BUCKET_SIZES.length];
+
+    long maxFrames = maxDuration > 0 ? (long) sampleRate * maxDuration / 1000 : Long.MAX_VALUE;
+    for (int i = 0; i < BUCKET_SIZES.length; i++) {
+      // One more bucket for the buffer that crosses the limit
+      long buckets = maxFrames / BUCKET_SIZES[i] + 2;
+      levels[i] = new Level(BUCKET_SIZES[i], (int) Math.min(buckets, MAX_BUCKETS));
+    }
+  }
+
+  @Override
+  public void process(short[] samples, int length) {
+    Level finest = levels[0];
+
+    for (int i = 0; i < length; i += channels) {
+      for (int channel = 0; channel < channels; channel++) {
+        int sample = samples[i + channel];
+        if (sample < finest.min) {
+          finest.min = sample;
+        }
+        if (sample > finest.max) {
+          finest.max = sample;
+        }
+      }
+
+      if (++finest.frames == finest.bucketSize) {
+        completeBucket(0);
+      }
+    }
+
+    frames += length / channels;
+  }
+
+  /**
+   * Closes the partially filled buckets and writes the pyramid to {@code file}.
+   */
+  void write(File file) throws IOException {
+    for (int i = 0; i < levels.length; i++) {
+      if (levels[i].frames > 0) {
+        completeBucket(i);
+      }
+    }
+
+    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+    try {
+      output.writeInt(MAGIC);
+      output.writeShort(VERSION);
+      output.writeInt(sampleRate);
+      output.writeShort(channels);
+      output.writeLong(frames);
+      output.writeShort(levels.length);
+
+      for (Level level : levels) {
+        output.writeInt(level.bucketSize);
+        output.writeInt(level.length / 2);
+      }
+
+      for (Level level : levels) {
+        for (int i = 0; i < level.length; i++) {
+          output.writeShort(level.pairs[i]);
+        }
+      }
+    } finally {
+      output.close();
+    }
+  }
+
+  /**
+   * Reads about {@code buckets} min/max pairs from a sidecar, using the coarsest level that
+   * still has enough resolution and only reading that level. Levels that were full before the
+   * recording ended are skipped, unless all of them were.
+   */
+  static Waveform read(File file, int buckets) throws IOException {
+    DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+    try {
+      if (input.readInt() != MAGIC || input.readShort() != VERSION) {
+        throw new IOException("Not a waveform file: " + file.getPath());
+      }
+
+      Waveform waveform = new Waveform();
+      waveform.sampleRate = input.readInt();
+      input.readShort();  // channels
+      waveform.frames = input.readLong();
+
+      int levelCount = input.readShort();
+      int[] bucketSizes = new int[levelCount];
+      int[] bucketCounts = new int[levelCount];
+      for (int i = 0; i < levelCount; i++) {
+        bucketSizes[i] = input.readInt();
+        bucketCounts[i] = input.readInt();
+      }
+
+      // From the coarsest level down, the first that covers the recording and has enough buckets
+      int chosen = levelCount - 1;
+      for (int i = levelCount - 1; i >= 0; i--) {
+        if (bucketCounts[i] < (waveform.frames + bucketSizes[i] - 1) / bucketSizes[i]) {
+          continue;
+        }
+        chosen = i;
+        if (bucketCounts[i] >= buckets) {
+          break;
+        }
+      }
+
+      long skip = 0;
+      for (int i = 0; i < chosen; i++) {
+        skip += bucketCounts[i] * 4L;
+      }
+      skipFully(input, skip);
+
+      int count = bucketCounts[chosen];
+      int outputCount = Math.max(1, Math.min(buckets, count));
+      waveform.bucketSize = bucketSizes[chosen];
+      waveform.min = new float[count == 0 ? 0 : outputCount];
+      waveform.max = new float[count == 0 ? 0 : outputCount];
+      Arrays.fill(waveform.min, 1f);
+      Arrays.fill(waveform.max, -1f);
+
+      // Merge source buckets into the requested number of output buckets
+      for (int i = 0; i < count; i++) {
+        int target = (int) ((long) i * outputCount / count);
+        float min = input.readShort() / 32768f;
+        float max = input.readShort() / 32768f;
+
+        if (min < waveform.min[target]) {
+          waveform.min[target] = min;
+        }
+        if (max > waveform.max[target]) {
+          waveform.max[target] = max;
+        }
+      }
+
+      return waveform;
+    } finally {
+      input.close();
+    }
+  }
+
+  private void completeBucket(int index) {
+    Level level = levels[index];
+
+    if (level.length < level.pairs.length) {
+      level.pairs[level.length++] = (short) level.min;
+      level.pairs[level.length++] = (short) level.max;
+    }
+
+    if (index + 1 < levels.length) {
+      Level parent = levels[index + 1];
+      if (level.min < parent.min) {
+        parent.min = level.min;
+      }
+      if (level.max > parent.max) {
+        parent.max = level.max;
+      }
+
+      parent.frames += level.frames;
+      if (parent.frames == parent.bucketSize) {
+        completeBucket(index + 1);
+      }
+    }
+
+    level.min = Short.MAX_VALUE;
+    level.max = Short.MIN_VALUE;
+    level.frames = 0;
+  }
+
+  private static void skipFully(DataInputStream input, long count) throws IOException {
+    while (count > 0) {
+      long skipped = input.skip(count);
+      if (skipped <= 0) {
+        throw new IOException("Unexpected end of waveform file");
+      }
+      count -= skipped;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package com.rnim.rn.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Base64StreamEncoderTest {
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  // Around the 3 byte groups, the 57 byte lines and the 114 byte chunks used below
+  private static final int[] SIZES = {0, 1, 2, 3, 4, 56, 57, 58, 113, 114, 115, 227, 228, 229, 1000, 4096};
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void alignsTheChunkSize() {
+    assertEquals(99, new Base64StreamEncoder(100, false).getChunkSize());
+    assertEquals(57, new Base64StreamEncoder(100, true).getChunkSize());
+    assertEquals(3, new Base64StreamEncoder(1, false).getChunkSize());
+    assertEquals(57, new Base64StreamEncoder(1, true).getChunkSize());
+  }
+
+  @Test
+  public void encodesLikeTheJdkWithoutLineWrap() throws IOException {
+    Base64StreamEncoder encoder = new Base64StreamEncoder(114, false);
+
+    for (int size : SIZES) {
+      byte[] data = createData(size);
+      String encoded = encoder.encodeToString(writeFile(data));
+
+      assertEquals("size " + size, Base64.getEncoder().encodeToString(data), encoded);
+      assertEquals("size " + size, Base64StreamEncoder.encodedLength(size, false), encoded.length());
+    }
+  }
+
+  @Test
+  public void wrapsLinesLikeAndroidDefault() throws IOException {
+    Base64StreamEncoder encoder = new Base64StreamEncoder(114, true);
+
+    for (int size : SIZES) {
+      byte[] data = createData(size);
+      String encoded = encoder.encodeToString(writeFile(data));
+
+      // android.util.Base64.DEFAULT ends every line, the last one too, with a newline
+      String expected = Base64.getMimeEncoder(76, new byte[]{'\n'}).encodeToString(data);
+      if (size > 0) {
+        expected += "\n";
+      }
+      assertEquals("size " + size, expected, encoded);
+      assertEquals("size " + size, Base64StreamEncoder.encodedLength(size, true), encoded.length());
+    }
+  }
+
+  @Test
+  public void roundTrips() throws IOException {
+    byte[] data = createData(100000);
+
+    assertArrayEquals(data, Base64.getDecoder().decode(new Base64StreamEncoder(1000, false).encodeToString(writeFile(data))));
+    assertArrayEquals(data, Base64.getMimeDecoder().decode(new Base64StreamEncoder(1000, true).encodeToString(writeFile(data))));
+  }
+
+  @Test
+  public void handsWholeChunksToTheSink() throws IOException {
+    final Base64StreamEncoder encoder = new Base64StreamEncoder(114, false);
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final int[] writes = {0};
+    byte[] data = createData(300);
+
+    long read = encoder.encode(writeFile(data), new Base64StreamEncoder.Sink() {
+      @Override
+      public void write(byte[] encoded, int length) {
+        // Every chunk but the last is a whole number of groups, so it never ends in padding
+        if (writes[0]++ < 2) {
+          assertEquals(Base64StreamEncoder.encodedLength(encoder.getChunkSize(), false), length);
+        }
+        output.write(encoded, 0, length);
+      }
+    });
+
+    assertEquals(300, read);
+    assertEquals(3, writes[0]);
+    assertEquals(Base64.getEncoder().encodeToString(data), new String(output.toByteArray(), ASCII));
+  }
+
+  @Test
+  public void feedsTheChecksum() throws IOException {
+    byte[] data = createData(5000);
+    CRC32 checksum = new CRC32();
+    CRC32 expected = new CRC32();
+    expected.update(data, 0, data.length);
+
+    new Base64StreamEncoder(1000, false).encode(writeFile(data), new Base64StreamEncoder.Sink() {
+      @Override
+      public void write(byte[] encoded, int length) {
+      }
+    }, checksum);
+
+    assertEquals(expected.getValue(), checksum.getValue());
+  }
+
+  @Test(expected = IOException.class)
+  public void refusesFilesTooLongForOneString() throws IOException {
+    // Sparse, nothing is read before the length is checked
+    File file = folder.newFile();
+    RandomAccessFile output = new RandomAccessFile(file, "rw");
+    try {
+      output.setLength(2L * 1024 * 1024 * 1024);
+    } finally {
+      output.close();
+    }
+
+    new Base64StreamEncoder(Base64StreamEncoder.DEFAULT_CHUNK_SIZE, true).encodeToString(file);
+  }
+
+  private File writeFile(byte[] data) throws IOException {
+    File file = folder.newFile();
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      output.write(data);
+    } finally {
+      output.close();
+    }
+    return file;
+  }
+
+  private static byte[] createData(int size) {
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) (i * 151 + (i >> 8));
+    }
+    return data;
+  }
+}
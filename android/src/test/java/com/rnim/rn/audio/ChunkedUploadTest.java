@@ -0,0 +1,302 @@
+package com.rnim.rn.audio;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs uploads against a local HTTP server that records every request and answers with scripted
+ * responses, accepting chunks with 308 and the last one with 200 by default.
+ */
+public class ChunkedUploadTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private HttpServer server;
+  private String url;
+  private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+  private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+  // Scripted answers as {status, Range header or null}, taken one per request
+  private final Queue<Object[]> responses = new LinkedList<>();
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/upload", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Content-Range");
+        ranges.add(range);
+        byte[] body = readAll(exchange.getRequestBody());
+
+        Object[] response;
+        synchronized (responses) {
+          response = responses.poll();
+        }
+
+        int status;
+        if (response != null) {
+          status = (Integer) response[0];
+          if (response[1] != null) {
+            exchange.getResponseHeaders().set("Range", (String) response[1]);
+          }
+        } else {
+          status = isLast(range) ? 200 : 308;
+        }
+
+        if (status == 200 || status == 308) {
+          synchronized (received) {
+            received.write(body);
+          }
+        } else {
+          // So that the retry gets a fresh connection rather than one the server dropped
+          exchange.getResponseHeaders().set("Connection", "close");
+        }
+
+        byte[] answer = (status == 200 ? "done" : "").getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, answer.length > 0 ? answer.length : -1);
+        OutputStream output = exchange.getResponseBody();
+        output.write(answer);
+        output.close();
+      }
+    });
+    server.start();
+    url = "http://127.0.0.1:" + server.getAddress().getPort() + "/upload";
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void sendsChunksWithContentRange() throws IOException {
+    byte[] data = createData(2500);
+    File file = writeFile("take.wav", data);
+
+    ChunkedUpload.Result result = createUpload(file, ChunkedUpload.COMPLETE, createOptions(), createState(file)).run();
+
+    assertEquals(Arrays.asList("bytes 0-999/2500", "bytes 1000-1999/2500", "bytes 2000-2499/2500"), ranges);
+    assertArrayEquals(data, received.toByteArray());
+    assertEquals(2500, result.size);
+    assertEquals(200, result.status);
+    assertEquals("done", result.response);
+  }
+
+  @Test
+  public void continuesFromTheRangeTheServerHas() throws IOException {
+    File file = writeFile("take.wav", createData(2500));
+    responses.add(new Object[]{308, "bytes=0-499"});
+
+    createUpload(file, ChunkedUpload.COMPLETE, createOptions(), createState(file)).run();
+
+    assertEquals(Arrays.asList("bytes 0-999/2500", "bytes 500-1499/2500", "bytes 1500-2499/2500"), ranges);
+  }
+
+  @Test
+  public void retriesServerErrors() throws IOException {
+    File file = writeFile("take.wav", createData(1500));
+    responses.add(new Object[]{500, null});
+    responses.add(new Object[]{503, null});
+
+    ChunkedUpload.Result result = createUpload(file, ChunkedUpload.COMPLETE, createOptions(), createState(file)).run();
+
+    assertEquals(Arrays.asList("bytes 0-999/1500", "bytes 0-999/1500", "bytes 0-999/1500", "bytes 1000-1499/1500"), ranges);
+    assertEquals(200, result.status);
+  }
+
+  @Test
+  public void givesUpAfterMaxRetries() throws IOException {
+    File file = writeFile("take.wav", createData(1500));
+    for (int i = 0; i < 3; i++) {
+      responses.add(new Object[]{500, null});
+    }
+
+    try {
+      createUpload(file, ChunkedUpload.COMPLETE, createOptions(), createState(file)).run();
+      fail("The upload should have failed");
+    } catch (IOException e) {
+      assertEquals(3, ranges.size());
+    }
+  }
+
+  @Test
+  public void doesNotRetryClientErrors() throws IOException {
+    File file = writeFile("take.wav", createData(1500));
+    responses.add(new Object[]{403, null});
+
+    try {
+      createUpload(file, ChunkedUpload.COMPLETE, createOptions(), createState(file)).run();
+      fail("The upload should have been rejected");
+    } catch (ChunkedUpload.RejectedException e) {
+      assertEquals(403, e.status);
+      assertEquals(1, ranges.size());
+    }
+  }
+
+  @Test
+  public void resumesFromTheSavedState() throws IOException {
+    byte[] data = createData(2500);
+    File file = writeFile("take.wav", data);
+    responses.add(new Object[]{308, null});
+    responses.add(new Object[]{400, null});
+
+    try {
+      createUpload(file, ChunkedUpload.COMPLETE, createOptions(), createState(file)).run();
+      fail("The upload should have been rejected");
+    } catch (ChunkedUpload.RejectedException e) {
+      // Stopped after the first chunk
+    }
+
+    UploadState state = createState(file);
+    assertEquals(1000, state.offset);
+    assertEquals(0, UploadState.load(folder.getRoot(), "upload", url + "?other", file.getPath()).offset);
+
+    ranges.clear();
+    createUpload(file, ChunkedUpload.COMPLETE, createOptions(), state).run();
+
+    assertEquals(Arrays.asList("bytes 1000-1999/2500", "bytes 2000-2499/2500"), ranges);
+    assertTrue(state.delete());
+    assertEquals(0, createState(file).offset);
+  }
+
+  @Test
+  public void sendsAGrowingFileInWholeChunksAndTheHeaderAgainAtTheEnd() throws Exception {
+    final File file = writeFile("take.wav", createData(1200));
+    final boolean[] complete = {false};
+    ChunkedUpload.Options options = createOptions();
+    options.headerSize = 44;
+
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+          FileOutputStream output = new FileOutputStream(file, true);
+          output.write(createData(1300));
+          output.close();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+        synchronized (complete) {
+          complete[0] = true;
+        }
+      }
+    });
+    writer.start();
+
+    createUpload(file, new ChunkedUpload.Source() {
+      @Override
+      public boolean isComplete() {
+        synchronized (complete) {
+          return complete[0];
+        }
+      }
+    }, options, createState(file)).run();
+    writer.join();
+
+    assertEquals("bytes 0-999/*", ranges.get(0));
+    assertTrue(ranges.contains("bytes 0-43/2500"));
+    assertEquals("bytes 2000-2499/2500", ranges.get(ranges.size() - 1));
+  }
+
+  @Test
+  public void failsWhenTheSourceFails() throws IOException {
+    File file = writeFile("take.wav", createData(500));
+
+    try {
+      createUpload(file, new ChunkedUpload.Source() {
+        @Override
+        public boolean isComplete() throws IOException {
+          throw new IOException("The recording failed before it was finished");
+        }
+      }, createOptions(), createState(file)).run();
+      fail("The upload should have failed");
+    } catch (IOException e) {
+      assertEquals("The recording failed before it was finished", e.getMessage());
+      assertTrue(ranges.isEmpty());
+    }
+  }
+
+  private ChunkedUpload createUpload(File file, ChunkedUpload.Source source, ChunkedUpload.Options options, UploadState state) {
+    return new ChunkedUpload(file, source, options, state, new ChunkedUpload.Listener() {
+      @Override
+      public void onProgress(long sent, long total) {
+      }
+    });
+  }
+
+  private ChunkedUpload.Options createOptions() {
+    ChunkedUpload.Options options = new ChunkedUpload.Options();
+    options.url = url;
+    options.chunkSize = 1000;
+    options.maxRetries = 2;
+    options.retryDelay = 1;
+    options.pollInterval = 10;
+    return options;
+  }
+
+  private UploadState createState(File file) {
+    return UploadState.load(folder.getRoot(), "upload", url, file.getPath());
+  }
+
+  private File writeFile(String name, byte[] data) throws IOException {
+    File file = new File(folder.getRoot(), name);
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      output.write(data);
+    } finally {
+      output.close();
+    }
+    return file;
+  }
+
+  private static byte[] createData(int size) {
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) (i * 31);
+    }
+    return data;
+  }
+
+  private static boolean isLast(String range) {
+    String[] parts = range.substring("bytes ".length()).split("[-/]");
+    return !"*".equals(parts[2]) && Long.parseLong(parts[1]) + 1 == Long.parseLong(parts[2]);
+  }
+
+  private static byte[] readAll(InputStream input) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = input.read(buffer)) > 0) {
+      output.write(buffer, 0, read);
+    }
+    return output.toByteArray();
+  }
+}
@@ -0,0 +1,182 @@
+package com.rnim.rn.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DspChainTest {
+
+  private static final int SAMPLE_RATE = 16000;
+
+  @Test
+  public void doublesWithSixDecibelsOfGain() {
+    short[] samples = {0, 100, -100, 1000};
+
+    new DspChain.FixedGain(20 * Math.log10(2)).process(samples, samples.length);
+
+    assertArrayEquals(new short[]{0, 200, -200, 2000}, samples);
+  }
+
+  @Test
+  public void clipsAtFullScale() {
+    short[] samples = {20000, -20000};
+
+    new DspChain.FixedGain(20).process(samples, samples.length);
+
+    assertArrayEquals(new short[]{Short.MAX_VALUE, Short.MIN_VALUE}, samples);
+  }
+
+  @Test
+  public void removesDcOffsetWithTheHighPassFilter() {
+    DspChain.HighPassFilter filter = new DspChain.HighPassFilter(SAMPLE_RATE, 2, 100);
+    short[] samples = new short[2 * SAMPLE_RATE / 10];
+    Arrays.fill(samples, (short) 5000);
+
+    filter.process(samples, samples.length);
+
+    assertEquals(5000, samples[0], 200);
+    assertEquals(0, samples[samples.length - 2], 10);
+    assertEquals(0, samples[samples.length - 1], 10);
+  }
+
+  @Test
+  public void keepsTonesAboveTheCutoff() {
+    DspChain.HighPassFilter filter = new DspChain.HighPassFilter(SAMPLE_RATE, 1, 100);
+    short[] samples = createTone(2000, 10000, SAMPLE_RATE / 10);
+
+    filter.process(samples, samples.length);
+
+    assertEquals(10000, peak(samples, samples.length / 2, samples.length), 500);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsACutoffAboveNyquist() {
+    new DspChain.HighPassFilter(SAMPLE_RATE, 1, SAMPLE_RATE / 2);
+  }
+
+  @Test
+  public void passesSignalAboveTheGateThreshold() {
+    DspChain.Gate gate = new DspChain.Gate(SAMPLE_RATE, 1, -40, 50, 20);
+    short[] samples = createTone(500, 3000, SAMPLE_RATE);
+    short[] original = samples.clone();
+
+    gate.process(samples, samples.length);
+
+    assertArrayEquals(original, samples);
+  }
+
+  @Test
+  public void closesAfterHoldAndRelease() {
+    // -60 dBFS is about 33, below the -40 dBFS (about 328) threshold
+    DspChain.Gate gate = new DspChain.Gate(SAMPLE_RATE, 1, -40, 50, 20);
+    short[] samples = createTone(500, 33, SAMPLE_RATE / 2);
+
+    gate.process(samples, samples.length);
+
+    int holdAndRelease = SAMPLE_RATE * 70 / 1000;
+    assertTrue(peak(samples, 0, SAMPLE_RATE * 40 / 1000) > 30);
+    assertEquals(0, peak(samples, holdAndRelease + SAMPLE_RATE / 100, samples.length));
+  }
+
+  @Test
+  public void bringsQuietSpeechToTheTarget() {
+    DspChain.AutomaticGain agc = new DspChain.AutomaticGain(SAMPLE_RATE, 1, -20, 30);
+    short[] samples = createTone(300, 1000, 4 * SAMPLE_RATE);
+
+    short[] buffer = new short[320];
+
+    for (int i = 0; i < samples.length; i += buffer.length) {
+      System.arraycopy(samples, i, buffer, 0, buffer.length);
+      agc.process(buffer, buffer.length);
+    }
+
+    // The RMS of a sine is its peak over sqrt(2)
+    double rms = peak(buffer, 0, buffer.length) / Math.sqrt(2);
+    assertEquals(-20, LevelMeter.toDb(rms), 1);
+  }
+
+  @Test
+  public void doesNotAmplifyBeyondTheMaximumGain() {
+    DspChain.AutomaticGain agc = new DspChain.AutomaticGain(SAMPLE_RATE, 1, -20, 6);
+    short[] samples = createTone(300, 200, 4 * SAMPLE_RATE);
+
+    agc.process(samples, samples.length);
+
+    assertEquals(400, peak(samples, samples.length - 320, samples.length), 10);
+  }
+
+  @Test
+  public void leavesNoiseBelowTheFloorAlone() {
+    DspChain.AutomaticGain agc = new DspChain.AutomaticGain(SAMPLE_RATE, 1, -20, 30);
+    short[] samples = createTone(300, 10, SAMPLE_RATE);
+    short[] original = samples.clone();
+
+    agc.process(samples, samples.length);
+
+    assertArrayEquals(original, samples);
+  }
+
+  @Test
+  public void runsStagesInOrderAndCountsThem() {
+    DspChain chain = new DspChain(Arrays.<DspChain.Stage>asList(
+        new DspChain.FixedGain(20 * Math.log10(2)),
+        new DspChain.FixedGain(20 * Math.log10(3))), createClock(10));
+    short[] samples = {10000, -1000};
+
+    chain.process(samples, samples.length);
+    chain.process(new short[0], 0);
+
+    // Clipped in the first stage, then tripled
+    assertArrayEquals(new short[]{Short.MAX_VALUE, -6000}, samples);
+    assertEquals(2, chain.getStageCount());
+    assertEquals(DspChain.Gain, chain.getStageType(1));
+    assertEquals(2, chain.getBufferCount(0));
+    assertEquals(20, chain.getCpuTime(0));
+    assertEquals(20, chain.getCpuTime(1));
+  }
+
+  @Test
+  public void runsAnEmptyChain() {
+    DspChain chain = new DspChain(Collections.<DspChain.Stage>emptyList(), createClock(10));
+    short[] samples = {1, 2, 3};
+
+    chain.process(samples, samples.length);
+
+    assertArrayEquals(new short[]{1, 2, 3}, samples);
+  }
+
+  /**
+   * A clock that moves {@code step} nanoseconds every time it is read.
+   */
+  private static Clock createClock(final long step) {
+    return new Clock() {
+      private long now = 0;
+
+      @Override
+      public long nanoTime() {
+        return now += step;
+      }
+    };
+  }
+
+  private static short[] createTone(double frequency, double amplitude, int length) {
+    short[] samples = new short[length];
+    for (int i = 0; i < length; i++) {
+      samples[i] = (short) Math.round(amplitude * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+    }
+    return samples;
+  }
+
+  private static int peak(short[] samples, int from, int to) {
+    int peak = 0;
+    for (int i = from; i < to; i++) {
+      peak = Math.max(peak, Math.abs(samples[i]));
+    }
+    return peak;
+  }
+}
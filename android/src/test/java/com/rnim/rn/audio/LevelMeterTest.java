@@ -0,0 +1,63 @@
+package com.rnim.rn.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LevelMeterTest {
+
+  private static final double DELTA = 0.01;
+
+  @Test
+  public void convertsFullScaleToZero() {
+    assertEquals(0, LevelMeter.toDb(32767), DELTA);
+  }
+
+  @Test
+  public void convertsHalfScaleToMinusSix() {
+    assertEquals(-6.02, LevelMeter.toDb(32767 / 2.0), DELTA);
+    assertEquals(-20, LevelMeter.toDb(3276.7), DELTA);
+  }
+
+  @Test
+  public void floorsSilence() {
+    assertEquals(LevelMeter.SILENCE_DB, LevelMeter.toDb(0), 0);
+    assertEquals(LevelMeter.SILENCE_DB, LevelMeter.toDb(-1), 0);
+    assertEquals(LevelMeter.SILENCE_DB, LevelMeter.toDb(1e-10), 0);
+  }
+
+  @Test
+  public void readsPeakRmsAndClipsOfTheWindow() {
+    LevelMeter meter = new LevelMeter();
+    LevelMeter.Reading reading = new LevelMeter.Reading();
+
+    // A square wave at half scale, which alone would be -6 dBFS RMS
+    short[] samples = new short[100];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = (short) (i % 2 == 0 ? 16384 : -16384);
+    }
+    meter.process(samples, samples.length);
+    meter.process(new short[]{Short.MAX_VALUE, Short.MIN_VALUE}, 2);
+    meter.read(reading);
+
+    assertEquals(0, reading.peakDb, DELTA);
+    assertEquals(20 * Math.log10(Math.sqrt((100 * 16384d * 16384 + 32767d * 32767 + 32768d * 32768) / 102) / 32767), reading.rmsDb, DELTA);
+    assertEquals(2, reading.clipCount);
+    assertEquals(102, reading.sampleCount);
+  }
+
+  @Test
+  public void startsANewWindowAfterReading() {
+    LevelMeter meter = new LevelMeter();
+    LevelMeter.Reading reading = new LevelMeter.Reading();
+
+    meter.process(new short[]{Short.MAX_VALUE}, 1);
+    meter.read(reading);
+    meter.read(reading);
+
+    assertEquals(LevelMeter.SILENCE_DB, reading.peakDb, 0);
+    assertEquals(LevelMeter.SILENCE_DB, reading.rmsDb, 0);
+    assertEquals(0, reading.clipCount);
+    assertEquals(0, reading.sampleCount);
+  }
+}
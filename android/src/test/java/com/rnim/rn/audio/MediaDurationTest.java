@@ -0,0 +1,181 @@
+package com.rnim.rn.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class MediaDurationTest {
+
+  private static final double DELTA = 1e-9;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readsWavFromTheDataChunk() throws IOException {
+    File file = writeWav(44100, 2, 44100 * 4 * 3, 44100 * 4 * 3);
+
+    assertEquals(3, MediaDuration.read(file, "wav", 0, 0), DELTA);
+  }
+
+  @Test
+  public void readsWavFromTheFileSizeWhenTheHeaderWasNotUpdated() throws IOException {
+    File file = writeWav(16000, 1, 0xFFFFFFFFL, 16000 * 2);
+
+    assertEquals(1, MediaDuration.read(file, "wav", 0, 0), DELTA);
+  }
+
+  @Test
+  public void readsRawPcmFromTheFileSize() throws IOException {
+    File file = writeFile(new byte[22050 * 2 * 2]);
+
+    assertEquals(0.5, MediaDuration.read(file, "raw_pcm", 44100, 2), DELTA);
+  }
+
+  @Test
+  public void countsAdtsFrames() throws IOException {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    for (int i = 0; i < 100; i++) {
+      data.write(createAdtsFrame(4, 200));  // 44.1 kHz
+    }
+    // A frame cut short by the end of the recording doesn't count
+    data.write(createAdtsFrame(4, 200), 0, 100);
+
+    assertEquals(100 * 1024 / 44100d, MediaDuration.read(writeFile(data.toByteArray()), "aac_adts", 0, 0), DELTA);
+  }
+
+  @Test
+  public void countsAmrFrames() throws IOException {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    data.write("#!AMR\n".getBytes("US-ASCII"));
+    for (int i = 0; i < 50; i++) {
+      data.write(7 << 3 | 0x04);  // 12.2 kbit/s, 31 bytes
+      data.write(new byte[31]);
+    }
+
+    assertEquals(1, MediaDuration.read(writeFile(data.toByteArray()), "amr_nb", 0, 0), DELTA);
+  }
+
+  @Test
+  public void countsAmrWbFrames() throws IOException {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    data.write("#!AMR-WB\n".getBytes("US-ASCII"));
+    for (int i = 0; i < 25; i++) {
+      data.write(8 << 3 | 0x04);  // 23.85 kbit/s, 60 bytes
+      data.write(new byte[60]);
+    }
+
+    assertEquals(0.5, MediaDuration.read(writeFile(data.toByteArray()), "amr_wb", 0, 0), DELTA);
+  }
+
+  @Test
+  public void readsTheTrackDurationOfMpeg4() throws IOException {
+    byte[] mdhd = createHeaderBox("mdhd", 0, 44100, 88200);
+    byte[] trak = createBox("trak", createBox("tkhd", new byte[84]), createBox("mdia", mdhd));
+    byte[] moov = createBox("moov", createHeaderBox("mvhd", 0, 1000, 1999), trak);
+    File file = writeFile(concat(createBox("ftyp", "isom".getBytes("US-ASCII")), createBox("mdat", new byte[1000]), moov));
+
+    assertEquals(2, MediaDuration.read(file, "mpeg_4", 0, 0), DELTA);
+    assertEquals(2, MediaDuration.read(file, "three_gpp", 0, 0), DELTA);
+  }
+
+  @Test
+  public void fallsBackToTheMovieDuration() throws IOException {
+    byte[] moov = createBox("moov", createHeaderBox("mvhd", 1, 1000, 1999));
+    File file = writeFile(concat(createBox("ftyp", "isom".getBytes("US-ASCII")), moov));
+
+    assertEquals(1.999, MediaDuration.read(file, "mpeg_4", 0, 0), DELTA);
+  }
+
+  @Test
+  public void failsOnMpeg4WithoutMovie() throws IOException {
+    File file = writeFile(concat(createBox("ftyp", "isom".getBytes("US-ASCII")), createBox("mdat", new byte[100])));
+
+    assertEquals(-1, MediaDuration.read(file, "mpeg_4", 0, 0), 0);
+  }
+
+  @Test
+  public void failsOnWhatItCannotRead() throws IOException {
+    File garbage = writeFile(new byte[100]);
+
+    assertEquals(-1, MediaDuration.read(garbage, "wav", 0, 0), 0);
+    assertEquals(-1, MediaDuration.read(garbage, "amr_nb", 0, 0), 0);
+    assertEquals(-1, MediaDuration.read(garbage, "webm", 0, 0), 0);
+    assertEquals(-1, MediaDuration.read(new File(folder.getRoot(), "missing.wav"), "wav", 0, 0), 0);
+  }
+
+  private File writeWav(int sampleRate, int channels, long headerDataSize, int dataSize) throws IOException {
+    File file = folder.newFile();
+    RandomAccessFile output = new RandomAccessFile(file, "rw");
+    try {
+      new WavHeader().write(output.getChannel(), sampleRate, channels, 16, headerDataSize);
+      output.setLength(WavHeader.SIZE + dataSize);
+    } finally {
+      output.close();
+    }
+    return file;
+  }
+
+  private File writeFile(byte[] data) throws IOException {
+    File file = folder.newFile();
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      output.write(data);
+    } finally {
+      output.close();
+    }
+    return file;
+  }
+
+  private static byte[] createAdtsFrame(int rateIndex, int length) {
+    byte[] frame = new byte[length];
+    frame[0] = (byte) 0xFF;
+    frame[1] = (byte) 0xF1;
+    frame[2] = (byte) (1 << 6 | rateIndex << 2);
+    frame[3] = (byte) ((length >> 11) & 0x03);
+    frame[4] = (byte) (length >> 3);
+    frame[5] = (byte) ((length & 0x07) << 5 | 0x1F);
+    frame[6] = (byte) 0xFC;  // One raw data block
+    return frame;
+  }
+
+  /**
+   * An `mvhd` or `mdhd` box with the time scale and duration, which is all that is read.
+   */
+  private static byte[] createHeaderBox(String type, int version, int timeScale, long duration) throws IOException {
+    ByteBuffer body = ByteBuffer.allocate(version == 1 ? 32 : 20);
+    body.put((byte) version);
+    if (version == 1) {
+      body.position(20);
+      body.putInt(timeScale).putLong(duration);
+    } else {
+      body.position(12);
+      body.putInt(timeScale).putInt((int) duration);
+    }
+    return createBox(type, body.array());
+  }
+
+  private static byte[] createBox(String type, byte[]... children) throws IOException {
+    byte[] body = concat(children);
+    ByteBuffer box = ByteBuffer.allocate(8 + body.length);
+    box.putInt(8 + body.length).put(type.getBytes("US-ASCII")).put(body);
+    return box.array();
+  }
+
+  private static byte[] concat(byte[]... parts) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (byte[] part : parts) {
+      output.write(part);
+    }
+    return output.toByteArray();
+  }
+}
@@ -0,0 +1,123 @@
+package com.rnim.rn.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link Transcoder.Resampler}, which is plain Java unlike the rest of the transcoder.
+ */
+public class ResamplerTest {
+
+  @Test
+  public void copiesAtTheSameRate() {
+    Transcoder.Resampler resampler = new Transcoder.Resampler(16000, 2, 16000, 2);
+    short[] input = {1, -1, 2, -2, 3, -3};
+
+    assertArrayEquals(input, process(resampler, input));
+  }
+
+  @Test
+  public void mixesStereoDownToMono() {
+    Transcoder.Resampler resampler = new Transcoder.Resampler(16000, 2, 16000, 1);
+
+    assertArrayEquals(new short[]{150, -50, 0}, process(resampler, new short[]{100, 200, -100, 0, 32767, -32767}));
+  }
+
+  @Test
+  public void copiesMonoToBothChannels() {
+    Transcoder.Resampler resampler = new Transcoder.Resampler(16000, 1, 16000, 2);
+
+    assertArrayEquals(new short[]{7, 7, -9, -9}, process(resampler, new short[]{7, -9}));
+  }
+
+  @Test
+  public void interpolatesWhenUpsampling() {
+    Transcoder.Resampler resampler = new Transcoder.Resampler(8000, 1, 16000, 1);
+
+    // The last frame of a buffer is only interpolated towards once the next one is there
+    assertArrayEquals(new short[]{0, 50, 100, 150, 200, 250}, process(resampler, new short[]{0, 100, 200, 300}));
+    assertArrayEquals(new short[]{300, 350}, process(resampler, new short[]{400}));
+  }
+
+  @Test
+  public void producesOneFrameForEveryStepWhenDownsampling() {
+    Transcoder.Resampler resampler = new Transcoder.Resampler(48000, 1, 16000, 1);
+
+    assertEquals(16000, process(resampler, createTone(1000, 10000, 48000, 48000)).length, 1);
+  }
+
+  @Test
+  public void keepsTheLevelOfDc() {
+    Transcoder.Resampler resampler = new Transcoder.Resampler(44100, 1, 16000, 1);
+    short[] input = new short[44100];
+    Arrays.fill(input, (short) 12000);
+
+    short[] output = process(resampler, input);
+
+    assertEquals(12000, output[output.length - 1], 2);
+  }
+
+  @Test
+  public void keepsTonesBelowTheOutputNyquistFrequency() {
+    Transcoder.Resampler resampler = new Transcoder.Resampler(48000, 1, 16000, 1);
+
+    short[] output = process(resampler, createTone(1000, 10000, 48000, 48000));
+
+    assertEquals(10000, peak(output, output.length / 2), 300);
+  }
+
+  @Test
+  public void filtersTonesThatWouldAlias() {
+    // 12 kHz would fold back to 4 kHz at 16 kHz
+    Transcoder.Resampler resampler = new Transcoder.Resampler(48000, 1, 16000, 1);
+
+    short[] output = process(resampler, createTone(12000, 10000, 48000, 48000));
+
+    assertTrue(peak(output, output.length / 2) < 100);
+  }
+
+  @Test
+  public void resamplesTheSameAcrossBuffers() {
+    short[] input = createTone(440, 8000, 44100, 10000);
+    short[] whole = process(new Transcoder.Resampler(44100, 2, 22050, 1), input);
+
+    Transcoder.Resampler resampler = new Transcoder.Resampler(44100, 2, 22050, 1);
+    short[] pieces = new short[whole.length + 16];
+    int written = 0;
+    for (int offset = 0; offset < input.length; offset += 998) {
+      short[] buffer = Arrays.copyOfRange(input, offset, Math.min(input.length, offset + 998));
+      short[] output = process(resampler, buffer);
+      System.arraycopy(output, 0, pieces, written, output.length);
+      written += output.length;
+    }
+
+    assertArrayEquals(whole, Arrays.copyOf(pieces, written));
+  }
+
+  private static short[] process(Transcoder.Resampler resampler, short[] input) {
+    short[] output = new short[resampler.getOutputCapacity(input.length)];
+    int written = resampler.process(input, input.length, output);
+    return Arrays.copyOf(output, written);
+  }
+
+  private static short[] createTone(double frequency, double amplitude, int sampleRate, int length) {
+    short[] samples = new short[length];
+    for (int i = 0; i < length; i++) {
+      samples[i] = (short) Math.round(amplitude * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+    }
+    return samples;
+  }
+
+  private static int peak(short[] samples, int from) {
+    int peak = 0;
+    for (int i = from; i < samples.length; i++) {
+      peak = Math.max(peak, Math.abs(samples[i]));
+    }
+    return peak;
+  }
+}
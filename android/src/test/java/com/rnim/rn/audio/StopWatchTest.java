@@ -0,0 +1,72 @@
+package com.rnim.rn.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StopWatchTest {
+
+  private static final double DELTA = 1e-9;
+
+  private static class FakeClock implements Clock {
+    long now = 1000;
+
+    @Override
+    public long nanoTime() {
+      return now;
+    }
+  }
+
+  private final FakeClock clock = new FakeClock();
+  private final StopWatch stopWatch = new StopWatch(clock);
+
+  @Test
+  public void startsStopped() {
+    clock.now += 5000000000L;
+
+    assertEquals(0, stopWatch.getTimeNanos());
+    assertEquals(0, stopWatch.stop(), DELTA);
+  }
+
+  @Test
+  public void countsTimeWhileRunning() {
+    stopWatch.start();
+    clock.now += 1500000000L;
+
+    assertEquals(1500000000L, stopWatch.getTimeNanos());
+    assertEquals(1.5, stopWatch.getTimeSeconds(), DELTA);
+    assertEquals(1.5, stopWatch.stop(), DELTA);
+  }
+
+  @Test
+  public void doesNotCountTimeWhileStopped() {
+    stopWatch.start();
+    clock.now += 1000000000L;
+    stopWatch.stop();
+    clock.now += 60000000000L;
+    stopWatch.start();
+    clock.now += 250000000L;
+
+    assertEquals(1.25, stopWatch.getTimeSeconds(), DELTA);
+    assertEquals(1.25, stopWatch.stop(), DELTA);
+    assertEquals(1.25, stopWatch.stop(), DELTA);
+  }
+
+  @Test
+  public void keepsNanosecondsOverLongRecordings() {
+    stopWatch.start();
+    clock.now += 10L * 24 * 3600 * 1000000000L + 1;
+
+    assertEquals(10L * 24 * 3600 * 1000000000L + 1, stopWatch.getTimeNanos());
+  }
+
+  @Test
+  public void resets() {
+    stopWatch.start();
+    clock.now += 1000000000L;
+    stopWatch.reset();
+    clock.now += 1000000000L;
+
+    assertEquals(0, stopWatch.getTimeNanos());
+  }
+}
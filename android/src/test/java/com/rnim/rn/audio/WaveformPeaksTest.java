@@ -0,0 +1,141 @@
+package com.rnim.rn.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class WaveformPeaksTest {
+
+  private static final float DELTA = 1e-6f;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void writesAndReadsThePeaksOfEveryBucket() throws IOException {
+    WaveformPeaks peaks = new WaveformPeaks(16000, 1, 0);
+    // Bucket b of the finest level goes from -b to b
+    short[] samples = new short[256 * 8];
+    for (int i = 0; i < samples.length; i++) {
+      int bucket = i / 256;
+      samples[i] = (short) (i % 2 == 0 ? -bucket * 1000 : bucket * 1000);
+    }
+    peaks.process(samples, samples.length);
+
+    WaveformPeaks.Waveform waveform = WaveformPeaks.read(write(peaks), 8);
+
+    assertEquals(16000, waveform.sampleRate);
+    assertEquals(samples.length, waveform.frames);
+    assertEquals(256, waveform.bucketSize);
+    assertEquals(8, waveform.min.length);
+    for (int bucket = 0; bucket < 8; bucket++) {
+      assertEquals(-bucket * 1000 / 32768f, waveform.min[bucket], DELTA);
+      assertEquals(bucket * 1000 / 32768f, waveform.max[bucket], DELTA);
+    }
+  }
+
+  @Test
+  public void mixesChannelsIntoOneBucket() throws IOException {
+    WaveformPeaks peaks = new WaveformPeaks(16000, 2, 0);
+    peaks.process(new short[]{-100, 5000, 200, -8000}, 4);
+
+    WaveformPeaks.Waveform waveform = WaveformPeaks.read(write(peaks), 1);
+
+    assertEquals(2, waveform.frames);
+    assertEquals(-8000 / 32768f, waveform.min[0], DELTA);
+    assertEquals(5000 / 32768f, waveform.max[0], DELTA);
+  }
+
+  @Test
+  public void readsTheCoarsestLevelWithEnoughBuckets() throws IOException {
+    WaveformPeaks peaks = new WaveformPeaks(16000, 1, 0);
+    short[] samples = new short[4096 * 10];
+    peaks.process(samples, samples.length);
+    File file = write(peaks);
+
+    // 160, 40 and 10 buckets of 256, 1024 and 4096 frames
+    assertEquals(4096, WaveformPeaks.read(file, 10).bucketSize);
+    assertEquals(1024, WaveformPeaks.read(file, 11).bucketSize);
+    assertEquals(1024, WaveformPeaks.read(file, 40).bucketSize);
+    assertEquals(256, WaveformPeaks.read(file, 41).bucketSize);
+    assertEquals(4096, WaveformPeaks.read(file, 1).bucketSize);
+  }
+
+  @Test
+  public void mergesBucketsDownToTheRequestedCount() throws IOException {
+    WaveformPeaks peaks = new WaveformPeaks(16000, 1, 0);
+    short[] samples = new short[256 * 12];
+    samples[256 * 11] = 3000;
+    peaks.process(samples, samples.length);
+
+    WaveformPeaks.Waveform waveform = WaveformPeaks.read(write(peaks), 5);
+
+    assertEquals(256, waveform.bucketSize);
+    assertEquals(5, waveform.max.length);
+    assertEquals(3000 / 32768f, waveform.max[4], DELTA);
+    assertEquals(0, waveform.max[3], DELTA);
+  }
+
+  @Test
+  public void skipsLevelsThatFilledUp() throws IOException {
+    // 100 ms at 16 kHz leaves room for 8, 3 and 2 buckets
+    WaveformPeaks peaks = new WaveformPeaks(16000, 1, 100);
+    short[] samples = new short[256 * 10];
+    samples[samples.length - 1] = 3000;
+    peaks.process(samples, samples.length);
+
+    WaveformPeaks.Waveform waveform = WaveformPeaks.read(write(peaks), 10);
+
+    assertEquals(1024, waveform.bucketSize);
+    assertEquals(3, waveform.max.length);
+    assertEquals(3000 / 32768f, waveform.max[2], DELTA);
+  }
+
+  @Test
+  public void neverReturnsMoreBucketsThanThereAre() throws IOException {
+    WaveformPeaks peaks = new WaveformPeaks(16000, 1, 0);
+    short[] samples = new short[300];
+    peaks.process(samples, samples.length);
+
+    WaveformPeaks.Waveform waveform = WaveformPeaks.read(write(peaks), 100);
+
+    // A whole bucket and the partial one that was closed on write
+    assertEquals(256, waveform.bucketSize);
+    assertEquals(2, waveform.min.length);
+    assertEquals(300, waveform.frames);
+  }
+
+  @Test
+  public void readsAnEmptyRecording() throws IOException {
+    WaveformPeaks.Waveform waveform = WaveformPeaks.read(write(new WaveformPeaks(16000, 1, 0)), 100);
+
+    assertEquals(0, waveform.frames);
+    assertEquals(0, waveform.min.length);
+    assertEquals(0, waveform.max.length);
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsOtherFiles() throws IOException {
+    File file = folder.newFile();
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      output.write(new byte[64]);
+    } finally {
+      output.close();
+    }
+
+    WaveformPeaks.read(file, 10);
+  }
+
+  private File write(WaveformPeaks peaks) throws IOException {
+    File file = folder.newFile("take" + WaveformPeaks.SIDECAR_EXTENSION);
+    peaks.write(file);
+    return file;
+  }
+}
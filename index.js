@@ -84,6 +84,37 @@ const AudioOuputFormatAndroid = Object.freeze(
         THREE_GPP: AudioRecorderManager.ThreeGppAudioOutputFormat,
         WEBM: AudioRecorderManager.WebmAudioOutputFormat,
         MPEG_2_TS: AudioRecorderManager.Mpeg2TsAudioOutputFormat,
+        WAV: AudioRecorderManager.WavAudioOutputFormat,
+        RAW_PCM: AudioRecorderManager.RawPcmAudioOutputFormat,
+      }
+    : {}
+);
+
+const AudioEngineAndroid = Object.freeze(
+  Platform.OS === 'android'
+    ? {
+        MEDIA_RECORDER: AudioRecorderManager.MediaRecorderEngine,
+        PCM: AudioRecorderManager.PcmEngine,
+      }
+    : {}
+);
+
+const DspStageAndroid = Object.freeze(
+  Platform.OS === 'android'
+    ? {
+        GAIN: AudioRecorderManager.DspGain,
+        HIGH_PASS: AudioRecorderManager.DspHighPass,
+        NOISE_GATE: AudioRecorderManager.DspNoiseGate,
+        AGC: AudioRecorderManager.DspAgc,
+      }
+    : {}
+);
+
+const TranscodeEncodingAndroid = Object.freeze(
+  Platform.OS === 'android'
+    ? {
+        AAC: AudioRecorderManager.AacTranscodeEncoding,
+        OPUS: AudioRecorderManager.OpusTranscodeEncoding,
       }
     : {}
 );
@@ -112,12 +143,31 @@ const AudioError = Object.freeze({
     Platform.OS === 'android' ? AudioRecorderManager.UnknownError : 'RECORDER_UNKNOWN_ERROR',
   FailedToEncodeAudio:
     Platform.OS === 'ios' ? AudioRecorderManager.FailedToEncodeAudio : 'AUDIO_ENCODING_ERROR',
+  TranscodeFailed:
+    Platform.OS === 'android' ? AudioRecorderManager.TranscodeFailed : 'TRANSCODE_FAILED',
+  UploadFailed: Platform.OS === 'android' ? AudioRecorderManager.UploadFailed : 'UPLOAD_FAILED',
+  RecordingIndexFailed:
+    Platform.OS === 'android' ? AudioRecorderManager.RecordingIndexFailed : 'RECORDING_INDEX_FAILED',
 });
 
 const AudioEvent = Object.freeze({
   Progress: 'recordingProgress',
   Finished: 'recordingFinished',
   Error: 'recordingError',
+  DataChunk: 'recordingDataChunk',
+  Data: 'recordingData',
+  SpeechStart: 'speechStart',
+  SpeechEnd: 'speechEnd',
+  SegmentFinished: 'segmentFinished',
+  Started: 'recordingStarted',
+  TranscodeProgress: 'transcodeProgress',
+  TranscodeFinished: 'transcodeFinished',
+  UploadProgress: 'uploadProgress',
+  Metrics: 'recorderMetrics',
+  Interrupted: 'recordingInterrupted',
+  Resumed: 'recordingResumed',
+  Evicted: 'recordingsEvicted',
+  DeleteProgress: 'deleteProgress',
 });
 
 const AudioState = Object.freeze({
@@ -138,8 +188,32 @@ const AudioDefaultConfig = Object.freeze({
   MeasurementMode: false,
   AudioEncodingBitRate: 128000,
   IncludeBase64: false,
+  Base64ChunkSize: 0, // Bytes, Android only
   AudioSource: 1, // MIC
   MaxDuration: 0, // MilliSeconds
+  Engine: AudioEngineAndroid.MEDIA_RECORDER ?? 'media_recorder',
+  StreamData: false, // Android PCM engine only
+  StreamBatchDuration: 100, // MilliSeconds
+  StreamQueueCapacity: 8,
+  StreamDropPolicy: 'drop_oldest',
+  StreamAcknowledge: false,
+  VadMode: 'off', // Android PCM engine only, 'skip_silence' or 'index'
+  VadEnergyThreshold: -45, // dBFS
+  VadZeroCrossingThreshold: 0.25,
+  VadHangover: 300, // MilliSeconds
+  Waveform: false, // Android PCM engine only
+  SegmentDuration: 0, // Seconds, 0 to record a single file
+  SegmentSize: 0, // Bytes, 0 to record a single file
+  CrashSafe: false, // Android only
+  SyncInterval: 1000, // MilliSeconds
+  WarmUpCount: 1, // Android only
+  PreRoll: 0, // Seconds, Android PCM engine only
+  Dsp: null, // Android PCM engine only, e.g. [{ Type: 'high_pass', Cutoff: 80 }, { Type: 'agc' }]
+  Transcode: null, // Android only, e.g. { AudioEncoding: 'opus', AudioEncodingBitRate: 24000 }
+  HandleInterruptions: false, // Android only
+  ForegroundService: null, // Android only, e.g. { Title: 'Recording', Text: 'Tap to return' }
+  BackgroundProgress: false, // Android only
+  WarmUpTimeout: 30000, // MilliSeconds
 });
 
 const buildRejectError = (code, message) => ({ code, message });
@@ -149,6 +223,7 @@ class AudioRecorder {
     this.config = { ...AudioDefaultConfig };
     this._state = AudioState.Initial;
     this.lastPreparedPath = null;
+    this.sessionId = null; // Android only, set once prepared
     this.errorSubscription = AudioRecorderEventEmitter.addListener(
       AudioEvent.Error,
       this._onError.bind(this)
@@ -210,12 +285,16 @@ class AudioRecorder {
     this.lastPreparingPath = path;
 
     return new Promise((resolve, reject) => {
-      AudioRecorderManager.prepareRecordingAtPath(path, this.config)
-        .then((outputPath) => {
+      AudioRecorderManager.prepareRecordingAtPath(...this._args(path, this.config))
+        .then((result) => {
+          // Android resolves with the id of the new session, iOS with the path
+          if (Platform.OS === 'android') {
+            this.sessionId = result;
+          }
           this._state = AudioState.Prepared;
-          this.lastPreparedPath = outputPath;
+          this.lastPreparedPath = path;
           this.lastPreparingPath = null;
-          resolve(outputPath);
+          resolve(path);
         })
         .catch((error) => {
           this.lastPreparingPath = null;
@@ -254,7 +333,7 @@ class AudioRecorder {
         return;
       }
 
-      AudioRecorderManager.startRecording()
+      AudioRecorderManager.startRecording(...this._args())
         .then((path) => {
           this._state = AudioState.Recording;
           resolve(path);
@@ -288,7 +367,7 @@ class AudioRecorder {
         return;
       }
 
-      AudioRecorderManager.pauseRecording()
+      AudioRecorderManager.pauseRecording(...this._args())
         .then(() => {
           this._state = AudioState.Paused;
           resolve();
@@ -322,7 +401,7 @@ class AudioRecorder {
         return;
       }
 
-      AudioRecorderManager.resumeRecording()
+      AudioRecorderManager.resumeRecording(...this._args())
         .then(() => {
           this._state = AudioState.Recording;
           resolve();
@@ -351,7 +430,7 @@ class AudioRecorder {
         return;
       }
 
-      AudioRecorderManager.stopRecording()
+      AudioRecorderManager.stopRecording(...this._args())
         .then((data) => {
           resolve(data);
         })
@@ -362,8 +441,14 @@ class AudioRecorder {
   };
 
   destroy = () => {
+    if (Platform.OS === 'android' && this.sessionId === null) {
+      // Never prepared, and a null session id would destroy every other recorder's session
+      this._reset();
+      return Promise.resolve();
+    }
+
     return new Promise((resolve, reject) => {
-      AudioRecorderManager.destroy()
+      AudioRecorderManager.destroy(...this._args())
         .then(() => {
           this._reset();
           resolve();
@@ -380,6 +465,238 @@ class AudioRecorder {
     return this.destroy();
   };
 
+  /**
+   * Prepares recorders for the current config, merged with `config`, ahead of `prepareAtPath`,
+   * and resolves with the number of warm recorders for it (Android only).
+   */
+  warmUp = (config = {}) => {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve(0);
+    }
+    return AudioRecorderManager.warmUp({ ...this.config, ...config });
+  };
+
+  /**
+   * Re-encodes `inputPath` to `outputPath` with `{ AudioEncoding, AudioEncodingBitRate,
+   * SampleRate, Channels }` and resolves with `{ path, uri, duration, size }` (Android only).
+   *
+   * Errors:
+   * - FailedToConfigureRecorder
+   * - MethodNotAvailable
+   * - NoAccessToWriteToDirectory
+   * - TranscodeFailed
+   */
+  transcode = (inputPath, outputPath, settings = {}) => {
+    if (Platform.OS !== 'android') {
+      return Promise.reject(
+        buildRejectError(AudioError.MethodNotAvailable, 'Transcoding is only available on Android')
+      );
+    }
+    return AudioRecorderManager.transcode(inputPath, outputPath, settings);
+  };
+
+  /**
+   * Sets how many transcoding jobs may run at the same time (Android only).
+   */
+  static setTranscodeConcurrency(concurrency) {
+    if (Platform.OS === 'android') {
+      AudioRecorderManager.setTranscodeConcurrency(concurrency);
+    }
+  }
+
+  /**
+   * Uploads the file at `path` to `url` in chunks and resolves with
+   * `{ id, path, size, status, response }` (Android only). Options are `{ UploadId, Method,
+   * Headers, ChunkSize, MaxRetries }`; starting an upload again with the same id resumes it.
+   *
+   * Errors:
+   * - InvalidState
+   * - NoRecordDataFound
+   * - UploadFailed
+   */
+  upload = (path, url, options = {}) => {
+    if (Platform.OS !== 'android') {
+      return Promise.reject(
+        buildRejectError(AudioError.MethodNotAvailable, 'Uploading is only available on Android')
+      );
+    }
+    return AudioRecorderManager.upload({ ...options, Path: path, Url: url });
+  };
+
+  /**
+   * Uploads the current recording to `url` while it is being made, finishing once it stops
+   * (Android only). Takes the same options as `upload`.
+   *
+   * Errors:
+   * - InvalidState
+   * - RecorderNotPrepared
+   * - UploadFailed
+   */
+  uploadRecording = (url, options = {}) => {
+    if (Platform.OS !== 'android') {
+      return Promise.reject(
+        buildRejectError(AudioError.MethodNotAvailable, 'Uploading is only available on Android')
+      );
+    }
+    return AudioRecorderManager.upload({ ...options, SessionId: this.sessionId, Url: url });
+  };
+
+  /**
+   * Stops an upload, which can be resumed later. Resolves with whether it was running
+   * (Android only).
+   */
+  cancelUpload = (id) => {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve(false);
+    }
+    return AudioRecorderManager.cancelUpload(id);
+  };
+
+  /**
+   * Resolves with the recorder's counters and histograms (Android only), see the README.
+   */
+  static getMetrics() {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve(null);
+    }
+    return AudioRecorderManager.getMetrics();
+  }
+
+  static resetMetrics() {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve();
+    }
+    return AudioRecorderManager.resetMetrics();
+  }
+
+  /**
+   * Sends the metrics as `recorderMetrics` events every `interval` milliseconds, 0 to stop
+   * (Android only).
+   */
+  static setMetricsInterval(interval) {
+    if (Platform.OS === 'android') {
+      AudioRecorderManager.setMetricsInterval(interval);
+    }
+  }
+
+  /**
+   * Resolves with a page of finished recordings from the native index, without reading the
+   * files (Android only): `{ recordings, total, offset, nextOffset }`. `query` may have
+   * `Directory`, `Format`, `SortBy` (`created`, `lastUsed`, `size`, `duration`, `path`), `Order`
+   * (`asc`, `desc`), `Offset` and `Limit` (default 50, at most 500).
+   *
+   * Errors:
+   * - RecordingIndexFailed
+   */
+  static listRecordings(query = {}) {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve({ recordings: [], total: 0, offset: 0, nextOffset: null });
+    }
+    return AudioRecorderManager.listRecordings(query);
+  }
+
+  /**
+   * Marks a recording as used now, so that it is evicted after the ones used less recently
+   * (Android only). Resolves with false when it isn't indexed.
+   */
+  static touchRecording(path) {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve(false);
+    }
+    return AudioRecorderManager.touchRecording(path);
+  }
+
+  /**
+   * Deletes the least recently used recordings beyond `{ MaxSize, MaxCount, MaxAge }` (bytes,
+   * count, milliseconds since last use), now and after every recording (Android only). Resolves
+   * with the deleted paths.
+   */
+  static setStorageQuota(quota = {}) {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve([]);
+    }
+    return AudioRecorderManager.setStorageQuota(quota);
+  }
+
+  /**
+   * Deletes files and directories in the background, a few at a time, with `deleteProgress`
+   * events (Android only). Resolves with `{ id, results, deletedFiles }` once they are gone, or,
+   * with `{ Trash: true }`, as soon as they are renamed out of the way.
+   */
+  static deletePaths(paths, options = {}) {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve({
+        id: null,
+        results: paths.map(path => ({ path, deleted: false })),
+        deletedFiles: 0,
+      });
+    }
+    return AudioRecorderManager.deletePaths(paths, options);
+  }
+
+  /**
+   * Resolves with `[{ type, cpuTime, buffers, averageCpuTime }]` for every stage of the `Dsp`
+   * chain of the current recording (Android only).
+   */
+  getDspStats = () => {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve([]);
+    }
+    return AudioRecorderManager.getDspStats(this.sessionId);
+  };
+
+  /**
+   * Resolves with `{ standby, duration, cpuTime, cpuUsage, preRoll }` for a recorder prepared
+   * with `PreRoll` (Android only).
+   */
+  getStandbyStats = () => {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve(null);
+    }
+    return AudioRecorderManager.getStandbyStats(this.sessionId);
+  };
+
+  /**
+   * Releases the recorders prepared by `warmUp` (Android only).
+   */
+  coolDown = () => {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve();
+    }
+    return AudioRecorderManager.coolDown();
+  };
+
+  /**
+   * Reads back about `buckets` min/max pairs of a recording made with `Waveform: true`
+   * (Android only).
+   */
+  getWaveform = (path, buckets) => {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve(null);
+    }
+    return AudioRecorderManager.getWaveform(path, buckets);
+  };
+
+  /**
+   * Repairs recordings in `directory` left unfinished by a `CrashSafe` session and resolves with
+   * one entry per recording (Android only).
+   */
+  recoverRecordings = (directory) => {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve([]);
+    }
+    return AudioRecorderManager.recoverRecordings(directory);
+  };
+
+  /**
+   * Lets the next `recordingData` batch through when `StreamAcknowledge` is on (Android only).
+   */
+  acknowledgeData = () => {
+    if (Platform.OS === 'android') {
+      AudioRecorderManager.acknowledgeRecordingData(this.sessionId);
+    }
+  };
+
   checkAuthorizationStatus = () => {
     return AudioRecorderManager.checkAuthorizationStatus();
   };
@@ -404,6 +721,14 @@ class AudioRecorder {
     }
   };
 
+  /**
+   * Arguments for a native call, led by this recorder's session id on Android.
+   */
+  _args = (...args) => (Platform.OS === 'android' ? [this.sessionId, ...args] : args);
+
+  _isOwnEvent = (data) =>
+    Platform.OS === 'android' ? data.sessionId === this.sessionId : data.path === this.lastPreparedPath;
+
   _reset = () => {
     this._state = AudioState.Initial;
     this.lastPreparedPath = null;
@@ -411,7 +736,7 @@ class AudioRecorder {
   };
 
   _onError(error) {
-    if (error.path !== this.lastPreparedPath) {
+    if (!this._isOwnEvent(error)) {
       // unrelated error so ignore it
       return;
     }
@@ -420,7 +745,7 @@ class AudioRecorder {
   }
 
   _onFinished(data) {
-    if (data.path !== this.lastPreparedPath) {
+    if (!this._isOwnEvent(data)) {
       // unrelated event so ignore it
       return;
     }
@@ -436,6 +761,9 @@ export {
   AudioSourceAndroid,
   AudioEncodingIOS,
   AudioEncodingAndroid,
+  AudioEngineAndroid,
+  TranscodeEncodingAndroid,
+  DspStageAndroid,
   AudioError,
   AudioEvent,
   AudioState,